@@ -0,0 +1,85 @@
+package com.mediaindexer.thumbnail;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scaling cost of the {@link Resampler} for the reductions the thumbnail pipeline makes, next to
+ * the bilinear {@code drawImage} it replaced. The full-size case only occurs for formats that
+ * cannot be reduced while decoding; JPEGs reach the resampler at about twice the thumbnail size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResamplerBenchmark {
+    /** Source size and target size. */
+    @Param({"6000x4000:512x341", "1500x1000:512x341", "750x500:512x341", "512x341:150x100"})
+    public String scaling;
+    
+    private BufferedImage source;
+    private int width;
+    private int height;
+    private RasterPool pool;
+    
+    @Setup
+    public void setUp() {
+        String[] sizes = scaling.split(":");
+        String[] sourceSize = sizes[0].split("x");
+        String[] targetSize = sizes[1].split("x");
+        source = createPhotoLikeImage(Integer.parseInt(sourceSize[0]), Integer.parseInt(sourceSize[1]));
+        width = Integer.parseInt(targetSize[0]);
+        height = Integer.parseInt(targetSize[1]);
+        pool = new RasterPool(4, 64L * 1024 * 1024);
+    }
+    
+    @Benchmark
+    public BufferedImage resampler() {
+        BufferedImage scaled = Resampler.resize(source, width, height, pool);
+        pool.release(scaled);
+        return scaled;
+    }
+    
+    @Benchmark
+    public BufferedImage drawImage() {
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = scaled.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g2d.drawImage(source, 0, 0, width, height, null);
+        g2d.dispose();
+        return scaled;
+    }
+    
+    /** Smooth gradients with fine noise on top, so neither pass can skip work on flat areas. */
+    private static BufferedImage createPhotoLikeImage(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = (x * 255 / width + random.nextInt(32)) & 0xff;
+                int g = (y * 255 / height + random.nextInt(32)) & 0xff;
+                int b = ((x + y) * 127 / (width + height) + random.nextInt(64)) & 0xff;
+                image.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        return image;
+    }
+}
@@ -6,6 +6,7 @@ import com.mediaindexer.model.MediaFile;
 import com.mediaindexer.model.MiniThumbnail;
 import com.mediaindexer.model.Thumbnail;
 import com.mediaindexer.model.ThumbnailErrorType;
+import com.mediaindexer.model.VerifyStatus;
 import com.mediaindexer.service.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -51,6 +52,14 @@ public class MediaIndexerCommand implements Callable<Integer> {
                 description = "Scan filesystem and generate both quick and content hashes")
         private boolean fullScan;
         
+        @Option(names = {"--scrub"}, 
+                description = "Re-verify stored content hashes within the daily byte budget")
+        private boolean scrub;
+        
+        @Option(names = {"--near-duplicates", "--similar"}, 
+                description = "List groups of visually similar images using perceptual hashes")
+        private boolean nearDuplicates;
+        
         @Option(names = {"--thumbnails", "--tn"}, 
                 description = "Generate both thumbnails and mini thumbnails")
         private boolean thumbnails;
@@ -103,6 +112,14 @@ public class MediaIndexerCommand implements Callable<Integer> {
                     return handleFullScan(config, databaseService);
                 }
                 
+                if (operationMode.scrub) {
+                    return handleScrub(config, databaseService);
+                }
+                
+                if (operationMode.nearDuplicates) {
+                    return handleNearDuplicates(config, databaseService);
+                }
+                
                 if (operationMode.thumbnails) {
                     return handleThumbnails(config, databaseService);
                 }
@@ -188,12 +205,78 @@ public class MediaIndexerCommand implements Callable<Integer> {
         return 0;
     }
     
+    private Integer handleScrub(MediaIndexerConfig config, DatabaseService databaseService) throws Exception {
+        logger.info("Starting integrity scrub");
+        
+        ScrubService scrubService = new ScrubService(databaseService, config);
+        scrubService.scrub();
+        
+        long dailyBudgetBytes = config.getScrub().getDailyBudgetMB() * 1024 * 1024;
+        long hashedBytes = databaseService.getContentHashedBytes();
+        
+        System.out.println("\n=== Integrity Scrub Report ===");
+        System.out.println("Verified: " + formatFileSize(scrubService.getVerifiedBytes()));
+        System.out.println("  OK: " + scrubService.getCount(VerifyStatus.OK));
+        System.out.println("  Mismatches: " + scrubService.getCount(VerifyStatus.MISMATCH));
+        System.out.println("  Missing: " + scrubService.getCount(VerifyStatus.MISSING));
+        System.out.println("  Changed since scan: " + scrubService.getCount(VerifyStatus.CHANGED));
+        System.out.println("  Errors: " + scrubService.getCount(VerifyStatus.ERROR));
+        System.out.println("  Partly verified, continued next run: " + scrubService.getPartialCount());
+        System.out.println("  Skipped, over the budget: " + scrubService.getSkippedCount());
+        if (dailyBudgetBytes > 0) {
+            System.out.printf("Full archive (%s) verified every %d day(s) at the current budget%n",
+                             formatFileSize(hashedBytes), Math.max(1, (hashedBytes + dailyBudgetBytes - 1) / dailyBudgetBytes));
+        }
+        System.out.println();
+        
+        List<MediaFile> mismatches = databaseService.getMediaFilesByVerifyStatus(VerifyStatus.MISMATCH.getCode());
+        if (mismatches.isEmpty()) {
+            System.out.println("✓ No content hash mismatches recorded");
+        } else {
+            System.out.printf("=== Files With Content Hash Mismatches (%d) ===%n", mismatches.size());
+            for (MediaFile mediaFile : mismatches) {
+                System.out.println("File: " + mediaFile.getFilePath());
+                System.out.println("  Last Verified: " + mediaFile.getLastVerified());
+                System.out.println("  File Size: " + formatFileSize(mediaFile.getFileSize()));
+            }
+        }
+        
+        return mismatches.isEmpty() ? 0 : 2;
+    }
+    
+    private Integer handleNearDuplicates(MediaIndexerConfig config, DatabaseService databaseService) throws Exception {
+        logger.info("Starting near duplicate analysis");
+        
+        NearDuplicateService nearDuplicateService = new NearDuplicateService(databaseService, config);
+        List<List<MediaFile>> groups = nearDuplicateService.findNearDuplicates();
+        
+        System.out.println("\n=== Near Duplicate Report ===");
+        System.out.println("Maximum Hamming distance: " + config.getHashing().getNearDuplicateDistance());
+        System.out.println();
+        
+        if (groups.isEmpty()) {
+            System.out.println("No near duplicates found (run --thumbnails to compute perceptual hashes).");
+            return 0;
+        }
+        
+        int groupNumber = 1;
+        for (List<MediaFile> group : groups) {
+            System.out.printf("Group %d (%d files):%n", groupNumber++, group.size());
+            for (MediaFile mediaFile : group) {
+                System.out.println("  " + mediaFile.getFilePath());
+            }
+            System.out.println();
+        }
+        
+        System.out.printf("Found %d near duplicate group(s).%n", groups.size());
+        return 0;
+    }
+    
     private Integer handleThumbnails(MediaIndexerConfig config, DatabaseService databaseService) throws Exception {
         logger.info("Starting thumbnail generation");
         
         ThumbnailService thumbnailService = new ThumbnailService(databaseService, config);
         thumbnailService.generateThumbnails();
-        thumbnailService.generateMiniThumbnails();
         
         System.out.printf("Thumbnail generation completed. Processed %d files.%n", 
                          thumbnailService.getProcessedCount());
@@ -14,6 +14,7 @@ public class MediaIndexerConfig {
     private HtmlConfig html = new HtmlConfig();
     private HashingConfig hashing = new HashingConfig();
     private PerformanceConfig performance = new PerformanceConfig();
+    private ScrubConfig scrub = new ScrubConfig();
     
     public static class ThumbnailConfig {
         private int maxDimension = 512;
@@ -21,6 +22,12 @@ public class MediaIndexerConfig {
         private String format = "JPEG";
         private boolean respectExifOrientation = true;
         private boolean generatePlaceholders = true;
+        private String storage = "files";
+        private int packSegmentMB = 1024;
+        private int maxRetries = 5;
+        private int retryBackoffMinutes = 60;
+        private int maxRegenerationsPerRun = 1000;
+        private List<Integer> renditionSizes = new ArrayList<>();
         
         public int getMaxDimension() { return maxDimension; }
         public void setMaxDimension(int maxDimension) { this.maxDimension = maxDimension; }
@@ -36,11 +43,31 @@ public class MediaIndexerConfig {
         
         public boolean isGeneratePlaceholders() { return generatePlaceholders; }
         public void setGeneratePlaceholders(boolean generatePlaceholders) { this.generatePlaceholders = generatePlaceholders; }
+        
+        public String getStorage() { return storage; }
+        public void setStorage(String storage) { this.storage = storage; }
+        
+        public int getPackSegmentMB() { return packSegmentMB; }
+        public void setPackSegmentMB(int packSegmentMB) { this.packSegmentMB = packSegmentMB; }
+        
+        public int getMaxRetries() { return maxRetries; }
+        public void setMaxRetries(int maxRetries) { this.maxRetries = maxRetries; }
+        
+        public int getRetryBackoffMinutes() { return retryBackoffMinutes; }
+        public void setRetryBackoffMinutes(int retryBackoffMinutes) { this.retryBackoffMinutes = retryBackoffMinutes; }
+        
+        public int getMaxRegenerationsPerRun() { return maxRegenerationsPerRun; }
+        public void setMaxRegenerationsPerRun(int maxRegenerationsPerRun) { this.maxRegenerationsPerRun = maxRegenerationsPerRun; }
+        
+        public List<Integer> getRenditionSizes() { return renditionSizes; }
+        public void setRenditionSizes(List<Integer> renditionSizes) { this.renditionSizes = renditionSizes; }
     }
     
     public static class MiniThumbnailConfig {
         private int maxHeight = 100;
         private float quality = 0.85f;
+        private int targetSizeBytes = 0;
+        private float minQuality = 0.3f;
         private String format = "JPEG";
         private boolean respectExifOrientation = true;
         private boolean generatePlaceholders = true;
@@ -51,6 +78,12 @@ public class MediaIndexerConfig {
         public float getQuality() { return quality; }
         public void setQuality(float quality) { this.quality = quality; }
         
+        public int getTargetSizeBytes() { return targetSizeBytes; }
+        public void setTargetSizeBytes(int targetSizeBytes) { this.targetSizeBytes = targetSizeBytes; }
+        
+        public float getMinQuality() { return minQuality; }
+        public void setMinQuality(float minQuality) { this.minQuality = minQuality; }
+        
         public String getFormat() { return format; }
         public void setFormat(String format) { this.format = format; }
         
@@ -64,25 +97,51 @@ public class MediaIndexerConfig {
     public static class HtmlConfig {
         private long maxPageSizeBytes = 200 * 1024 * 1024; // 200MB
         private String indexFileName = "index.html";
+        private boolean lazyLoad = true;
         
         public long getMaxPageSizeBytes() { return maxPageSizeBytes; }
         public void setMaxPageSizeBytes(long maxPageSizeBytes) { this.maxPageSizeBytes = maxPageSizeBytes; }
         
         public String getIndexFileName() { return indexFileName; }
         public void setIndexFileName(String indexFileName) { this.indexFileName = indexFileName; }
+        
+        public boolean isLazyLoad() { return lazyLoad; }
+        public void setLazyLoad(boolean lazyLoad) { this.lazyLoad = lazyLoad; }
     }
     
     public static class HashingConfig {
         private String contentHashAlgorithm = "SHA-256";
+        private boolean chunkedHashing = false;
+        private int chunkSizeMB = 64;
+        private int chunkThreads = 2;
+        private int nearDuplicateDistance = 8;
         
         public String getContentHashAlgorithm() { return contentHashAlgorithm; }
         public void setContentHashAlgorithm(String contentHashAlgorithm) { this.contentHashAlgorithm = contentHashAlgorithm; }
+        
+        public boolean isChunkedHashing() { return chunkedHashing; }
+        public void setChunkedHashing(boolean chunkedHashing) { this.chunkedHashing = chunkedHashing; }
+        
+        public int getChunkSizeMB() { return chunkSizeMB; }
+        public void setChunkSizeMB(int chunkSizeMB) { this.chunkSizeMB = chunkSizeMB; }
+        
+        public int getChunkThreads() { return chunkThreads; }
+        public void setChunkThreads(int chunkThreads) { this.chunkThreads = chunkThreads; }
+        
+        public int getNearDuplicateDistance() { return nearDuplicateDistance; }
+        public void setNearDuplicateDistance(int nearDuplicateDistance) { this.nearDuplicateDistance = nearDuplicateDistance; }
     }
     
     public static class PerformanceConfig {
         private int thumbnailThreads = Runtime.getRuntime().availableProcessors();
         private int bufferPoolSize = 10;
         private int maxMemoryMB = 1024;
+        private int maxBufferedFileMB = 256;
+        private int ioThreads = 2;
+        private int encodeThreads = 2;
+        private int dbBatchSize = 200;
+        private int decodeTimeoutSeconds = 60;
+        private int maxDecodeMemoryMB = 512;
         
         public int getThumbnailThreads() { return thumbnailThreads; }
         public void setThumbnailThreads(int thumbnailThreads) { this.thumbnailThreads = thumbnailThreads; }
@@ -92,6 +151,39 @@ public class MediaIndexerConfig {
         
         public int getMaxMemoryMB() { return maxMemoryMB; }
         public void setMaxMemoryMB(int maxMemoryMB) { this.maxMemoryMB = maxMemoryMB; }
+        
+        public int getMaxBufferedFileMB() { return maxBufferedFileMB; }
+        public void setMaxBufferedFileMB(int maxBufferedFileMB) { this.maxBufferedFileMB = maxBufferedFileMB; }
+        
+        public int getIoThreads() { return ioThreads; }
+        public void setIoThreads(int ioThreads) { this.ioThreads = ioThreads; }
+        
+        public int getEncodeThreads() { return encodeThreads; }
+        public void setEncodeThreads(int encodeThreads) { this.encodeThreads = encodeThreads; }
+        
+        public int getDbBatchSize() { return dbBatchSize; }
+        public void setDbBatchSize(int dbBatchSize) { this.dbBatchSize = dbBatchSize; }
+        
+        public int getDecodeTimeoutSeconds() { return decodeTimeoutSeconds; }
+        public void setDecodeTimeoutSeconds(int decodeTimeoutSeconds) { this.decodeTimeoutSeconds = decodeTimeoutSeconds; }
+        
+        public int getMaxDecodeMemoryMB() { return maxDecodeMemoryMB; }
+        public void setMaxDecodeMemoryMB(int maxDecodeMemoryMB) { this.maxDecodeMemoryMB = maxDecodeMemoryMB; }
+    }
+    
+    public static class ScrubConfig {
+        private long dailyBudgetMB = 100 * 1024; // 100GB
+        private int threads = 2;
+        private int maxMBPerSecond = 50;
+        
+        public long getDailyBudgetMB() { return dailyBudgetMB; }
+        public void setDailyBudgetMB(long dailyBudgetMB) { this.dailyBudgetMB = dailyBudgetMB; }
+        
+        public int getThreads() { return threads; }
+        public void setThreads(int threads) { this.threads = threads; }
+        
+        public int getMaxMBPerSecond() { return maxMBPerSecond; }
+        public void setMaxMBPerSecond(int maxMBPerSecond) { this.maxMBPerSecond = maxMBPerSecond; }
     }
     
     public String getDatabasePath() { return databasePath; }
@@ -120,4 +212,7 @@ public class MediaIndexerConfig {
     
     public PerformanceConfig getPerformance() { return performance; }
     public void setPerformance(PerformanceConfig performance) { this.performance = performance; }
+    
+    public ScrubConfig getScrub() { return scrub; }
+    public void setScrub(ScrubConfig scrub) { this.scrub = scrub; }
 }
\ No newline at end of file
@@ -9,8 +9,11 @@ public class MediaFile {
     private long fileSize;
     private LocalDateTime lastModified;
     private LocalDateTime lastScanned;
-    private String quickHash;
-    private String contentHash;
+    private byte[] quickHash;
+    private byte[] contentHash;
+    private LocalDateTime lastVerified;
+    private String verifyStatus;
+    private int verifyNextChunk;
 
     public MediaFile() {}
 
@@ -70,19 +73,43 @@ public class MediaFile {
         this.lastScanned = lastScanned;
     }
 
-    public String getQuickHash() {
+    public byte[] getQuickHash() {
         return quickHash;
     }
 
-    public void setQuickHash(String quickHash) {
+    public void setQuickHash(byte[] quickHash) {
         this.quickHash = quickHash;
     }
 
-    public String getContentHash() {
+    public byte[] getContentHash() {
         return contentHash;
     }
 
-    public void setContentHash(String contentHash) {
+    public void setContentHash(byte[] contentHash) {
         this.contentHash = contentHash;
     }
+
+    public LocalDateTime getLastVerified() {
+        return lastVerified;
+    }
+
+    public void setLastVerified(LocalDateTime lastVerified) {
+        this.lastVerified = lastVerified;
+    }
+
+    public String getVerifyStatus() {
+        return verifyStatus;
+    }
+
+    public void setVerifyStatus(String verifyStatus) {
+        this.verifyStatus = verifyStatus;
+    }
+
+    public int getVerifyNextChunk() {
+        return verifyNextChunk;
+    }
+
+    public void setVerifyNextChunk(int verifyNextChunk) {
+        this.verifyNextChunk = verifyNextChunk;
+    }
 }
\ No newline at end of file
@@ -5,7 +5,7 @@ import java.time.LocalDateTime;
 public class MiniThumbnail {
     private Long id;
     private Long mediaFileId;
-    private String base64Data;
+    private byte[] imageData;
     private int width;
     private int height;
     private int orientation;
@@ -14,13 +14,16 @@ public class MiniThumbnail {
     private boolean failed;
     private String errorMessage;
     private String errorType;
+    private Long perceptualHash;
+    private String paramsFingerprint;
+    private byte[] thumbHash;
 
     public MiniThumbnail() {}
 
-    public MiniThumbnail(Long mediaFileId, String base64Data, int width, int height, 
+    public MiniThumbnail(Long mediaFileId, byte[] imageData, int width, int height, 
                         int orientation, String format) {
         this.mediaFileId = mediaFileId;
-        this.base64Data = base64Data;
+        this.imageData = imageData;
         this.width = width;
         this.height = height;
         this.orientation = orientation;
@@ -31,10 +34,10 @@ public class MiniThumbnail {
         this.errorType = null;
     }
 
-    public MiniThumbnail(Long mediaFileId, String base64Data, int width, int height, 
+    public MiniThumbnail(Long mediaFileId, byte[] imageData, int width, int height, 
                         int orientation, String format, boolean failed, String errorMessage) {
         this.mediaFileId = mediaFileId;
-        this.base64Data = base64Data;
+        this.imageData = imageData;
         this.width = width;
         this.height = height;
         this.orientation = orientation;
@@ -45,10 +48,10 @@ public class MiniThumbnail {
         this.errorType = null;
     }
 
-    public MiniThumbnail(Long mediaFileId, String base64Data, int width, int height, 
+    public MiniThumbnail(Long mediaFileId, byte[] imageData, int width, int height, 
                         int orientation, String format, boolean failed, String errorMessage, String errorType) {
         this.mediaFileId = mediaFileId;
-        this.base64Data = base64Data;
+        this.imageData = imageData;
         this.width = width;
         this.height = height;
         this.orientation = orientation;
@@ -75,12 +78,13 @@ public class MiniThumbnail {
         this.mediaFileId = mediaFileId;
     }
 
-    public String getBase64Data() {
-        return base64Data;
+    /** The encoded image, in {@link #getFormat()}. */
+    public byte[] getImageData() {
+        return imageData;
     }
 
-    public void setBase64Data(String base64Data) {
-        this.base64Data = base64Data;
+    public void setImageData(byte[] imageData) {
+        this.imageData = imageData;
     }
 
     public int getWidth() {
@@ -146,4 +150,30 @@ public class MiniThumbnail {
     public void setErrorType(String errorType) {
         this.errorType = errorType;
     }
+
+    public Long getPerceptualHash() {
+        return perceptualHash;
+    }
+
+    public void setPerceptualHash(Long perceptualHash) {
+        this.perceptualHash = perceptualHash;
+    }
+
+    /** A compact blurred placeholder of the image, see {@link com.mediaindexer.util.ThumbHash}; null for failures. */
+    public byte[] getThumbHash() {
+        return thumbHash;
+    }
+
+    public void setThumbHash(byte[] thumbHash) {
+        this.thumbHash = thumbHash;
+    }
+
+    /** The generation parameters the image was made with; a row whose fingerprint differs from the current one is outdated. */
+    public String getParamsFingerprint() {
+        return paramsFingerprint;
+    }
+
+    public void setParamsFingerprint(String paramsFingerprint) {
+        this.paramsFingerprint = paramsFingerprint;
+    }
 }
\ No newline at end of file
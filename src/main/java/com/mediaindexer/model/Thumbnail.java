@@ -14,6 +14,10 @@ public class Thumbnail {
     private boolean failed;
     private String errorMessage;
     private String errorType;
+    private Integer packSegment;
+    private Long packOffset;
+    private Integer packLength;
+    private String paramsFingerprint;
 
     public Thumbnail() {}
 
@@ -146,4 +150,38 @@ public class Thumbnail {
     public void setErrorType(String errorType) {
         this.errorType = errorType;
     }
+
+    /** Segment of the pack file holding the image, or null when it is a loose file at {@link #getThumbnailPath()}. */
+    public Integer getPackSegment() {
+        return packSegment;
+    }
+
+    public void setPackSegment(Integer packSegment) {
+        this.packSegment = packSegment;
+    }
+
+    public Long getPackOffset() {
+        return packOffset;
+    }
+
+    public void setPackOffset(Long packOffset) {
+        this.packOffset = packOffset;
+    }
+
+    public Integer getPackLength() {
+        return packLength;
+    }
+
+    public void setPackLength(Integer packLength) {
+        this.packLength = packLength;
+    }
+
+    /** The generation parameters the image was made with; a row whose fingerprint differs from the current one is outdated. */
+    public String getParamsFingerprint() {
+        return paramsFingerprint;
+    }
+
+    public void setParamsFingerprint(String paramsFingerprint) {
+        this.paramsFingerprint = paramsFingerprint;
+    }
 }
\ No newline at end of file
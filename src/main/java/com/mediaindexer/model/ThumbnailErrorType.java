@@ -5,7 +5,9 @@ public enum ThumbnailErrorType {
     IO_ERROR("IO", "File access/I/O error"),
     UNSUPPORTED_FORMAT("FORMAT", "Unsupported image format"),
     FILE_NOT_FOUND("NOT_FOUND", "File not found"),
-    CORRUPTED_FILE("CORRUPTED", "Corrupted or invalid file");
+    CORRUPTED_FILE("CORRUPTED", "Corrupted or invalid file"),
+    TIMEOUT("TIMEOUT", "Decoding timed out"),
+    OUT_OF_MEMORY("MEMORY", "Too large to decode in memory");
     
     private final String code;
     private final String description;
@@ -0,0 +1,101 @@
+package com.mediaindexer.model;
+
+/**
+ * An extra size of a file's thumbnail, made from the same decode. Stored like the thumbnail
+ * itself: a loose file at {@link #getThumbnailPath()} or an entry in a pack segment.
+ */
+public class ThumbnailRendition {
+    private Long mediaFileId;
+    private int maxDimension;
+    private String thumbnailPath;
+    private int width;
+    private int height;
+    private String format;
+    private Integer packSegment;
+    private Long packOffset;
+    private Integer packLength;
+
+    public ThumbnailRendition() {}
+
+    public ThumbnailRendition(Long mediaFileId, int maxDimension, String thumbnailPath, int width, int height, String format) {
+        this.mediaFileId = mediaFileId;
+        this.maxDimension = maxDimension;
+        this.thumbnailPath = thumbnailPath;
+        this.width = width;
+        this.height = height;
+        this.format = format;
+    }
+
+    public Long getMediaFileId() {
+        return mediaFileId;
+    }
+
+    public void setMediaFileId(Long mediaFileId) {
+        this.mediaFileId = mediaFileId;
+    }
+
+    /** The configured size the rendition was made for; its actual size is smaller when the image is. */
+    public int getMaxDimension() {
+        return maxDimension;
+    }
+
+    public void setMaxDimension(int maxDimension) {
+        this.maxDimension = maxDimension;
+    }
+
+    public String getThumbnailPath() {
+        return thumbnailPath;
+    }
+
+    public void setThumbnailPath(String thumbnailPath) {
+        this.thumbnailPath = thumbnailPath;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public void setWidth(int width) {
+        this.width = width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public void setHeight(int height) {
+        this.height = height;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    public void setFormat(String format) {
+        this.format = format;
+    }
+
+    public Integer getPackSegment() {
+        return packSegment;
+    }
+
+    public void setPackSegment(Integer packSegment) {
+        this.packSegment = packSegment;
+    }
+
+    public Long getPackOffset() {
+        return packOffset;
+    }
+
+    public void setPackOffset(Long packOffset) {
+        this.packOffset = packOffset;
+    }
+
+    public Integer getPackLength() {
+        return packLength;
+    }
+
+    public void setPackLength(Integer packLength) {
+        this.packLength = packLength;
+    }
+}
\ No newline at end of file
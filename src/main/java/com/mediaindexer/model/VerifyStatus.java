@@ -0,0 +1,34 @@
+package com.mediaindexer.model;
+
+public enum VerifyStatus {
+    OK("OK", "Content hash verified"),
+    MISMATCH("MISMATCH", "Content hash mismatch (possible bit rot)"),
+    MISSING("MISSING", "File no longer exists"),
+    CHANGED("CHANGED", "File modified since it was scanned"),
+    ERROR("ERROR", "Verification failed (I/O error)");
+    
+    private final String code;
+    private final String description;
+    
+    VerifyStatus(String code, String description) {
+        this.code = code;
+        this.description = description;
+    }
+    
+    public String getCode() {
+        return code;
+    }
+    
+    public String getDescription() {
+        return description;
+    }
+    
+    public static VerifyStatus fromCode(String code) {
+        for (VerifyStatus status : values()) {
+            if (status.code.equals(code)) {
+                return status;
+            }
+        }
+        return null;
+    }
+}
@@ -3,6 +3,7 @@ package com.mediaindexer.service;
 import com.mediaindexer.model.MediaFile;
 import com.mediaindexer.model.MiniThumbnail;
 import com.mediaindexer.model.Thumbnail;
+import com.mediaindexer.model.ThumbnailRendition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -10,15 +11,68 @@ import java.sql.*;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
+import java.util.function.Consumer;
 
 public class DatabaseService {
     private static final Logger logger = LoggerFactory.getLogger(DatabaseService.class);
     private static final DateTimeFormatter DATETIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
     
+    // A failed result is retried once the file changes, or once its backoff has passed when the
+    // error may be transient; files with no retry row are retried on the next run
+    private static final String RETRY_DUE = """
+        (r.media_file_id IS NULL OR r.file_size != mf.file_size OR r.last_modified != mf.last_modified
+         OR r.next_attempt_at <= datetime('now', 'localtime'))""";
+    private static final String THUMBNAIL_NEEDED =
+        "(t.id IS NULL OR t.created_at < mf.last_modified OR (t.failed AND " + RETRY_DUE + "))";
+    private static final String MINI_THUMBNAIL_NEEDED =
+        "(mt.id IS NULL OR mt.created_at < mf.last_modified OR (mt.failed AND " + RETRY_DUE + "))";
+    private static final String THUMBNAIL_WORK_FROM = """
+        FROM media_files mf
+        LEFT JOIN thumbnails t ON t.media_file_id = mf.id
+        LEFT JOIN mini_thumbnails mt ON mt.media_file_id = mf.id
+        LEFT JOIN thumbnail_retries r ON r.media_file_id = mf.id
+        WHERE (%s OR %s)
+    """.formatted(THUMBNAIL_NEEDED, MINI_THUMBNAIL_NEEDED);
+    // A successful result made with other parameters than the current ones, bound as the parameter
+    private static final String THUMBNAIL_OUTDATED = "(t.failed = 0 AND t.params_fingerprint IS NOT ?)";
+    private static final String MINI_THUMBNAIL_OUTDATED = "(mt.failed = 0 AND mt.params_fingerprint IS NOT ?)";
+    private static final String OUTDATED_THUMBNAIL_WORK_FROM = """
+        FROM media_files mf
+        LEFT JOIN thumbnails t ON t.media_file_id = mf.id
+        LEFT JOIN mini_thumbnails mt ON mt.media_file_id = mf.id
+        WHERE (%s OR %s)
+    """.formatted(THUMBNAIL_OUTDATED, MINI_THUMBNAIL_OUTDATED);
+    // Every stored thumbnail image, whichever table points to it
+    private static final String THUMBNAIL_IMAGES = """
+        (SELECT thumbnail_path, pack_segment, pack_offset, pack_length FROM thumbnails
+         UNION ALL
+         SELECT thumbnail_path, pack_segment, pack_offset, pack_length FROM thumbnail_renditions)""";
+    
     private final Connection connection;
     
+    @FunctionalInterface
+    public interface SqlAction {
+        void run() throws SQLException;
+    }
+    
+    /** Receives scrub candidates one at a time; returns false to stop. */
+    @FunctionalInterface
+    public interface ScrubCandidateAction {
+        boolean accept(MediaFile mediaFile) throws SQLException;
+    }
+    
+    /** A media file whose thumbnail, mini thumbnail or both have to be generated. */
+    public record ThumbnailWork(MediaFile mediaFile, boolean thumbnailNeeded, boolean miniThumbnailNeeded) {}
+    
+    /** How many mini thumbnails there are, and the average image size of the successful ones. */
+    public record MiniThumbnailStats(long count, long averageImageBytes) {}
+    
     public DatabaseService(String dbPath) throws SQLException {
         this.connection = DriverManager.getConnection("jdbc:sqlite:" + dbPath);
         initializeSchema();
@@ -37,8 +91,8 @@ public class DatabaseService {
                     file_size INTEGER NOT NULL,
                     last_modified TEXT NOT NULL,
                     last_scanned TEXT NOT NULL,
-                    quick_hash TEXT,
-                    content_hash TEXT
+                    quick_hash BLOB,
+                    content_hash BLOB
                 )
             """);
             
@@ -59,17 +113,19 @@ public class DatabaseService {
                     failed BOOLEAN DEFAULT 0,
                     error_message TEXT,
                     error_type TEXT,
+                    pack_segment INTEGER,
+                    pack_offset INTEGER,
+                    pack_length INTEGER,
+                    params_fingerprint TEXT,
                     FOREIGN KEY (media_file_id) REFERENCES media_files(id) ON DELETE CASCADE
                 )
             """);
             
-            stmt.execute("CREATE INDEX IF NOT EXISTS idx_thumbnails_media_file_id ON thumbnails(media_file_id)");
-            
             stmt.execute("""
                 CREATE TABLE IF NOT EXISTS mini_thumbnails (
                     id INTEGER PRIMARY KEY AUTOINCREMENT,
                     media_file_id INTEGER NOT NULL,
-                    base64_data TEXT,
+                    image_data BLOB,
                     width INTEGER NOT NULL,
                     height INTEGER NOT NULL,
                     orientation INTEGER DEFAULT 1,
@@ -78,11 +134,62 @@ public class DatabaseService {
                     failed BOOLEAN DEFAULT 0,
                     error_message TEXT,
                     error_type TEXT,
+                    perceptual_hash INTEGER,
+                    params_fingerprint TEXT,
+                    thumb_hash BLOB,
                     FOREIGN KEY (media_file_id) REFERENCES media_files(id) ON DELETE CASCADE
                 )
             """);
             
-            stmt.execute("CREATE INDEX IF NOT EXISTS idx_mini_thumbnails_media_file_id ON mini_thumbnails(media_file_id)");
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS content_hash_chunks (
+                    media_file_id INTEGER NOT NULL,
+                    chunk_index INTEGER NOT NULL,
+                    chunk_size INTEGER NOT NULL,
+                    algorithm TEXT NOT NULL,
+                    file_size INTEGER NOT NULL,
+                    last_modified TEXT NOT NULL,
+                    chunk_hash BLOB NOT NULL,
+                    PRIMARY KEY (media_file_id, chunk_index),
+                    FOREIGN KEY (media_file_id) REFERENCES media_files(id) ON DELETE CASCADE
+                )
+            """);
+            
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS thumbnail_renditions (
+                    media_file_id INTEGER NOT NULL,
+                    max_dimension INTEGER NOT NULL,
+                    thumbnail_path TEXT,
+                    width INTEGER NOT NULL,
+                    height INTEGER NOT NULL,
+                    format TEXT,
+                    pack_segment INTEGER,
+                    pack_offset INTEGER,
+                    pack_length INTEGER,
+                    PRIMARY KEY (media_file_id, max_dimension),
+                    FOREIGN KEY (media_file_id) REFERENCES media_files(id) ON DELETE CASCADE
+                )
+            """);
+            
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS thumbnail_retries (
+                    media_file_id INTEGER PRIMARY KEY,
+                    attempts INTEGER NOT NULL,
+                    next_attempt_at TEXT,
+                    file_size INTEGER NOT NULL,
+                    last_modified TEXT NOT NULL,
+                    error_type TEXT,
+                    FOREIGN KEY (media_file_id) REFERENCES media_files(id) ON DELETE CASCADE
+                )
+            """);
+            
+            // Bytes each scrub read, for the rolling daily budget
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS scrub_reads (
+                    read_at TEXT NOT NULL,
+                    bytes INTEGER NOT NULL
+                )
+            """);
         }
     }
     
@@ -105,15 +212,147 @@ public class DatabaseService {
         addColumnIfNotExists("thumbnails", "failed", "BOOLEAN DEFAULT 0");
         addColumnIfNotExists("thumbnails", "error_message", "TEXT");
         addColumnIfNotExists("thumbnails", "error_type", "TEXT");
+        addColumnIfNotExists("thumbnails", "pack_segment", "INTEGER");
+        addColumnIfNotExists("thumbnails", "pack_offset", "INTEGER");
+        addColumnIfNotExists("thumbnails", "pack_length", "INTEGER");
         addColumnIfNotExists("mini_thumbnails", "failed", "BOOLEAN DEFAULT 0");
         addColumnIfNotExists("mini_thumbnails", "error_message", "TEXT");
         addColumnIfNotExists("mini_thumbnails", "error_type", "TEXT");
+        addColumnIfNotExists("mini_thumbnails", "perceptual_hash", "INTEGER");
+        addColumnIfNotExists("thumbnails", "params_fingerprint", "TEXT");
+        addColumnIfNotExists("mini_thumbnails", "params_fingerprint", "TEXT");
+        addColumnIfNotExists("mini_thumbnails", "thumb_hash", "BLOB");
+        addColumnIfNotExists("media_files", "last_verified", "TEXT");
+        addColumnIfNotExists("media_files", "verify_status", "TEXT");
+        addColumnIfNotExists("media_files", "verify_next_chunk", "INTEGER DEFAULT 0");
+        
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_last_verified ON media_files(last_verified)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_scrub_reads_read_at ON scrub_reads(read_at)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_thumbnails_pack ON thumbnails(pack_segment, pack_offset)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_thumbnail_renditions_pack ON thumbnail_renditions(pack_segment, pack_offset)");
+        }
+        
+        // Hashes used to be stored as lowercase hex text
+        convertHexColumnToBlob("media_files", "quick_hash");
+        convertHexColumnToBlob("media_files", "content_hash");
+        convertHexColumnToBlob("content_hash_chunks", "chunk_hash");
+        
+        // One row per media file, so INSERT OR REPLACE replaces instead of adding another row
+        createMediaFileIdUniqueIndex("thumbnails", "idx_thumbnails_media_file_id");
+        createMediaFileIdUniqueIndex("mini_thumbnails", "idx_mini_thumbnails_media_file_id");
+        
+        // Mini thumbnails used to be stored as base64 text, a third larger than the image
+        convertMiniThumbnailsToBlob();
+    }
+    
+    private boolean columnExists(String tableName, String columnName) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + tableName + ")")) {
+            while (rs.next()) {
+                if (rs.getString("name").equals(columnName)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    private void convertMiniThumbnailsToBlob() throws SQLException {
+        if (!columnExists("mini_thumbnails", "base64_data")) {
+            return;
+        }
+        addColumnIfNotExists("mini_thumbnails", "image_data", "BLOB");
+        
+        int[] converted = {0};
+        runInTransaction(() -> {
+            try (Statement select = connection.createStatement();
+                 ResultSet rs = select.executeQuery("SELECT id, base64_data FROM mini_thumbnails WHERE base64_data IS NOT NULL");
+                 PreparedStatement update = connection.prepareStatement("UPDATE mini_thumbnails SET image_data = ? WHERE id = ?")) {
+                while (rs.next()) {
+                    update.setBytes(1, Base64.getDecoder().decode(rs.getString("base64_data")));
+                    update.setLong(2, rs.getLong("id"));
+                    update.addBatch();
+                    if (++converted[0] % 1000 == 0) {
+                        update.executeBatch();
+                    }
+                }
+                update.executeBatch();
+            }
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("ALTER TABLE mini_thumbnails DROP COLUMN base64_data");
+            }
+        });
+        logger.info("Converted {} mini thumbnails from base64 text to binary; run VACUUM to reclaim the space", converted[0]);
+    }
+    
+    private void createMediaFileIdUniqueIndex(String tableName, String oldIndexName) throws SQLException {
+        String indexName = "idx_" + tableName + "_media_file_unique";
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT 1 FROM sqlite_master WHERE type = 'index' AND name = ?")) {
+            stmt.setString(1, indexName);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return;
+                }
+            }
+        }
+        
+        try (Statement stmt = connection.createStatement()) {
+            // Earlier versions added a row per run; the newest one is the current result
+            int removed = stmt.executeUpdate(String.format(
+                "DELETE FROM %1$s WHERE id NOT IN (SELECT MAX(id) FROM %1$s GROUP BY media_file_id)", tableName));
+            if (removed > 0) {
+                logger.info("Removed {} outdated rows from {}", removed, tableName);
+            }
+            stmt.execute("DROP INDEX IF EXISTS " + oldIndexName);
+            stmt.execute(String.format("CREATE UNIQUE INDEX %s ON %s(media_file_id)", indexName, tableName));
+        }
+    }
+    
+    private void convertHexColumnToBlob(String tableName, String columnName) throws SQLException {
+        // Long.toHexString dropped the leading zeros of FNV-1 hashes, pad them back to 8 bytes
+        String sql = String.format("""
+            UPDATE %1$s SET %2$s = unhex(CASE WHEN length(%2$s) < 16 THEN substr('0000000000000000' || %2$s, -16) ELSE %2$s END)
+            WHERE typeof(%2$s) = 'text'
+        """, tableName, columnName);
+        
+        try (Statement stmt = connection.createStatement()) {
+            int converted = stmt.executeUpdate(sql);
+            if (converted > 0) {
+                logger.info("Converted {} hex values in {}.{} to binary", converted, tableName, columnName);
+            }
+        }
+    }
+    
+    /**
+     * Runs the action as one transaction, so a batch of writes costs a single commit instead
+     * of one per statement.
+     */
+    public void runInTransaction(SqlAction action) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            action.run();
+            connection.commit();
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
     }
     
     public MediaFile saveMediaFile(MediaFile mediaFile) throws SQLException {
         String sql = """
-            INSERT OR REPLACE INTO media_files (file_path, extension, file_size, last_modified, last_scanned, quick_hash, content_hash)
+            INSERT INTO media_files (file_path, extension, file_size, last_modified, last_scanned, quick_hash, content_hash)
             VALUES (?, ?, ?, ?, ?, ?, ?)
+            ON CONFLICT(file_path) DO UPDATE SET
+                extension = excluded.extension,
+                file_size = excluded.file_size,
+                last_modified = excluded.last_modified,
+                last_scanned = excluded.last_scanned,
+                quick_hash = excluded.quick_hash,
+                content_hash = excluded.content_hash
             RETURNING id
         """;
         
@@ -123,8 +362,8 @@ public class DatabaseService {
             stmt.setLong(3, mediaFile.getFileSize());
             stmt.setString(4, mediaFile.getLastModified().format(DATETIME_FORMATTER));
             stmt.setString(5, mediaFile.getLastScanned().format(DATETIME_FORMATTER));
-            stmt.setString(6, mediaFile.getQuickHash());
-            stmt.setString(7, mediaFile.getContentHash());
+            stmt.setBytes(6, mediaFile.getQuickHash());
+            stmt.setBytes(7, mediaFile.getContentHash());
             
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
@@ -136,6 +375,25 @@ public class DatabaseService {
         return mediaFile;
     }
     
+    public void updateContentHash(Long id, byte[] contentHash) throws SQLException {
+        String sql = "UPDATE media_files SET content_hash = ? WHERE id = ?";
+        
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setBytes(1, contentHash);
+            stmt.setLong(2, id);
+            stmt.executeUpdate();
+        }
+    }
+    
+    public void deleteMediaFile(Long id) throws SQLException {
+        String sql = "DELETE FROM media_files WHERE id = ?";
+        
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setLong(1, id);
+            stmt.executeUpdate();
+        }
+    }
+    
     public Optional<MediaFile> findMediaFileByPath(String filePath) throws SQLException {
         String sql = "SELECT * FROM media_files WHERE file_path = ?";
         
@@ -150,12 +408,12 @@ public class DatabaseService {
         return Optional.empty();
     }
     
-    public List<MediaFile> findMediaFilesByQuickHash(String quickHash) throws SQLException {
+    public List<MediaFile> findMediaFilesByQuickHash(byte[] quickHash) throws SQLException {
         String sql = "SELECT * FROM media_files WHERE quick_hash = ?";
         List<MediaFile> files = new ArrayList<>();
         
         try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setString(1, quickHash);
+            stmt.setBytes(1, quickHash);
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
                     files.add(mapMediaFileFromResultSet(rs));
@@ -178,10 +436,189 @@ public class DatabaseService {
         return files;
     }
     
+    /**
+     * Returns up to {@code limit} media files after {@code afterPath}, in path order, that are
+     * missing an up-to-date thumbnail or mini thumbnail. Pass the last returned path to get the
+     * next page; files whose results were saved in between are not returned again.
+     */
+    public List<ThumbnailWork> getThumbnailWork(String afterPath, int limit) throws SQLException {
+        String sql = "SELECT mf.*, " + THUMBNAIL_NEEDED + " AS thumbnail_needed, "
+            + MINI_THUMBNAIL_NEEDED + " AS mini_thumbnail_needed "
+            + THUMBNAIL_WORK_FROM + " AND mf.file_path > ? ORDER BY mf.file_path LIMIT ?";
+        List<ThumbnailWork> work = new ArrayList<>();
+        
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setString(1, afterPath);
+            stmt.setInt(2, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    work.add(new ThumbnailWork(mapMediaFileFromResultSet(rs),
+                                               rs.getBoolean("thumbnail_needed"),
+                                               rs.getBoolean("mini_thumbnail_needed")));
+                }
+            }
+        }
+        return work;
+    }
+    
+    public long getThumbnailWorkCount() throws SQLException {
+        String sql = "SELECT COUNT(*) " + THUMBNAIL_WORK_FROM;
+        try (PreparedStatement stmt = connection.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+            if (rs.next()) {
+                return rs.getLong(1);
+            }
+        }
+        return 0;
+    }
+    
+    /**
+     * Returns up to {@code limit} media files after {@code afterPath}, in path order, whose
+     * successful thumbnail or mini thumbnail was made with parameters other than the given
+     * fingerprints. Rows from before fingerprints were recorded count as outdated.
+     */
+    public List<ThumbnailWork> getOutdatedThumbnailWork(String thumbnailFingerprint, String miniThumbnailFingerprint,
+                                                        String afterPath, int limit) throws SQLException {
+        String sql = "SELECT mf.*, " + THUMBNAIL_OUTDATED + " AS thumbnail_needed, "
+            + MINI_THUMBNAIL_OUTDATED + " AS mini_thumbnail_needed "
+            + OUTDATED_THUMBNAIL_WORK_FROM + " AND mf.file_path > ? ORDER BY mf.file_path LIMIT ?";
+        List<ThumbnailWork> work = new ArrayList<>();
+        
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setString(1, thumbnailFingerprint);
+            stmt.setString(2, miniThumbnailFingerprint);
+            stmt.setString(3, thumbnailFingerprint);
+            stmt.setString(4, miniThumbnailFingerprint);
+            stmt.setString(5, afterPath);
+            stmt.setInt(6, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    work.add(new ThumbnailWork(mapMediaFileFromResultSet(rs),
+                                               rs.getBoolean("thumbnail_needed"),
+                                               rs.getBoolean("mini_thumbnail_needed")));
+                }
+            }
+        }
+        return work;
+    }
+    
+    public long getOutdatedThumbnailWorkCount(String thumbnailFingerprint, String miniThumbnailFingerprint) throws SQLException {
+        String sql = "SELECT COUNT(*) " + OUTDATED_THUMBNAIL_WORK_FROM;
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setString(1, thumbnailFingerprint);
+            stmt.setString(2, miniThumbnailFingerprint);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getLong(1);
+                }
+            }
+        }
+        return 0;
+    }
+    
+    /**
+     * Returns a successful, up-to-date thumbnail of another media file with the given content
+     * hash and parameter fingerprint, so a duplicate can share it instead of being decoded again.
+     */
+    public Optional<Thumbnail> findThumbnailByContentHash(byte[] contentHash, Long excludedMediaFileId,
+                                                          String paramsFingerprint) throws SQLException {
+        String sql = """
+            SELECT t.*
+            FROM media_files mf
+            JOIN thumbnails t ON t.media_file_id = mf.id
+            WHERE mf.content_hash = ? AND mf.id != ? AND t.failed = 0 AND t.created_at >= mf.last_modified
+              AND t.params_fingerprint = ?
+            LIMIT 1
+        """;
+        
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setBytes(1, contentHash);
+            stmt.setLong(2, excludedMediaFileId);
+            stmt.setString(3, paramsFingerprint);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return Optional.of(mapThumbnailFromResultSet(rs));
+                }
+            }
+        }
+        return Optional.empty();
+    }
+    
+    public Optional<MiniThumbnail> findMiniThumbnailByContentHash(byte[] contentHash, Long excludedMediaFileId,
+                                                                  String paramsFingerprint) throws SQLException {
+        String sql = """
+            SELECT mt.*
+            FROM media_files mf
+            JOIN mini_thumbnails mt ON mt.media_file_id = mf.id
+            WHERE mf.content_hash = ? AND mf.id != ? AND mt.failed = 0 AND mt.created_at >= mf.last_modified
+              AND mt.params_fingerprint = ?
+            LIMIT 1
+        """;
+        
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setBytes(1, contentHash);
+            stmt.setLong(2, excludedMediaFileId);
+            stmt.setString(3, paramsFingerprint);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return Optional.of(mapMiniThumbnailFromResultSet(rs));
+                }
+            }
+        }
+        return Optional.empty();
+    }
+    
+    /**
+     * Returns the failed attempts recorded for the file, or 0 if there are none or they were
+     * made when the file had a different size or modification time.
+     */
+    public int getThumbnailAttempts(MediaFile mediaFile) throws SQLException {
+        String sql = "SELECT attempts, file_size, last_modified FROM thumbnail_retries WHERE media_file_id = ?";
+        
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setLong(1, mediaFile.getId());
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next() && rs.getLong("file_size") == mediaFile.getFileSize()
+                    && rs.getString("last_modified").equals(mediaFile.getLastModified().format(DATETIME_FORMATTER))) {
+                    return rs.getInt("attempts");
+                }
+            }
+        }
+        return 0;
+    }
+    
+    /** Records a failed attempt; a null {@code nextAttemptAt} means not before the file changes. */
+    public void saveThumbnailRetry(MediaFile mediaFile, int attempts, LocalDateTime nextAttemptAt, String errorType) throws SQLException {
+        String sql = """
+            INSERT OR REPLACE INTO thumbnail_retries (media_file_id, attempts, next_attempt_at, file_size, last_modified, error_type)
+            VALUES (?, ?, ?, ?, ?, ?)
+        """;
+        
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setLong(1, mediaFile.getId());
+            stmt.setInt(2, attempts);
+            stmt.setString(3, nextAttemptAt != null ? nextAttemptAt.format(DATETIME_FORMATTER) : null);
+            stmt.setLong(4, mediaFile.getFileSize());
+            stmt.setString(5, mediaFile.getLastModified().format(DATETIME_FORMATTER));
+            stmt.setString(6, errorType);
+            stmt.executeUpdate();
+        }
+    }
+    
+    public void deleteThumbnailRetry(Long mediaFileId) throws SQLException {
+        String sql = "DELETE FROM thumbnail_retries WHERE media_file_id = ?";
+        
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setLong(1, mediaFileId);
+            stmt.executeUpdate();
+        }
+    }
+    
     public Thumbnail saveThumbnail(Thumbnail thumbnail) throws SQLException {
         String sql = """
-            INSERT OR REPLACE INTO thumbnails (media_file_id, thumbnail_path, width, height, orientation, format, created_at, failed, error_message, error_type)
-            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+            INSERT OR REPLACE INTO thumbnails (media_file_id, thumbnail_path, width, height, orientation, format, created_at, failed, error_message, error_type,
+                                               pack_segment, pack_offset, pack_length, params_fingerprint)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
             RETURNING id
         """;
         
@@ -196,6 +633,10 @@ public class DatabaseService {
             stmt.setBoolean(8, thumbnail.isFailed());
             stmt.setString(9, thumbnail.getErrorMessage());
             stmt.setString(10, thumbnail.getErrorType());
+            stmt.setObject(11, thumbnail.getPackSegment(), Types.INTEGER);
+            stmt.setObject(12, thumbnail.getPackOffset(), Types.BIGINT);
+            stmt.setObject(13, thumbnail.getPackLength(), Types.INTEGER);
+            stmt.setString(14, thumbnail.getParamsFingerprint());
 
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
@@ -207,16 +648,233 @@ public class DatabaseService {
         return thumbnail;
     }
     
+    /** Returns the bytes still referenced in each pack segment; entries shared by duplicates count once. */
+    public Map<Integer, Long> getPackLiveBytes() throws SQLException {
+        String sql = """
+            SELECT pack_segment, SUM(pack_length)
+            FROM (SELECT DISTINCT pack_segment, pack_offset, pack_length FROM %s WHERE pack_segment IS NOT NULL)
+            GROUP BY pack_segment
+        """.formatted(THUMBNAIL_IMAGES);
+        Map<Integer, Long> liveBytes = new HashMap<>();
+        
+        try (PreparedStatement stmt = connection.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                liveBytes.put(rs.getInt(1), rs.getLong(2));
+            }
+        }
+        return liveBytes;
+    }
+    
+    /** Returns the live entries of a pack segment as offset to length, in file order. */
+    public TreeMap<Long, Integer> getPackEntries(int segment) throws SQLException {
+        String sql = "SELECT DISTINCT pack_offset, pack_length FROM " + THUMBNAIL_IMAGES + " WHERE pack_segment = ?";
+        TreeMap<Long, Integer> entries = new TreeMap<>();
+        
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setInt(1, segment);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    entries.put(rs.getLong(1), rs.getInt(2));
+                }
+            }
+        }
+        return entries;
+    }
+    
+    public void movePackEntry(int fromSegment, long fromOffset, int toSegment, long toOffset) throws SQLException {
+        for (String table : List.of("thumbnails", "thumbnail_renditions")) {
+            String sql = "UPDATE " + table + " SET pack_segment = ?, pack_offset = ? WHERE pack_segment = ? AND pack_offset = ?";
+            
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                stmt.setInt(1, toSegment);
+                stmt.setLong(2, toOffset);
+                stmt.setInt(3, fromSegment);
+                stmt.setLong(4, fromOffset);
+                stmt.executeUpdate();
+            }
+        }
+    }
+    
+    /**
+     * Returns up to {@code limit} thumbnail files after {@code afterPath}, in path order, that have
+     * not been moved into a pack, each once even when shared. Pass the last returned path to get
+     * the next page.
+     */
+    public List<String> getLooseThumbnailPaths(String afterPath, int limit) throws SQLException {
+        String sql = "SELECT DISTINCT thumbnail_path FROM " + THUMBNAIL_IMAGES
+            + " WHERE thumbnail_path IS NOT NULL AND pack_segment IS NULL AND thumbnail_path > ?"
+            + " ORDER BY thumbnail_path LIMIT ?";
+        List<String> paths = new ArrayList<>();
+        
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setString(1, afterPath);
+            stmt.setInt(2, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    paths.add(rs.getString(1));
+                }
+            }
+        }
+        return paths;
+    }
+    
+    /** Returns the files holding the thumbnail and renditions of a media file. */
+    public List<String> getThumbnailPaths(Long mediaFileId) throws SQLException {
+        String sql = """
+            SELECT thumbnail_path FROM thumbnails WHERE media_file_id = ? AND thumbnail_path IS NOT NULL
+            UNION
+            SELECT thumbnail_path FROM thumbnail_renditions WHERE media_file_id = ? AND thumbnail_path IS NOT NULL
+        """;
+        List<String> paths = new ArrayList<>();
+        
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setLong(1, mediaFileId);
+            stmt.setLong(2, mediaFileId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    paths.add(rs.getString(1));
+                }
+            }
+        }
+        return paths;
+    }
+    
+    public boolean isThumbnailPathReferenced(String thumbnailPath) throws SQLException {
+        String sql = "SELECT 1 FROM " + THUMBNAIL_IMAGES + " WHERE thumbnail_path = ? LIMIT 1";
+        
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setString(1, thumbnailPath);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+    
+    public void moveThumbnailToPack(String thumbnailPath, int segment, long offset, int length) throws SQLException {
+        for (String table : List.of("thumbnails", "thumbnail_renditions")) {
+            String sql = """
+                UPDATE %s SET thumbnail_path = NULL, pack_segment = ?, pack_offset = ?, pack_length = ?
+                WHERE thumbnail_path = ?
+            """.formatted(table);
+            
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                stmt.setInt(1, segment);
+                stmt.setLong(2, offset);
+                stmt.setInt(3, length);
+                stmt.setString(4, thumbnailPath);
+                stmt.executeUpdate();
+            }
+        }
+    }
+    
+    /** Drops the thumbnails stored at the path, including those of files with a rendition there, so they are regenerated. */
+    public void deleteThumbnailsByPath(String thumbnailPath) throws SQLException {
+        String sql = """
+            DELETE FROM thumbnails
+            WHERE thumbnail_path = ? OR media_file_id IN (SELECT media_file_id FROM thumbnail_renditions WHERE thumbnail_path = ?)
+        """;
+        
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setString(1, thumbnailPath);
+            stmt.setString(2, thumbnailPath);
+            stmt.executeUpdate();
+        }
+        try (PreparedStatement stmt = connection.prepareStatement("DELETE FROM thumbnail_renditions WHERE thumbnail_path = ?")) {
+            stmt.setString(1, thumbnailPath);
+            stmt.executeUpdate();
+        }
+    }
+    
+    /** Replaces the file's renditions with the given ones; an empty list removes them. */
+    public void saveThumbnailRenditions(Long mediaFileId, List<ThumbnailRendition> renditions) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("DELETE FROM thumbnail_renditions WHERE media_file_id = ?")) {
+            stmt.setLong(1, mediaFileId);
+            stmt.executeUpdate();
+        }
+        if (renditions.isEmpty()) {
+            return;
+        }
+        
+        String sql = """
+            INSERT INTO thumbnail_renditions (media_file_id, max_dimension, thumbnail_path, width, height, format,
+                                              pack_segment, pack_offset, pack_length)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)
+        """;
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            for (ThumbnailRendition rendition : renditions) {
+                stmt.setLong(1, mediaFileId);
+                stmt.setInt(2, rendition.getMaxDimension());
+                stmt.setString(3, rendition.getThumbnailPath());
+                stmt.setInt(4, rendition.getWidth());
+                stmt.setInt(5, rendition.getHeight());
+                stmt.setString(6, rendition.getFormat());
+                stmt.setObject(7, rendition.getPackSegment(), Types.INTEGER);
+                stmt.setObject(8, rendition.getPackOffset(), Types.BIGINT);
+                stmt.setObject(9, rendition.getPackLength(), Types.INTEGER);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+    
+    public List<ThumbnailRendition> getThumbnailRenditions(Long mediaFileId) throws SQLException {
+        String sql = "SELECT * FROM thumbnail_renditions WHERE media_file_id = ? ORDER BY max_dimension";
+        List<ThumbnailRendition> renditions = new ArrayList<>();
+        
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setLong(1, mediaFileId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    renditions.add(mapThumbnailRenditionFromResultSet(rs));
+                }
+            }
+        }
+        return renditions;
+    }
+    
+    /**
+     * Returns the smallest successful thumbnail or rendition of the file whose longer side is at
+     * least {@code minDimension}, or the largest one when none is that big.
+     */
+    public Optional<ThumbnailRendition> findThumbnailForSize(Long mediaFileId, int minDimension) throws SQLException {
+        String sql = """
+            SELECT * FROM (
+                SELECT media_file_id, MAX(width, height) AS max_dimension, thumbnail_path, width, height, format, pack_segment, pack_offset, pack_length
+                FROM thumbnails WHERE media_file_id = ? AND failed = 0
+                UNION ALL
+                SELECT media_file_id, max_dimension, thumbnail_path, width, height, format, pack_segment, pack_offset, pack_length
+                FROM thumbnail_renditions WHERE media_file_id = ?
+            )
+            ORDER BY MAX(width, height) < ?, CASE WHEN MAX(width, height) < ? THEN -MAX(width, height) ELSE MAX(width, height) END
+            LIMIT 1
+        """;
+        
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setLong(1, mediaFileId);
+            stmt.setLong(2, mediaFileId);
+            stmt.setInt(3, minDimension);
+            stmt.setInt(4, minDimension);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return Optional.of(mapThumbnailRenditionFromResultSet(rs));
+                }
+            }
+        }
+        return Optional.empty();
+    }
+    
     public MiniThumbnail saveMiniThumbnail(MiniThumbnail miniThumbnail) throws SQLException {
         String sql = """
-            INSERT OR REPLACE INTO mini_thumbnails (media_file_id, base64_data, width, height, orientation, format, created_at, failed, error_message, error_type)
-            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+            INSERT OR REPLACE INTO mini_thumbnails (media_file_id, image_data, width, height, orientation, format, created_at, failed, error_message, error_type, perceptual_hash,
+                                                    params_fingerprint, thumb_hash)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
             RETURNING id
         """;
         
         try (PreparedStatement stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             stmt.setLong(1, miniThumbnail.getMediaFileId());
-            stmt.setString(2, miniThumbnail.getBase64Data());
+            stmt.setBytes(2, miniThumbnail.getImageData());
             stmt.setInt(3, miniThumbnail.getWidth());
             stmt.setInt(4, miniThumbnail.getHeight());
             stmt.setInt(5, miniThumbnail.getOrientation());
@@ -225,6 +883,9 @@ public class DatabaseService {
             stmt.setBoolean(8, miniThumbnail.isFailed());
             stmt.setString(9, miniThumbnail.getErrorMessage());
             stmt.setString(10, miniThumbnail.getErrorType());
+            stmt.setObject(11, miniThumbnail.getPerceptualHash(), Types.BIGINT);
+            stmt.setString(12, miniThumbnail.getParamsFingerprint());
+            stmt.setBytes(13, miniThumbnail.getThumbHash());
 
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
@@ -236,22 +897,250 @@ public class DatabaseService {
         return miniThumbnail;
     }
     
-    public List<MiniThumbnail> getAllMiniThumbnails() throws SQLException {
+    /** Passes every mini thumbnail to the action in file path order, one row at a time, so their images are never all on the heap. */
+    public void forEachMiniThumbnail(Consumer<MiniThumbnail> action) throws SQLException {
         String sql = """
             SELECT mt.*, mf.file_path
             FROM mini_thumbnails mt
             JOIN media_files mf ON mt.media_file_id = mf.id
             ORDER BY mf.file_path
         """;
-        List<MiniThumbnail> miniThumbnails = new ArrayList<>();
         
         try (PreparedStatement stmt = connection.prepareStatement(sql);
              ResultSet rs = stmt.executeQuery()) {
             while (rs.next()) {
-                miniThumbnails.add(mapMiniThumbnailFromResultSet(rs));
+                action.accept(mapMiniThumbnailFromResultSet(rs));
+            }
+        }
+    }
+    
+    public MiniThumbnailStats getMiniThumbnailStats() throws SQLException {
+        String sql = """
+            SELECT COUNT(*), COALESCE(AVG(CASE WHEN failed = 0 THEN length(image_data) END), 0)
+            FROM mini_thumbnails mt
+            JOIN media_files mf ON mt.media_file_id = mf.id
+        """;
+        try (PreparedStatement stmt = connection.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+            if (rs.next()) {
+                return new MiniThumbnailStats(rs.getLong(1), rs.getLong(2));
+            }
+        }
+        return new MiniThumbnailStats(0, 0);
+    }
+    
+    /**
+     * Returns the chunk hashes recorded for a file, keyed by chunk index. Only chunks hashed
+     * with the same layout against the same version of the file are returned.
+     */
+    public Map<Integer, byte[]> getContentHashChunks(Long mediaFileId, long chunkSize, String algorithm,
+                                                     long fileSize, String lastModified) throws SQLException {
+        String sql = """
+            SELECT chunk_index, chunk_hash FROM content_hash_chunks
+            WHERE media_file_id = ? AND chunk_size = ? AND algorithm = ? AND file_size = ? AND last_modified = ?
+            ORDER BY chunk_index
+        """;
+        Map<Integer, byte[]> chunks = new TreeMap<>();
+        
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setLong(1, mediaFileId);
+            stmt.setLong(2, chunkSize);
+            stmt.setString(3, algorithm);
+            stmt.setLong(4, fileSize);
+            stmt.setString(5, lastModified);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    chunks.put(rs.getInt("chunk_index"), rs.getBytes("chunk_hash"));
+                }
             }
         }
-        return miniThumbnails;
+        return chunks;
+    }
+    
+    /**
+     * Returns the chunk size a file's content hash was computed with, or 0 if it was hashed whole.
+     * A chunked hash leaves a complete set of chunk hashes for that version of the file, which a
+     * whole-file hash never does, so the layout does not depend on the current settings.
+     */
+    public long getContentHashChunkSize(Long mediaFileId, String algorithm, long fileSize,
+                                        String lastModified) throws SQLException {
+        String sql = """
+            SELECT chunk_size, COUNT(*) AS chunk_count FROM content_hash_chunks
+            WHERE media_file_id = ? AND algorithm = ? AND file_size = ? AND last_modified = ?
+            GROUP BY chunk_size
+        """;
+        
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setLong(1, mediaFileId);
+            stmt.setString(2, algorithm);
+            stmt.setLong(3, fileSize);
+            stmt.setString(4, lastModified);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    long chunkSize = rs.getLong("chunk_size");
+                    if (chunkSize > 0 && rs.getLong("chunk_count") == (fileSize + chunkSize - 1) / chunkSize) {
+                        return chunkSize;
+                    }
+                }
+            }
+        }
+        return 0;
+    }
+    
+    public void deleteContentHashChunks(Long mediaFileId) throws SQLException {
+        String sql = "DELETE FROM content_hash_chunks WHERE media_file_id = ?";
+        
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setLong(1, mediaFileId);
+            stmt.executeUpdate();
+        }
+    }
+    
+    public void saveContentHashChunk(Long mediaFileId, int chunkIndex, long chunkSize, String algorithm,
+                                     long fileSize, String lastModified, byte[] chunkHash) throws SQLException {
+        String sql = """
+            INSERT OR REPLACE INTO content_hash_chunks (media_file_id, chunk_index, chunk_size, algorithm, file_size, last_modified, chunk_hash)
+            VALUES (?, ?, ?, ?, ?, ?, ?)
+        """;
+        
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setLong(1, mediaFileId);
+            stmt.setInt(2, chunkIndex);
+            stmt.setLong(3, chunkSize);
+            stmt.setString(4, algorithm);
+            stmt.setLong(5, fileSize);
+            stmt.setString(6, lastModified);
+            stmt.setBytes(7, chunkHash);
+            stmt.executeUpdate();
+        }
+    }
+    
+    /**
+     * Passes hashed files not verified since {@code verifiedBefore} to the action in scrub rotation
+     * order (never verified first, then least recently verified), one row at a time, until the
+     * action returns false. A file whose chunks are partly verified keeps its place at the front.
+     */
+    public void forEachScrubCandidate(LocalDateTime verifiedBefore, ScrubCandidateAction action) throws SQLException {
+        String sql = """
+            SELECT * FROM media_files
+            WHERE content_hash IS NOT NULL AND (last_verified IS NULL OR last_verified < ?)
+            ORDER BY last_verified, id
+        """;
+        
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setString(1, verifiedBefore.format(DATETIME_FORMATTER));
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    if (!action.accept(mapMediaFileFromResultSet(rs))) {
+                        break;
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Returns the bytes scrubs have read since the given time. Files found missing or changed
+     * read nothing, so they do not use up the budget the way their size would.
+     */
+    public long getScrubbedBytesSince(LocalDateTime since) throws SQLException {
+        String sql = "SELECT COALESCE(SUM(bytes), 0) FROM scrub_reads WHERE read_at >= ?";
+        
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setString(1, since.format(DATETIME_FORMATTER));
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getLong(1);
+                }
+            }
+        }
+        return 0;
+    }
+    
+    public void recordScrubRead(LocalDateTime readAt, long bytes) throws SQLException {
+        String sql = "INSERT INTO scrub_reads (read_at, bytes) VALUES (?, ?)";
+        
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setString(1, readAt.format(DATETIME_FORMATTER));
+            stmt.setLong(2, bytes);
+            stmt.executeUpdate();
+        }
+    }
+    
+    /** Drops reads that have left the budget window. */
+    public void deleteScrubReadsBefore(LocalDateTime before) throws SQLException {
+        String sql = "DELETE FROM scrub_reads WHERE read_at < ?";
+        
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setString(1, before.format(DATETIME_FORMATTER));
+            stmt.executeUpdate();
+        }
+    }
+    
+    public long getContentHashedBytes() throws SQLException {
+        String sql = "SELECT COALESCE(SUM(file_size), 0) FROM media_files WHERE content_hash IS NOT NULL";
+        try (PreparedStatement stmt = connection.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+            if (rs.next()) {
+                return rs.getLong(1);
+            }
+        }
+        return 0;
+    }
+    
+    /** Records a finished verification; the next one starts again at the first chunk. */
+    public void updateVerification(Long mediaFileId, String verifyStatus, LocalDateTime verifiedAt) throws SQLException {
+        String sql = "UPDATE media_files SET verify_status = ?, last_verified = ?, verify_next_chunk = 0 WHERE id = ?";
+        
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setString(1, verifyStatus);
+            stmt.setString(2, verifiedAt.format(DATETIME_FORMATTER));
+            stmt.setLong(3, mediaFileId);
+            stmt.executeUpdate();
+        }
+    }
+    
+    /** Records how far a scrub got through a chunk-hashed file, so the next one continues there. */
+    public void updateVerifyProgress(Long mediaFileId, int nextChunk) throws SQLException {
+        String sql = "UPDATE media_files SET verify_next_chunk = ? WHERE id = ?";
+        
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setInt(1, nextChunk);
+            stmt.setLong(2, mediaFileId);
+            stmt.executeUpdate();
+        }
+    }
+    
+    public List<MediaFile> getMediaFilesByVerifyStatus(String verifyStatus) throws SQLException {
+        String sql = "SELECT * FROM media_files WHERE verify_status = ? ORDER BY file_path";
+        List<MediaFile> files = new ArrayList<>();
+        
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setString(1, verifyStatus);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    files.add(mapMediaFileFromResultSet(rs));
+                }
+            }
+        }
+        return files;
+    }
+    
+    public Map<Long, Long> getPerceptualHashes() throws SQLException {
+        String sql = """
+            SELECT media_file_id, perceptual_hash
+            FROM mini_thumbnails
+            WHERE perceptual_hash IS NOT NULL AND failed = 0
+        """;
+        Map<Long, Long> hashes = new HashMap<>();
+        
+        try (PreparedStatement stmt = connection.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                hashes.put(rs.getLong("media_file_id"), rs.getLong("perceptual_hash"));
+            }
+        }
+        return hashes;
     }
     
     private MediaFile mapMediaFileFromResultSet(ResultSet rs) throws SQLException {
@@ -262,8 +1151,12 @@ public class DatabaseService {
         mediaFile.setFileSize(rs.getLong("file_size"));
         mediaFile.setLastModified(LocalDateTime.parse(rs.getString("last_modified"), DATETIME_FORMATTER));
         mediaFile.setLastScanned(LocalDateTime.parse(rs.getString("last_scanned"), DATETIME_FORMATTER));
-        mediaFile.setQuickHash(rs.getString("quick_hash"));
-        mediaFile.setContentHash(rs.getString("content_hash"));
+        mediaFile.setQuickHash(rs.getBytes("quick_hash"));
+        mediaFile.setContentHash(rs.getBytes("content_hash"));
+        String lastVerified = rs.getString("last_verified");
+        mediaFile.setLastVerified(lastVerified != null ? LocalDateTime.parse(lastVerified, DATETIME_FORMATTER) : null);
+        mediaFile.setVerifyStatus(rs.getString("verify_status"));
+        mediaFile.setVerifyNextChunk(rs.getInt("verify_next_chunk"));
         return mediaFile;
     }
     
@@ -271,7 +1164,7 @@ public class DatabaseService {
         MiniThumbnail miniThumbnail = new MiniThumbnail();
         miniThumbnail.setId(rs.getLong("id"));
         miniThumbnail.setMediaFileId(rs.getLong("media_file_id"));
-        miniThumbnail.setBase64Data(rs.getString("base64_data"));
+        miniThumbnail.setImageData(rs.getBytes("image_data"));
         miniThumbnail.setWidth(rs.getInt("width"));
         miniThumbnail.setHeight(rs.getInt("height"));
         miniThumbnail.setOrientation(rs.getInt("orientation"));
@@ -280,9 +1173,30 @@ public class DatabaseService {
         miniThumbnail.setFailed(rs.getBoolean("failed"));
         miniThumbnail.setErrorMessage(rs.getString("error_message"));
         miniThumbnail.setErrorType(rs.getString("error_type"));
+        long perceptualHash = rs.getLong("perceptual_hash");
+        miniThumbnail.setPerceptualHash(rs.wasNull() ? null : perceptualHash);
+        miniThumbnail.setParamsFingerprint(rs.getString("params_fingerprint"));
+        miniThumbnail.setThumbHash(rs.getBytes("thumb_hash"));
         return miniThumbnail;
     }
     
+    private ThumbnailRendition mapThumbnailRenditionFromResultSet(ResultSet rs) throws SQLException {
+        ThumbnailRendition rendition = new ThumbnailRendition();
+        rendition.setMediaFileId(rs.getLong("media_file_id"));
+        rendition.setMaxDimension(rs.getInt("max_dimension"));
+        rendition.setThumbnailPath(rs.getString("thumbnail_path"));
+        rendition.setWidth(rs.getInt("width"));
+        rendition.setHeight(rs.getInt("height"));
+        rendition.setFormat(rs.getString("format"));
+        int packSegment = rs.getInt("pack_segment");
+        if (!rs.wasNull()) {
+            rendition.setPackSegment(packSegment);
+            rendition.setPackOffset(rs.getLong("pack_offset"));
+            rendition.setPackLength(rs.getInt("pack_length"));
+        }
+        return rendition;
+    }
+    
     private Thumbnail mapThumbnailFromResultSet(ResultSet rs) throws SQLException {
         Thumbnail thumbnail = new Thumbnail();
         thumbnail.setId(rs.getLong("id"));
@@ -296,6 +1210,13 @@ public class DatabaseService {
         thumbnail.setFailed(rs.getBoolean("failed"));
         thumbnail.setErrorMessage(rs.getString("error_message"));
         thumbnail.setErrorType(rs.getString("error_type"));
+        int packSegment = rs.getInt("pack_segment");
+        if (!rs.wasNull()) {
+            thumbnail.setPackSegment(packSegment);
+            thumbnail.setPackOffset(rs.getLong("pack_offset"));
+            thumbnail.setPackLength(rs.getInt("pack_length"));
+        }
+        thumbnail.setParamsFingerprint(rs.getString("params_fingerprint"));
         return thumbnail;
     }
     
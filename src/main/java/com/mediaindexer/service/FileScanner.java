@@ -12,6 +12,7 @@ import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
@@ -106,8 +107,9 @@ public class FileScanner {
             scannedCount.incrementAndGet();
             
             BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            // Truncated to the precision stored in the database so unchanged files compare equal
             LocalDateTime lastModified = LocalDateTime.ofInstant(
-                attrs.lastModifiedTime().toInstant(), ZoneId.systemDefault());
+                attrs.lastModifiedTime().toInstant(), ZoneId.systemDefault()).truncatedTo(ChronoUnit.SECONDS);
             
             String filePath = path.toString();
             String extension = getFileExtension(path.getFileName().toString());
@@ -123,6 +125,9 @@ public class FileScanner {
                     databaseService.saveMediaFile(existing);
                     return;
                 }
+                // The file changed: drop the old row so its thumbnails and hash progress
+                // cascade away and the new content gets a fresh id
+                databaseService.deleteMediaFile(existing.getId());
             }
             
             MediaFile mediaFile = new MediaFile(filePath, extension, fileSize, lastModified);
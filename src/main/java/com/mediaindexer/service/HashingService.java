@@ -6,11 +6,24 @@ import com.mediaindexer.util.HashUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class HashingService {
@@ -35,8 +48,8 @@ public class HashingService {
         
         for (MediaFile mediaFile : mediaFiles) {
             try {
-                if (mediaFile.getQuickHash() == null || mediaFile.getQuickHash().isEmpty()) {
-                    String quickHash = HashUtil.computeQuickHash(
+                if (mediaFile.getQuickHash() == null || mediaFile.getQuickHash().length == 0) {
+                    byte[] quickHash = HashUtil.computeQuickHash(
                         mediaFile.getFilePath(), 
                         mediaFile.getFileSize(), 
                         mediaFile.getLastModified()
@@ -68,42 +81,142 @@ public class HashingService {
         
         processedCount.set(0);
         String algorithm = config.getHashing().getContentHashAlgorithm();
+        if (config.getHashing().isChunkedHashing() && "FNV-1".equals(algorithm)) {
+            logger.warn("Chunked hashing requires a MessageDigest algorithm, hashing files whole with FNV-1");
+        }
+        ExecutorService chunkExecutor = isChunkedHashingEnabled(config, algorithm)
+            ? Executors.newFixedThreadPool(Math.max(1, config.getHashing().getChunkThreads()))
+            : null;
         
-        for (MediaFile mediaFile : mediaFiles) {
-            try {
-                if (mediaFile.getContentHash() == null || mediaFile.getContentHash().isEmpty()) {
-                    Path filePath = Paths.get(mediaFile.getFilePath());
-                    
-                    if (!Files.exists(filePath)) {
-                        logger.warn("File no longer exists: {}", mediaFile.getFilePath());
-                        continue;
+        try {
+            for (MediaFile mediaFile : mediaFiles) {
+                try {
+                    if (mediaFile.getContentHash() == null || mediaFile.getContentHash().length == 0) {
+                        Path filePath = Paths.get(mediaFile.getFilePath());
+                        
+                        if (!Files.exists(filePath)) {
+                            logger.warn("File no longer exists: {}", mediaFile.getFilePath());
+                            continue;
+                        }
+                        
+                        byte[] contentHash;
+                        if ("FNV-1".equals(algorithm)) {
+                            contentHash = HashUtil.computeFNV1Hash(filePath);
+                        } else if (chunkExecutor != null && Files.size(filePath) > getChunkSize(config)) {
+                            contentHash = computeChunkedContentHash(mediaFile, filePath, algorithm, chunkExecutor);
+                        } else {
+                            contentHash = HashUtil.computeContentHash(filePath, algorithm);
+                        }
+                        
+                        mediaFile.setContentHash(contentHash);
+                        databaseService.saveMediaFile(mediaFile);
                     }
                     
-                    String contentHash;
-                    if ("FNV-1".equals(algorithm)) {
-                        contentHash = HashUtil.computeFNV1Hash(filePath);
-                    } else {
-                        contentHash = HashUtil.computeContentHash(filePath, algorithm);
+                    processedCount.incrementAndGet();
+                    
+                    if (processedCount.get() % 100 == 0) {
+                        logger.info("Generated content hashes for {} files...", processedCount.get());
                     }
                     
-                    mediaFile.setContentHash(contentHash);
-                    databaseService.saveMediaFile(mediaFile);
-                }
-                
-                processedCount.incrementAndGet();
-                
-                if (processedCount.get() % 100 == 0) {
-                    logger.info("Generated content hashes for {} files...", processedCount.get());
+                } catch (Exception e) {
+                    logger.error("Failed to generate content hash for file: {}", mediaFile.getFilePath(), e);
                 }
-                
-            } catch (Exception e) {
-                logger.error("Failed to generate content hash for file: {}", mediaFile.getFilePath(), e);
+            }
+        } finally {
+            if (chunkExecutor != null) {
+                chunkExecutor.shutdownNow();
             }
         }
         
         logger.info("Content hash generation completed. Processed {} files", processedCount.get());
     }
     
+    /**
+     * Hashes content a caller has already read into memory, such as the thumbnail pipeline.
+     * Returns null for files large enough to need chunked hashing, which is left to
+     * {@link #generateContentHashes()}.
+     */
+    public byte[] computeContentHash(InputStream inputStream, long fileSize) throws IOException {
+        String algorithm = config.getHashing().getContentHashAlgorithm();
+        if ("FNV-1".equals(algorithm)) {
+            return HashUtil.computeFNV1Hash(inputStream);
+        }
+        if (isChunkedHashingEnabled(config, algorithm) && fileSize > getChunkSize(config)) {
+            return null;
+        }
+        return HashUtil.computeContentHash(inputStream, algorithm);
+    }
+    
+    /**
+     * Hashes a large file as fixed-size chunks rolled up into a Merkle root. Each finished
+     * chunk is persisted as soon as it completes, so an interrupted run resumes at the first
+     * missing chunk instead of byte zero.
+     */
+    private byte[] computeChunkedContentHash(MediaFile mediaFile, Path filePath, String algorithm,
+                                             ExecutorService chunkExecutor) throws IOException, SQLException {
+        long chunkSize = getChunkSize(config);
+        long fileSize = Files.size(filePath);
+        String lastModified = getFileVersion(filePath);
+        int chunkCount = (int) ((fileSize + chunkSize - 1) / chunkSize);
+        
+        Map<Integer, byte[]> chunkHashes = new TreeMap<>(databaseService.getContentHashChunks(
+            mediaFile.getId(), chunkSize, algorithm, fileSize, lastModified));
+        if (chunkHashes.isEmpty()) {
+            databaseService.deleteContentHashChunks(mediaFile.getId());
+        } else {
+            logger.info("Resuming content hash of {} at {}/{} chunks", mediaFile.getFilePath(), chunkHashes.size(), chunkCount);
+        }
+        
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            CompletionService<Map.Entry<Integer, byte[]>> completionService = new ExecutorCompletionService<>(chunkExecutor);
+            List<Future<Map.Entry<Integer, byte[]>>> pending = new ArrayList<>();
+            
+            for (int i = 0; i < chunkCount; i++) {
+                if (chunkHashes.containsKey(i)) {
+                    continue;
+                }
+                final int chunkIndex = i;
+                final long offset = chunkIndex * chunkSize;
+                final long length = Math.min(chunkSize, fileSize - offset);
+                pending.add(completionService.submit(() ->
+                    Map.entry(chunkIndex, HashUtil.computeChunkDigest(channel, offset, length, algorithm))));
+            }
+            
+            try {
+                for (int i = 0; i < pending.size(); i++) {
+                    Map.Entry<Integer, byte[]> chunk = completionService.take().get();
+                    databaseService.saveContentHashChunk(mediaFile.getId(), chunk.getKey(), chunkSize, algorithm,
+                                                         fileSize, lastModified, chunk.getValue());
+                    chunkHashes.put(chunk.getKey(), chunk.getValue());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while hashing " + filePath, e);
+            } catch (ExecutionException e) {
+                throw new IOException("Failed to hash chunk of " + filePath, e.getCause());
+            } finally {
+                pending.forEach(future -> future.cancel(true));
+            }
+        }
+        
+        return HashUtil.computeMerkleRoot(new ArrayList<>(chunkHashes.values()), algorithm);
+    }
+    
+    static boolean isChunkedHashingEnabled(MediaIndexerConfig config, String algorithm) {
+        return config.getHashing().isChunkedHashing() && !"FNV-1".equals(algorithm);
+    }
+    
+    static long getChunkSize(MediaIndexerConfig config) {
+        return Math.max(1, config.getHashing().getChunkSizeMB()) * 1024L * 1024L;
+    }
+    
+    /**
+     * Identifies the on-disk version of a file that chunk hashes were computed against.
+     */
+    static String getFileVersion(Path filePath) throws IOException {
+        return Files.getLastModifiedTime(filePath).toInstant().toString();
+    }
+    
     public void findDuplicates() throws SQLException {
         logger.info("Analyzing duplicates based on content hashes");
         
@@ -116,8 +229,9 @@ public class HashingService {
                 List<MediaFile> duplicates = databaseService.findMediaFilesByQuickHash(file.getQuickHash());
                 if (duplicates.size() > 1) {
                     if (duplicateGroups % 10 == 0) {
-                        logger.info("Found duplicate group {} with {} files (first: {})", 
-                                   duplicateGroups + 1, duplicates.size(), file.getFilePath());
+                        logger.info("Found duplicate group {} with {} files (hash: {}, first: {})", 
+                                   duplicateGroups + 1, duplicates.size(), HashUtil.bytesToHex(file.getQuickHash()),
+                                   file.getFilePath());
                     }
                     duplicateGroups++;
                     totalDuplicates += duplicates.size() - 1;
@@ -3,25 +3,121 @@ package com.mediaindexer.service;
 import com.mediaindexer.config.MediaIndexerConfig;
 import com.mediaindexer.model.MediaFile;
 import com.mediaindexer.model.MiniThumbnail;
+import com.mediaindexer.util.HashUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.SQLException;
+import java.util.Base64;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 public class HtmlIndexService {
     private static final Logger logger = LoggerFactory.getLogger(HtmlIndexService.class);
+    private static final String IMAGE_DIR = "thumbs";
+    private static final String IMAGE_NAME_ALGORITHM = "SHA-256";
+    
+    // Expands each tile's ThumbHash into a blurred background shown until the image itself loads;
+    // the decoder follows the reference ThumbHash implementation
+    private static final String THUMBHASH_SCRIPT = """
+        <script>
+        function thumbHashToRGBA(hash) {
+            const { PI, min, max, cos, round } = Math;
+            const header24 = hash[0] | (hash[1] << 8) | (hash[2] << 16);
+            const header16 = hash[3] | (hash[4] << 8);
+            const lDc = (header24 & 63) / 63;
+            const pDc = ((header24 >> 6) & 63) / 31.5 - 1;
+            const qDc = ((header24 >> 12) & 63) / 31.5 - 1;
+            const lScale = ((header24 >> 18) & 31) / 31;
+            const hasAlpha = header24 >> 23;
+            const pScale = ((header16 >> 3) & 63) / 63;
+            const qScale = ((header16 >> 9) & 63) / 63;
+            const isLandscape = header16 >> 15;
+            const lx = max(3, isLandscape ? (hasAlpha ? 5 : 7) : header16 & 7);
+            const ly = max(3, isLandscape ? header16 & 7 : (hasAlpha ? 5 : 7));
+            const aDc = hasAlpha ? (hash[5] & 15) / 15 : 1;
+            const aScale = (hash[5] >> 4) / 15;
+            const acStart = hasAlpha ? 6 : 5;
+            let acIndex = 0;
+            const decodeChannel = (nx, ny, scale) => {
+                const ac = [];
+                for (let cy = 0; cy < ny; cy++)
+                    for (let cx = cy ? 0 : 1; cx * ny < nx * (ny - cy); cx++, acIndex++)
+                        ac.push((((hash[acStart + (acIndex >> 1)] >> ((acIndex & 1) << 2)) & 15) / 7.5 - 1) * scale);
+                return ac;
+            };
+            const lAc = decodeChannel(lx, ly, lScale);
+            const pAc = decodeChannel(3, 3, pScale * 1.25);
+            const qAc = decodeChannel(3, 3, qScale * 1.25);
+            const aAc = hasAlpha && decodeChannel(5, 5, aScale);
+            const ratio = (isLandscape ? (hasAlpha ? 5 : 7) : header16 & 7) / (isLandscape ? header16 & 7 : (hasAlpha ? 5 : 7));
+            const w = round(ratio > 1 ? 32 : 32 * ratio);
+            const h = round(ratio > 1 ? 32 / ratio : 32);
+            const rgba = new Uint8ClampedArray(w * h * 4), fx = [], fy = [];
+            for (let y = 0, i = 0; y < h; y++) {
+                for (let x = 0; x < w; x++, i += 4) {
+                    let l = lDc, p = pDc, q = qDc, a = aDc;
+                    for (let cx = 0, n = max(lx, hasAlpha ? 5 : 3); cx < n; cx++) fx[cx] = cos(PI / w * (x + 0.5) * cx);
+                    for (let cy = 0, n = max(ly, hasAlpha ? 5 : 3); cy < n; cy++) fy[cy] = cos(PI / h * (y + 0.5) * cy);
+                    for (let cy = 0, j = 0; cy < ly; cy++)
+                        for (let cx = cy ? 0 : 1, fy2 = fy[cy] * 2; cx * ly < lx * (ly - cy); cx++, j++)
+                            l += lAc[j] * fx[cx] * fy2;
+                    for (let cy = 0, j = 0; cy < 3; cy++) {
+                        for (let cx = cy ? 0 : 1, fy2 = fy[cy] * 2; cx < 3 - cy; cx++, j++) {
+                            const f = fx[cx] * fy2;
+                            p += pAc[j] * f;
+                            q += qAc[j] * f;
+                        }
+                    }
+                    if (hasAlpha)
+                        for (let cy = 0, j = 0; cy < 5; cy++)
+                            for (let cx = cy ? 0 : 1, fy2 = fy[cy] * 2; cx < 5 - cy; cx++, j++)
+                                a += aAc[j] * fx[cx] * fy2;
+                    const b = l - 2 / 3 * p;
+                    const r = (3 * l - b + q) / 2;
+                    const g = r - q;
+                    rgba[i] = 255 * min(1, r);
+                    rgba[i + 1] = 255 * min(1, g);
+                    rgba[i + 2] = 255 * min(1, b);
+                    rgba[i + 3] = 255 * min(1, a);
+                }
+            }
+            return new ImageData(rgba, w, h);
+        }
+        
+        const canvas = document.createElement('canvas');
+        document.querySelectorAll('img[data-thumbhash]').forEach(img => {
+            if (img.complete && img.naturalWidth) return;
+            const hash = Uint8Array.from(atob(img.dataset.thumbhash), c => c.charCodeAt(0));
+            const image = thumbHashToRGBA(hash);
+            canvas.width = image.width;
+            canvas.height = image.height;
+            canvas.getContext('2d').putImageData(image, 0, 0);
+            img.style.background = 'center / cover no-repeat url(' + canvas.toDataURL() + ')';
+            img.addEventListener('load', () => img.style.background = '', { once: true });
+        });
+        </script>
+        """;
     
     private final DatabaseService databaseService;
     private final MediaIndexerConfig config;
+    private final Set<String> writtenImages = new HashSet<>();
     
     public HtmlIndexService(DatabaseService databaseService, MediaIndexerConfig config) {
         this.databaseService = databaseService;
@@ -33,12 +129,16 @@ public class HtmlIndexService {
         
         Files.createDirectories(Paths.get(config.getHtmlOutputDir()));
         
-        List<MiniThumbnail> miniThumbnails = databaseService.getAllMiniThumbnails();
+        DatabaseService.MiniThumbnailStats stats = databaseService.getMiniThumbnailStats();
         Map<Long, MediaFile> mediaFileMap = createMediaFileMap();
         
-        logger.info("Found {} mini thumbnails to include in HTML index", miniThumbnails.size());
+        logger.info("Found {} mini thumbnails to include in HTML index", stats.count());
         
-        generatePaginatedHtmlPages(miniThumbnails, mediaFileMap);
+        writtenImages.clear();
+        generatePaginatedHtmlPages(mediaFileMap, estimateTotalPages(stats, config.getHtml().getMaxPageSizeBytes()));
+        if (config.getHtml().isLazyLoad()) {
+            deleteUnusedImages();
+        }
         
         logger.info("HTML index generation completed");
     }
@@ -54,68 +154,141 @@ public class HtmlIndexService {
         return fileMap;
     }
     
-    private void generatePaginatedHtmlPages(List<MiniThumbnail> miniThumbnails, 
-                                          Map<Long, MediaFile> mediaFileMap) throws IOException {
-        long maxPageSize = config.getHtml().getMaxPageSizeBytes();
-        int pageNumber = 1;
-        long currentPageSize = 0;
-        StringBuilder currentPageContent = new StringBuilder();
-        int totalPages = estimateTotalPages(miniThumbnails, maxPageSize);
-
-        for (MiniThumbnail miniThumbnail : miniThumbnails) {
-            MediaFile mediaFile = mediaFileMap.get(miniThumbnail.getMediaFileId());
-
-            if (mediaFile == null) {
-                logger.warn("Media file not found for mini thumbnail ID: {}", miniThumbnail.getId());
-                continue;
+    /**
+     * A gallery tile. An inlined image is kept as bytes and base64-encoded straight into the page
+     * between the two parts of the markup, so no page or image is ever built as one large string.
+     * The markup is encoded to UTF-8 once, when the tile is made.
+     */
+    private record Tile(byte[] before, byte[] inlineImage, byte[] after) {
+        Tile(String before, byte[] inlineImage, String after) {
+            this(before.getBytes(StandardCharsets.UTF_8), inlineImage, after.getBytes(StandardCharsets.UTF_8));
+        }
+        
+        long size() {
+            long imageSize = inlineImage != null ? 4L * ((inlineImage.length + 2) / 3) : 0;
+            return before.length + imageSize + after.length;
+        }
+    }
+    
+    /** A view of a page stream that the base64 encoder can close, to flush its padding, without closing the page. */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+        
+        @Override
+        public void close() {
+        }
+    }
+    
+    /** Writes tiles to the current page file, moving on to the next page when the size limit would be passed. */
+    private class PageWriter implements Closeable {
+        private final int totalPages;
+        private final long maxPageSize = config.getHtml().getMaxPageSizeBytes();
+        private OutputStream output;
+        private int pageNumber;
+        private long pageSize;
+        
+        PageWriter(int totalPages) {
+            this.totalPages = totalPages;
+        }
+        
+        void write(Tile tile) throws IOException {
+            long tileSize = tile.size();
+            if (output != null && pageSize + tileSize > maxPageSize) {
+                finishPage();
             }
-
-            String thumbnailHtml = createThumbnailHtml(miniThumbnail, mediaFile);
-            long thumbnailSize = thumbnailHtml.getBytes(StandardCharsets.UTF_8).length;
-
-            if (currentPageSize + thumbnailSize > maxPageSize && !currentPageContent.isEmpty()) {
-                writeHtmlPage(currentPageContent.toString(), pageNumber, totalPages);
-                pageNumber++;
-                currentPageContent = new StringBuilder();
-                currentPageSize = 0;
+            if (output == null) {
+                startPage();
             }
-
-            currentPageContent.append(thumbnailHtml);
-            currentPageSize += thumbnailSize;
+            
+            output.write(tile.before());
+            if (tile.inlineImage() != null) {
+                try (OutputStream encoder = Base64.getEncoder().wrap(new NonClosingOutputStream(output))) {
+                    encoder.write(tile.inlineImage());
+                }
+            }
+            output.write(tile.after());
+            pageSize += tileSize;
+        }
+        
+        int getPageCount() {
+            return pageNumber;
+        }
+        
+        private void startPage() throws IOException {
+            pageNumber++;
+            String fileName = pageNumber == 1 ? 
+                config.getHtml().getIndexFileName() : 
+                String.format("index-page-%d.html", pageNumber);
+            output = new BufferedOutputStream(Files.newOutputStream(Paths.get(config.getHtmlOutputDir(), fileName)));
+            output.write(createPageHeader(pageNumber, totalPages).getBytes(StandardCharsets.UTF_8));
+            pageSize = 0;
         }
         
-        if (!currentPageContent.isEmpty()) {
-            writeHtmlPage(currentPageContent.toString(), pageNumber, totalPages);
+        private void finishPage() throws IOException {
+            output.write(createPageFooter(pageNumber, totalPages).getBytes(StandardCharsets.UTF_8));
+            output.close();
+            output = null;
+            logger.debug("Generated HTML page {}", pageNumber);
         }
         
-        logger.info("Generated {} HTML pages", pageNumber);
+        @Override
+        public void close() throws IOException {
+            if (output != null) {
+                finishPage();
+            }
+        }
     }
     
-    private int estimateTotalPages(List<MiniThumbnail> miniThumbnails, long maxPageSize) {
-        if (miniThumbnails.isEmpty()) return 1;
-
-        // More robust estimate: consider only present thumbnails; fall back to a small default size
-        long totalSize = 0;
-        long countWithData = 0;
-        for (MiniThumbnail mt : miniThumbnails) {
-            String data = (mt != null) ? mt.getBase64Data() : null;
-            if (data != null && !data.isBlank() && !mt.isFailed()) {
-                totalSize += data.length();
-                countWithData++;
+    private void generatePaginatedHtmlPages(Map<Long, MediaFile> mediaFileMap, int totalPages) throws SQLException, IOException {
+        try (PageWriter pages = new PageWriter(totalPages)) {
+            // Rows are streamed from the database; the callback cannot throw checked exceptions
+            try {
+                databaseService.forEachMiniThumbnail(miniThumbnail -> {
+                    MediaFile mediaFile = mediaFileMap.get(miniThumbnail.getMediaFileId());
+                    
+                    if (mediaFile == null) {
+                        logger.warn("Media file not found for mini thumbnail ID: {}", miniThumbnail.getId());
+                        return;
+                    }
+                    
+                    try {
+                        pages.write(createThumbnailHtml(miniThumbnail, mediaFile));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
             }
+            
+            logger.info("Generated {} HTML pages", Math.max(1, pages.getPageCount()));
         }
-        long averageSize = (countWithData > 0 ? totalSize / countWithData : 600); // default small average
+    }
+    
+    private int estimateTotalPages(DatabaseService.MiniThumbnailStats stats, long maxPageSize) {
+        if (stats.count() == 0) return 1;
+        
+        // Only a link and a placeholder of a few dozen bytes per tile, or the base64 image on top of that
+        long averageSize = config.getHtml().isLazyLoad() ? 100
+            : stats.averageImageBytes() > 0 ? 4 * ((stats.averageImageBytes() + 2) / 3) : 600; // default small average
         long estimatedItemsPerPage = Math.max(1, maxPageSize / (averageSize + 500)); // 500 bytes for HTML overhead
-        return (int) Math.ceil((double) miniThumbnails.size() / estimatedItemsPerPage);
+        return (int) Math.ceil((double) stats.count() / estimatedItemsPerPage);
     }
     
-    private String createThumbnailHtml(MiniThumbnail miniThumbnail, MediaFile mediaFile) {
+    private Tile createThumbnailHtml(MiniThumbnail miniThumbnail, MediaFile mediaFile) throws IOException {
         // Defensive checks
         if (mediaFile == null) {
             logger.warn("createThumbnailHtml called with null mediaFile");
-            return "";
+            return new Tile("", null, "");
         }
-
+        
         String rawPath = mediaFile.getFilePath();
         String fileName = "";
         if (rawPath != null && !rawPath.isBlank()) {
@@ -129,58 +302,67 @@ public class HtmlIndexService {
                 fileName = rawPath;
             }
         }
-
+        
         String encodedPath = "";
         if (rawPath != null && !rawPath.isBlank()) {
             encodedPath = encodeFileUri(rawPath);
         }
-
-        // Determine if we have a valid inline thumbnail to render
+        
+        // Determine if we have a valid thumbnail to render, linked or inlined
         boolean hasImage = false;
-        String base64Image = "";
+        String imageSource = "";
+        byte[] inlineImage = null;
         int width = 0;
         int height = 0;
-
+        
         if (miniThumbnail != null && !miniThumbnail.isFailed()) {
             String format = Optional.ofNullable(miniThumbnail.getFormat()).orElse("").toLowerCase();
-            String base64 = Optional.ofNullable(miniThumbnail.getBase64Data()).orElse("");
-            hasImage = !format.isBlank() && !base64.isBlank();
-
+            byte[] imageData = miniThumbnail.getImageData();
+            hasImage = !format.isBlank() && imageData != null && imageData.length > 0;
+            
             if (hasImage) {
-                base64Image = "data:image/" + format + ";base64," + base64;
+                if (config.getHtml().isLazyLoad()) {
+                    imageSource = writeImage(format, imageData);
+                } else {
+                    imageSource = "data:image/" + format + ";base64,";
+                    inlineImage = imageData;
+                }
                 width = miniThumbnail.getWidth();
                 height = miniThumbnail.getHeight();
             }
         }
-
+        
         String safeTitle = escapeHtml(fileName);
         String safeHref = escapeHtml(encodedPath);
-
+        
         if (hasImage) {
+            // The inlined image goes between the opening of the tag and the rest of it
             StringBuilder imgTag = new StringBuilder();
-            imgTag.append("<img src=\"").append(base64Image).append("\" alt=\"").append(safeTitle).append("\"");
+            imgTag.append("\" alt=\"").append(safeTitle).append("\"");
             if (width > 0) {
                 imgTag.append(" width=\"").append(width).append("\"");
             }
             if (height > 0) {
                 imgTag.append(" height=\"").append(height).append("\"");
             }
+            if (config.getHtml().isLazyLoad() && miniThumbnail.getThumbHash() != null) {
+                imgTag.append(" data-thumbhash=\"").append(Base64.getEncoder().encodeToString(miniThumbnail.getThumbHash())).append("\"");
+            }
             imgTag.append(" loading=\"lazy\" />");
-
-            return String.format(
+            
+            String before = String.format(
                 "<div class=\"thumbnail-container\">" +
                 "<a href=\"%s\" title=\"%s\" target=\"_blank\" rel=\"noopener\">" +
-                "%s" +
-                "</a>" +
-                "</div>\n",
+                "<img src=\"%s",
                 safeHref,
                 safeTitle,
-                imgTag
+                imageSource
             );
+            return new Tile(before, inlineImage, imgTag + "</a></div>\n");
         } else {
             // Textual fallback; still make it clickable if we have a path
             String linkContent = safeTitle.isBlank() ? "Open file" : safeTitle;
-            return String.format(
+            return new Tile(String.format(
                 "<div class=\"thumbnail-container\">" +
                 "<a href=\"%s\" title=\"%s\" target=\"_blank\" rel=\"noopener\">" +
                 "<span>%s</span>" +
@@ -189,24 +371,48 @@ public class HtmlIndexService {
                 safeHref,
                 safeTitle,
                 linkContent
-            );
+            ), null, "");
         }
     }
     
-    private void writeHtmlPage(String content, int pageNumber, int totalPages) throws IOException {
-        String fileName = pageNumber == 1 ? 
-            config.getHtml().getIndexFileName() : 
-            String.format("index-page-%d.html", pageNumber);
-        
-        Path filePath = Paths.get(config.getHtmlOutputDir(), fileName);
-        
-        String htmlContent = createHtmlDocument(content, pageNumber, totalPages);
-        Files.writeString(filePath, htmlContent, StandardCharsets.UTF_8);
-        
-        logger.debug("Generated HTML page: {}", filePath);
+    /**
+     * Writes the mini thumbnail next to the pages, so the page links to it instead of inlining it,
+     * and returns the relative URL. The file is named by a digest of the image, so linked duplicates
+     * share one file and one browser-cache entry, and a regenerated mini gets a new name;
+     * files that are already there are kept.
+     */
+    private String writeImage(String format, byte[] imageData) throws IOException {
+        byte[] digest = HashUtil.computeContentHash(new ByteArrayInputStream(imageData), IMAGE_NAME_ALGORITHM);
+        String fileName = HashUtil.bytesToHex(digest) + "." + format;
+        Path path = Paths.get(config.getHtmlOutputDir(), IMAGE_DIR, fileName);
+        if (!Files.exists(path)) {
+            Files.createDirectories(path.getParent());
+            Files.write(path, imageData);
+        }
+        writtenImages.add(fileName);
+        return IMAGE_DIR + "/" + fileName;
+    }
+    
+    private void deleteUnusedImages() throws IOException {
+        Path directory = Paths.get(config.getHtmlOutputDir(), IMAGE_DIR);
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        int deleted = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                if (!writtenImages.contains(path.getFileName().toString())) {
+                    Files.deleteIfExists(path);
+                    deleted++;
+                }
+            }
+        }
+        if (deleted > 0) {
+            logger.info("Deleted {} thumbnail images no longer in the HTML index", deleted);
+        }
     }
     
-    private String createHtmlDocument(String content, int pageNumber, int totalPages) {
+    private String createPageHeader(int pageNumber, int totalPages) {
         String navigation = createNavigation(pageNumber, totalPages);
         
         return String.format("""
@@ -223,12 +429,12 @@ public class HtmlIndexService {
                         padding: 20px;
                         background-color: #f5f5f5;
                     }
-        
+                    
                     .header {
                         text-align: center;
                         margin-bottom: 20px;
                     }
-
+                    
                     .navigation {
                         text-align: center;
                         margin: 20px 0;
@@ -237,7 +443,7 @@ public class HtmlIndexService {
                         border-radius: 5px;
                         box-shadow: 0 2px 5px rgba(0,0,0,0.1);
                     }
-
+                    
                     .navigation a {
                         text-decoration: none;
                         color: #007bff;
@@ -247,17 +453,17 @@ public class HtmlIndexService {
                         border-radius: 3px;
                         display: inline-block;
                     }
-
+                    
                     .navigation a:hover {
                         background-color: #007bff;
                         color: white;
                     }
-
+                    
                     .navigation a.current {
                         background-color: #007bff;
                         color: white;
                     }
-
+                    
                     .gallery {
                         display: grid;
                         grid-template-columns: repeat(auto-fill, minmax(120px, 1fr));
@@ -265,7 +471,7 @@ public class HtmlIndexService {
                         max-width: 1200px;
                         margin: 0 auto;
                     }
-
+                    
                     .thumbnail-container {
                         background-color: white;
                         border-radius: 5px;
@@ -273,29 +479,29 @@ public class HtmlIndexService {
                         box-shadow: 0 2px 5px rgba(0,0,0,0.1);
                         transition: transform 0.2s ease;
                     }
-
+                    
                     .thumbnail-container:hover {
                         transform: scale(1.05);
                     }
-
+                    
                     .thumbnail-container img {
                         width: 100%%;
                         height: auto;
                         border-radius: 3px;
                     }
-
+                    
                     .thumbnail-container a {
                         display: block;
                         text-decoration: none;
                         cursor: pointer;
                         position: relative;
                     }
-
+                    
                     .thumbnail-container a:focus {
                         outline: 2px solid #007bff;
                         outline-offset: 2px;
                     }
-
+                    
                     .thumbnail-container a:hover::after {
                         content: '🔗 Click to open file';
                         position: absolute;
@@ -311,7 +517,7 @@ public class HtmlIndexService {
                         z-index: 1000;
                         pointer-events: none;
                     }
-
+                    
                     .info-notice {
                         background: #e7f3ff;
                         border: 1px solid #b3d9ff;
@@ -322,17 +528,17 @@ public class HtmlIndexService {
                         font-size: 14px;
                         color: #0066cc;
                     }
-
+                    
                     .info-notice strong {
                         color: #004499;
                     }
-
+                    
                     @media (max-width: 768px) {
                         .gallery {
                             grid-template-columns: repeat(auto-fill, minmax(100px, 1fr));
                             gap: 8px;
                         }
-
+                        
                         .navigation a {
                             margin: 5px;
                             padding: 6px 12px;
@@ -346,27 +552,32 @@ public class HtmlIndexService {
                     <h1>Media Index</h1>
                     <p>Page %d of %d</p>
                 </div>
-
+                
                 <div class="info-notice">
                     <strong>💡 How to open files:</strong> Click on any thumbnail to open the original file in your system's default application.
                     If links don't work in your browser, try opening this HTML file locally or using a different browser.
                     Some browsers restrict file:// protocol access for security reasons.
                 </div>
-
+                
                 %s
-
+                
                 <div class="gallery">
-                    %s
+            """, pageNumber, totalPages, pageNumber, totalPages, navigation);
+    }
+    
+    private String createPageFooter(int pageNumber, int totalPages) {
+        return String.format("""
                 </div>
-
+                
                 %s
-
+                
                 <div style="text-align: center; margin-top: 40px; color: #666; font-size: 14px;">
                     <p>Generated by Media Indexer</p>
                 </div>
+                %s
             </body>
             </html>
-            """, pageNumber, totalPages, pageNumber, totalPages, navigation, content, navigation);
+            """, createNavigation(pageNumber, totalPages), config.getHtml().isLazyLoad() ? THUMBHASH_SCRIPT : "");
     }
     
     private String createNavigation(int currentPage, int totalPages) {
@@ -423,7 +634,7 @@ public class HtmlIndexService {
             config.getHtml().getIndexFileName() : 
             String.format("index-page-%d.html", pageNumber);
     }
-
+    
     private String encodeFileUri(String filePath) {
         if (filePath == null || filePath.isBlank()) {
             return "";
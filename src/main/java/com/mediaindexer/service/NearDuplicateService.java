@@ -0,0 +1,113 @@
+package com.mediaindexer.service;
+
+import com.mediaindexer.config.MediaIndexerConfig;
+import com.mediaindexer.model.MediaFile;
+import com.mediaindexer.util.BkTree;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class NearDuplicateService {
+    private static final Logger logger = LoggerFactory.getLogger(NearDuplicateService.class);
+    
+    private final DatabaseService databaseService;
+    private final MediaIndexerConfig config;
+    
+    public NearDuplicateService(DatabaseService databaseService, MediaIndexerConfig config) {
+        this.databaseService = databaseService;
+        this.config = config;
+    }
+    
+    /**
+     * Groups images whose perceptual hashes are within the configured Hamming distance of each
+     * other. Every hash is queried once against a BK-tree of the whole catalog and matches are
+     * merged with union-find, so groups are the connected components of the "is near" relation.
+     */
+    public List<List<MediaFile>> findNearDuplicates() throws SQLException {
+        int maxDistance = config.getHashing().getNearDuplicateDistance();
+        Map<Long, Long> hashes = databaseService.getPerceptualHashes();
+        logger.info("Searching {} perceptual hashes for near duplicates within distance {}", hashes.size(), maxDistance);
+        
+        long[] ids = new long[hashes.size()];
+        long[] values = new long[hashes.size()];
+        Map<Long, Integer> indexById = new HashMap<>();
+        BkTree tree = new BkTree();
+        
+        int count = 0;
+        for (Map.Entry<Long, Long> entry : hashes.entrySet()) {
+            ids[count] = entry.getKey();
+            values[count] = entry.getValue();
+            indexById.put(entry.getKey(), count);
+            tree.add(entry.getValue(), entry.getKey());
+            count++;
+        }
+        
+        int[] parent = new int[count];
+        for (int i = 0; i < count; i++) {
+            parent[i] = i;
+        }
+        
+        for (int i = 0; i < count; i++) {
+            final int current = i;
+            tree.search(values[i], maxDistance, matchId -> union(parent, current, indexById.get(matchId)));
+            
+            if ((i + 1) % 100000 == 0) {
+                logger.info("Compared {} of {} perceptual hashes...", i + 1, count);
+            }
+        }
+        
+        Map<Integer, List<Long>> members = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            members.computeIfAbsent(find(parent, i), root -> new ArrayList<>()).add(ids[i]);
+        }
+        
+        Map<Long, MediaFile> mediaFileMap = new HashMap<>();
+        for (MediaFile mediaFile : databaseService.getAllMediaFiles()) {
+            mediaFileMap.put(mediaFile.getId(), mediaFile);
+        }
+        
+        List<List<MediaFile>> groups = new ArrayList<>();
+        for (List<Long> groupIds : members.values()) {
+            if (groupIds.size() < 2) {
+                continue;
+            }
+            List<MediaFile> group = new ArrayList<>(groupIds.size());
+            for (Long id : groupIds) {
+                MediaFile mediaFile = mediaFileMap.get(id);
+                if (mediaFile != null) {
+                    group.add(mediaFile);
+                }
+            }
+            if (group.size() > 1) {
+                group.sort(Comparator.comparing(MediaFile::getFilePath));
+                groups.add(group);
+            }
+        }
+        groups.sort(Comparator.comparing(group -> group.get(0).getFilePath()));
+        
+        logger.info("Near duplicate analysis completed. Found {} groups", groups.size());
+        return groups;
+    }
+    
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+    
+    private static void union(int[] parent, int a, int b) {
+        int rootA = find(parent, a);
+        int rootB = find(parent, b);
+        if (rootA != rootB) {
+            parent[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package com.mediaindexer.service;
+
+import com.mediaindexer.config.MediaIndexerConfig;
+import com.mediaindexer.model.MediaFile;
+import com.mediaindexer.model.VerifyStatus;
+import com.mediaindexer.util.HashUtil;
+import com.mediaindexer.util.RateLimiter;
+import com.mediaindexer.util.ThrottledInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Re-verifies stored content hashes to detect bit rot. Each run works through the least
+ * recently verified files within a rolling 24 hour byte budget, so repeated (e.g. daily) runs
+ * rotate through the whole archive while the read rate stays capped.
+ */
+public class ScrubService {
+    private static final Logger logger = LoggerFactory.getLogger(ScrubService.class);
+    private static final long MB = 1024L * 1024L;
+    
+    private final DatabaseService databaseService;
+    private final MediaIndexerConfig config;
+    private final Map<VerifyStatus, Long> statusCounts = new EnumMap<>(VerifyStatus.class);
+    private long verifiedBytes;
+    private long partialCount;
+    private long skippedCount;
+    
+    /**
+     * The outcome of verifying a file, or part of it: a {@code resumeChunk} above 0 means the
+     * chunks read so far matched and the file continues at that chunk in a later scrub.
+     */
+    private record ScrubResult(MediaFile mediaFile, VerifyStatus status, List<Integer> corruptChunks, long bytesRead,
+                               int resumeChunk) {}
+    
+    /** How the stored hash was computed: whole when the chunk size is 0, otherwise as a Merkle root of these chunks. */
+    private record HashLayout(long chunkSize, Map<Integer, byte[]> chunkHashes) {
+        static final HashLayout WHOLE = new HashLayout(0, Map.of());
+        
+        int chunkCount(long fileSize) {
+            return (int) ((fileSize + chunkSize - 1) / chunkSize);
+        }
+        
+        long chunkLength(int chunkIndex, long fileSize) {
+            return Math.min(chunkSize, fileSize - chunkIndex * chunkSize);
+        }
+    }
+    
+    /** A file to verify in this run: the whole file, or chunks {@code firstChunk} up to {@code endChunk} of it. */
+    private record ScrubTask(MediaFile mediaFile, HashLayout layout, int firstChunk, int endChunk, long bytes) {}
+    
+    public ScrubService(DatabaseService databaseService, MediaIndexerConfig config) {
+        this.databaseService = databaseService;
+        this.config = config;
+    }
+    
+    public void scrub() throws SQLException {
+        MediaIndexerConfig.ScrubConfig scrubConfig = config.getScrub();
+        long dailyBudget = scrubConfig.getDailyBudgetMB() * MB;
+        LocalDateTime windowStart = LocalDateTime.now().minusDays(1);
+        databaseService.deleteScrubReadsBefore(windowStart);
+        long usedBudget = databaseService.getScrubbedBytesSince(windowStart);
+        long remainingBudget = dailyBudget - usedBudget;
+        
+        statusCounts.clear();
+        verifiedBytes = 0;
+        partialCount = 0;
+        skippedCount = 0;
+        
+        if (remainingBudget <= 0) {
+            logger.info("Daily scrub budget of {} MB already used in the last 24 hours", scrubConfig.getDailyBudgetMB());
+            return;
+        }
+        
+        List<ScrubTask> tasks = planTasks(remainingBudget, dailyBudget, windowStart);
+        logger.info("Scrubbing {} files ({} MB of {} MB remaining budget)", tasks.size(),
+                   tasks.stream().mapToLong(ScrubTask::bytes).sum() / MB, remainingBudget / MB);
+        
+        RateLimiter rateLimiter = new RateLimiter(scrubConfig.getMaxMBPerSecond() * MB);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, scrubConfig.getThreads()));
+        
+        try {
+            CompletionService<ScrubResult> completionService = new ExecutorCompletionService<>(executor);
+            for (ScrubTask task : tasks) {
+                completionService.submit(() -> verify(task, rateLimiter));
+            }
+            
+            for (int i = 0; i < tasks.size(); i++) {
+                ScrubResult result = completionService.take().get();
+                recordResult(result);
+                
+                if ((i + 1) % 100 == 0) {
+                    logger.info("Scrubbed {} of {} files...", i + 1, tasks.size());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Scrub interrupted");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Scrub worker failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        
+        logger.info("Scrub completed. Verified {} MB, {} mismatches", verifiedBytes / MB, getCount(VerifyStatus.MISMATCH));
+    }
+    
+    /**
+     * Picks the work of this run in rotation order without exceeding the remaining budget. A
+     * chunk-hashed file gets as many of its remaining chunks as fit, so a file larger than the
+     * budget is verified over several days; a file hashed whole that does not fit is skipped.
+     * Missing and changed files are taken at no cost, since finding that out reads nothing.
+     */
+    private List<ScrubTask> planTasks(long remainingBudget, long dailyBudget, LocalDateTime windowStart) throws SQLException {
+        List<ScrubTask> tasks = new ArrayList<>();
+        long[] remaining = {remainingBudget};
+        
+        databaseService.forEachScrubCandidate(windowStart, mediaFile -> {
+            long fileSize = mediaFile.getFileSize();
+            HashLayout layout = loadHashLayout(mediaFile);
+            
+            if (isUnverifiable(mediaFile)) {
+                tasks.add(new ScrubTask(mediaFile, layout, 0, 0, 0));
+            } else if (layout.chunkSize() > 0) {
+                int chunkCount = layout.chunkCount(fileSize);
+                int firstChunk = mediaFile.getVerifyNextChunk() < chunkCount ? mediaFile.getVerifyNextChunk() : 0;
+                int endChunk = firstChunk;
+                long bytes = 0;
+                while (endChunk < chunkCount && bytes + layout.chunkLength(endChunk, fileSize) <= remaining[0]) {
+                    bytes += layout.chunkLength(endChunk, fileSize);
+                    endChunk++;
+                }
+                if (endChunk > firstChunk) {
+                    tasks.add(new ScrubTask(mediaFile, layout, firstChunk, endChunk, bytes));
+                    remaining[0] -= bytes;
+                } else {
+                    skip(mediaFile, layout.chunkSize() > dailyBudget, layout.chunkSize());
+                }
+            } else if (fileSize <= remaining[0]) {
+                tasks.add(new ScrubTask(mediaFile, layout, 0, 0, fileSize));
+                remaining[0] -= fileSize;
+            } else {
+                skip(mediaFile, fileSize > dailyBudget, fileSize);
+            }
+            return remaining[0] > 0;
+        });
+        return tasks;
+    }
+    
+    private void skip(MediaFile mediaFile, boolean exceedsDailyBudget, long readSize) {
+        skippedCount++;
+        if (exceedsDailyBudget) {
+            logger.warn("Skipping {}: reading {} MB at once exceeds the daily scrub budget of {} MB", mediaFile.getFilePath(),
+                        readSize / MB, config.getScrub().getDailyBudgetMB());
+        } else {
+            logger.info("Skipping {} until a later scrub: {} MB exceeds the remaining budget", mediaFile.getFilePath(),
+                        readSize / MB);
+        }
+    }
+    
+    /** True if the file is still there with the size and modification time it was scanned with. */
+    private boolean isUnchanged(MediaFile mediaFile) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(Paths.get(mediaFile.getFilePath()), BasicFileAttributes.class);
+        LocalDateTime lastModified = LocalDateTime.ofInstant(
+            attrs.lastModifiedTime().toInstant(), ZoneId.systemDefault()).truncatedTo(ChronoUnit.SECONDS);
+        return attrs.size() == mediaFile.getFileSize() && lastModified.equals(mediaFile.getLastModified());
+    }
+    
+    /** Whether verifying the file would read nothing: it is gone, changed, or cannot be read. */
+    private boolean isUnverifiable(MediaFile mediaFile) {
+        try {
+            return !isUnchanged(mediaFile);
+        } catch (IOException e) {
+            return true;
+        }
+    }
+    
+    /**
+     * Verification follows the layout the stored hash was made with, found from its chunk hashes,
+     * not the current {@code chunkedHashing} and {@code chunkSizeMB} settings; otherwise changing
+     * either would report every large file as corrupt.
+     */
+    private HashLayout loadHashLayout(MediaFile mediaFile) throws SQLException {
+        String algorithm = config.getHashing().getContentHashAlgorithm();
+        if ("FNV-1".equals(algorithm)) {
+            return HashLayout.WHOLE;
+        }
+        
+        try {
+            Path filePath = Paths.get(mediaFile.getFilePath());
+            String fileVersion = HashingService.getFileVersion(filePath);
+            long chunkSize = databaseService.getContentHashChunkSize(mediaFile.getId(), algorithm,
+                                                                     mediaFile.getFileSize(), fileVersion);
+            if (chunkSize == 0) {
+                return HashLayout.WHOLE;
+            }
+            return new HashLayout(chunkSize, databaseService.getContentHashChunks(mediaFile.getId(), chunkSize, algorithm,
+                                                                                  mediaFile.getFileSize(), fileVersion));
+        } catch (IOException e) {
+            // The worker reports the file as missing or unreadable
+            return HashLayout.WHOLE;
+        }
+    }
+    
+    private ScrubResult verify(ScrubTask task, RateLimiter rateLimiter) {
+        MediaFile mediaFile = task.mediaFile();
+        Path filePath = Paths.get(mediaFile.getFilePath());
+        String algorithm = config.getHashing().getContentHashAlgorithm();
+        
+        try {
+            if (!Files.exists(filePath)) {
+                return new ScrubResult(mediaFile, VerifyStatus.MISSING, List.of(), 0, 0);
+            }
+            if (!isUnchanged(mediaFile)) {
+                return new ScrubResult(mediaFile, VerifyStatus.CHANGED, List.of(), 0, 0);
+            }
+            
+            if (task.layout().chunkSize() > 0) {
+                return verifyChunks(task, filePath, rateLimiter);
+            }
+            
+            byte[] actual;
+            try (InputStream inputStream = new ThrottledInputStream(Files.newInputStream(filePath), rateLimiter)) {
+                actual = "FNV-1".equals(algorithm)
+                    ? HashUtil.computeFNV1Hash(inputStream)
+                    : HashUtil.computeContentHash(inputStream, algorithm);
+            }
+            VerifyStatus status = Arrays.equals(actual, mediaFile.getContentHash()) ? VerifyStatus.OK : VerifyStatus.MISMATCH;
+            return new ScrubResult(mediaFile, status, List.of(), mediaFile.getFileSize(), 0);
+        
+        } catch (IOException e) {
+            logger.warn("Could not verify file: {} - {}", mediaFile.getFilePath(), e.getMessage());
+            return new ScrubResult(mediaFile, VerifyStatus.ERROR, List.of(), 0, 0);
+        }
+    }
+    
+    /**
+     * Re-reads the task's chunks and compares each with its recorded hash. Once the last chunk
+     * has been checked, the recorded hashes must also still roll up into the content hash.
+     */
+    private ScrubResult verifyChunks(ScrubTask task, Path filePath, RateLimiter rateLimiter) throws IOException {
+        MediaFile mediaFile = task.mediaFile();
+        HashLayout layout = task.layout();
+        String algorithm = config.getHashing().getContentHashAlgorithm();
+        long fileSize = mediaFile.getFileSize();
+        List<Integer> corruptChunks = new ArrayList<>();
+        long bytesRead = 0;
+        
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            for (int chunkIndex = task.firstChunk(); chunkIndex < task.endChunk(); chunkIndex++) {
+                long offset = chunkIndex * layout.chunkSize();
+                long length = layout.chunkLength(chunkIndex, fileSize);
+                try {
+                    rateLimiter.acquire(length);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while verifying " + filePath, e);
+                }
+                
+                byte[] digest = HashUtil.computeChunkDigest(channel, offset, length, algorithm);
+                if (!Arrays.equals(layout.chunkHashes().get(chunkIndex), digest)) {
+                    corruptChunks.add(chunkIndex);
+                }
+                bytesRead += length;
+            }
+        }
+        
+        if (!corruptChunks.isEmpty()) {
+            return new ScrubResult(mediaFile, VerifyStatus.MISMATCH, corruptChunks, bytesRead, 0);
+        }
+        if (task.endChunk() < layout.chunkCount(fileSize)) {
+            return new ScrubResult(mediaFile, VerifyStatus.OK, List.of(), bytesRead, task.endChunk());
+        }
+        byte[] root = HashUtil.computeMerkleRoot(new ArrayList<>(layout.chunkHashes().values()), algorithm);
+        VerifyStatus status = Arrays.equals(root, mediaFile.getContentHash()) ? VerifyStatus.OK : VerifyStatus.MISMATCH;
+        return new ScrubResult(mediaFile, status, List.of(), bytesRead, 0);
+    }
+    
+    private void recordResult(ScrubResult result) throws SQLException {
+        MediaFile mediaFile = result.mediaFile();
+        VerifyStatus status = result.status();
+        
+        LocalDateTime now = LocalDateTime.now();
+        if (result.bytesRead() > 0) {
+            databaseService.recordScrubRead(now, result.bytesRead());
+        }
+        verifiedBytes += result.bytesRead();
+        
+        if (result.resumeChunk() > 0) {
+            databaseService.updateVerifyProgress(mediaFile.getId(), result.resumeChunk());
+            partialCount++;
+            logger.info("Verified {} up to chunk {}; the remaining chunks follow in later scrubs", mediaFile.getFilePath(),
+                        result.resumeChunk());
+            return;
+        }
+        
+        databaseService.updateVerification(mediaFile.getId(), status.getCode(), now);
+        statusCounts.merge(status, 1L, Long::sum);
+        
+        switch (status) {
+            case MISMATCH -> {
+                if (result.corruptChunks().isEmpty()) {
+                    logger.error("Content hash mismatch: {}", mediaFile.getFilePath());
+                } else {
+                    logger.error("Content hash mismatch: {} (corrupt chunks: {})", mediaFile.getFilePath(), result.corruptChunks());
+                }
+            }
+            case CHANGED -> logger.info("File modified since last scan, skipping verification: {}", mediaFile.getFilePath());
+            default -> logger.debug("Scrub of {} finished with status {}", mediaFile.getFilePath(), status.getCode());
+        }
+    }
+    
+    public long getCount(VerifyStatus status) {
+        return statusCounts.getOrDefault(status, 0L);
+    }
+    
+    public long getVerifiedBytes() {
+        return verifiedBytes;
+    }
+    
+    /** Files whose chunks were partly verified in this run and continue in the next. */
+    public long getPartialCount() {
+        return partialCount;
+    }
+    
+    /** Files left for a later run because reading them would have exceeded the budget. */
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+}
@@ -7,374 +7,904 @@ import com.mediaindexer.config.MediaIndexerConfig;
 import com.mediaindexer.model.MediaFile;
 import com.mediaindexer.model.MiniThumbnail;
 import com.mediaindexer.model.Thumbnail;
+import com.mediaindexer.model.ThumbnailRendition;
 import com.mediaindexer.model.ThumbnailErrorType;
+import com.mediaindexer.thumbnail.DecodeWatchdog;
+import com.mediaindexer.thumbnail.EmbeddedPreviewExtractor;
+import com.mediaindexer.thumbnail.ImageDecoder;
+import com.mediaindexer.thumbnail.ImageEncoder;
+import com.mediaindexer.thumbnail.ImageOrientation;
+import com.mediaindexer.thumbnail.MediaSource;
+import com.mediaindexer.thumbnail.MemoryGovernor;
+import com.mediaindexer.thumbnail.RasterPool;
+import com.mediaindexer.thumbnail.Resampler;
+import com.mediaindexer.thumbnail.ThumbnailJob;
+import com.mediaindexer.thumbnail.ThumbnailPackStore;
+import com.mediaindexer.thumbnail.ThumbnailPipeline;
+import com.mediaindexer.util.BufferPool;
+import com.mediaindexer.util.HashUtil;
+import com.mediaindexer.util.PerceptualHash;
+import com.mediaindexer.util.ThumbHash;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.imageio.ImageIO;
+import javax.imageio.IIOException;
 import java.awt.*;
-import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.SQLException;
-import java.util.Base64;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class ThumbnailService {
     private static final Logger logger = LoggerFactory.getLogger(ThumbnailService.class);
+    private static final int MAX_POOLED_BUFFER_SIZE = 64 * 1024 * 1024;
+    // Idle memory each pool may keep; what the decodes hold is capped by the memory governor
+    private static final long MAX_POOLED_BYTES = 64L * 1024 * 1024;
+    private static final int WORK_PAGE_SIZE = 1000;
+    private static final double PACK_COMPACTION_THRESHOLD = 0.5;
+    private static final int THUMB_HASH_INPUT_SIZE = 32;
+    private static final BasicStroke BORDER_STROKE = new BasicStroke(2);
+    private static final BasicStroke CROSS_STROKE = new BasicStroke(4);
+    private static final BasicStroke EXCLAMATION_STROKE = new BasicStroke(6);
+    
+    /** Placeholders look the same for every file with the same extension and error, so each is drawn once. */
+    private record PlaceholderKey(int width, int height, String extension, ThumbnailErrorType errorType) {}
     
     private final DatabaseService databaseService;
     private final MediaIndexerConfig config;
+    private final HashingService hashingService;
+    private final BufferPool bufferPool;
+    private final RasterPool rasterPool;
+    private final ImageDecoder imageDecoder;
+    private final EmbeddedPreviewExtractor previewExtractor = new EmbeddedPreviewExtractor();
+    private final MemoryGovernor memoryGovernor;
     private final AtomicLong processedCount = new AtomicLong(0);
+    private final AtomicLong linkedCount = new AtomicLong(0);
+    private final List<Integer> renditionSizes;
+    private final int decodeLongEdge;
+    private final String thumbnailFingerprint;
+    private final String miniThumbnailFingerprint;
+    private final Map<PlaceholderKey, BufferedImage> placeholderImages = new ConcurrentHashMap<>();
+    private ThumbnailPackStore packStore;
+    private DecodeWatchdog decodeWatchdog;
     
     public ThumbnailService(DatabaseService databaseService, MediaIndexerConfig config) {
         this.databaseService = databaseService;
         this.config = config;
+        this.hashingService = new HashingService(databaseService, config);
+        this.bufferPool = new BufferPool(config.getPerformance().getBufferPoolSize(), MAX_POOLED_BUFFER_SIZE,
+                                         MAX_POOLED_BYTES);
+        this.rasterPool = new RasterPool(config.getPerformance().getBufferPoolSize(), MAX_POOLED_BYTES);
+        this.imageDecoder = new ImageDecoder(rasterPool);
+        this.memoryGovernor = new MemoryGovernor(config.getPerformance().getMaxMemoryMB() * 1024L * 1024L);
+        
+        // Largest first, since each rendition is scaled from the next larger one
+        int maxDimension = config.getThumbnail().getMaxDimension();
+        this.renditionSizes = config.getThumbnail().getRenditionSizes().stream()
+            .filter(size -> size != null && size > 0 && size != maxDimension)
+            .distinct()
+            .sorted(Comparator.reverseOrder())
+            .toList();
+        this.decodeLongEdge = renditionSizes.isEmpty() ? maxDimension : Math.max(maxDimension, renditionSizes.get(0));
+        
+        // Everything that changes the pixels of an output; a result made with other values is outdated
+        MediaIndexerConfig.ThumbnailConfig thumbnail = config.getThumbnail();
+        MediaIndexerConfig.MiniThumbnailConfig miniThumbnail = config.getMiniThumbnail();
+        String common = String.format("exif=%b;resampler=%d", thumbnail.isRespectExifOrientation(), Resampler.VERSION);
+        this.thumbnailFingerprint = String.format("size=%d;format=%s;quality=%s;%s", thumbnail.getMaxDimension(),
+                                                  thumbnail.getFormat().toUpperCase(), thumbnail.getQuality(), common)
+            + (renditionSizes.isEmpty() ? "" : ";renditions=" + renditionSizes);
+        this.miniThumbnailFingerprint = String.format("height=%d;format=%s;quality=%s;%s;thumbhash=1", miniThumbnail.getMaxHeight(),
+                                                      miniThumbnail.getFormat().toUpperCase(), miniThumbnail.getQuality(), common)
+            + (miniThumbnail.getTargetSizeBytes() > 0
+               ? String.format(";target=%d;minQuality=%s", miniThumbnail.getTargetSizeBytes(), miniThumbnail.getMinQuality())
+               : "");
     }
     
+    /**
+     * Generates thumbnails and mini thumbnails in a single pass. Only files missing an up-to-date
+     * result are selected, a page at a time, so a repeat run over an unchanged catalog touches no
+     * files. They are processed in parallel by a {@link ThumbnailPipeline}; each file is read from
+     * disk once and the hasher, the EXIF parser and both decodes work from the same buffered bytes.
+     * Afterwards, up to {@code maxRegenerationsPerRun} results made with other settings are rebuilt,
+     * so a settings change is rolled out over the following runs.
+     */
     public void generateThumbnails() throws SQLException, IOException {
         logger.info("Starting thumbnail generation");
         
         Files.createDirectories(Paths.get(config.getThumbnailOutputDir()));
+        processedCount.set(0);
+        linkedCount.set(0);
         
-        List<MediaFile> mediaFiles = databaseService.getAllMediaFiles();
-        logger.info("Found {} media files to process", mediaFiles.size());
+        if (!"pack".equalsIgnoreCase(config.getThumbnail().getStorage())) {
+            runPipeline();
+            regenerateOutdated();
+        } else {
+            try (ThumbnailPackStore store = new ThumbnailPackStore(Paths.get(config.getThumbnailOutputDir()),
+                                                                   config.getThumbnail().getPackSegmentMB() * 1024L * 1024L)) {
+                packStore = store;
+                migrateLooseThumbnails();
+                runPipeline();
+                regenerateOutdated();
+                compactPackSegments();
+            } finally {
+                packStore = null;
+            }
+        }
         
-        processedCount.set(0);
+        logger.info("Thumbnail generation completed. Processed {} files, {} of them linked to a duplicate",
+                    processedCount.get(), linkedCount.get());
+    }
+    
+    private void runPipeline() throws SQLException {
+        long workCount = databaseService.getThumbnailWorkCount();
+        logger.info("Found {} media files to process", workCount);
+        if (workCount > 0) {
+            runPipeline(new WorkIterator(databaseService::getThumbnailWork, Long.MAX_VALUE));
+        }
+    }
+    
+    /** Rebuilds results whose parameter fingerprint is not the current one, a limited number per run. */
+    private void regenerateOutdated() throws SQLException {
+        int limit = config.getThumbnail().getMaxRegenerationsPerRun();
+        if (limit <= 0) {
+            return;
+        }
+        long outdatedCount = databaseService.getOutdatedThumbnailWorkCount(thumbnailFingerprint, miniThumbnailFingerprint);
+        if (outdatedCount == 0) {
+            return;
+        }
+        logger.info("Found {} media files with thumbnails made with other settings, regenerating up to {}",
+                    outdatedCount, limit);
+        runPipeline(new WorkIterator((afterPath, pageSize) -> databaseService.getOutdatedThumbnailWork(
+            thumbnailFingerprint, miniThumbnailFingerprint, afterPath, pageSize), limit));
+    }
+    
+    private void runPipeline(WorkIterator work) {
+        MediaIndexerConfig.PerformanceConfig performance = config.getPerformance();
+        ThumbnailPipeline pipeline = new ThumbnailPipeline(new ThumbnailPipeline.Stages() {
+            @Override
+            public void load(ThumbnailJob job) {
+                loadSource(job);
+            }
+            
+            @Override
+            public void decode(ThumbnailJob job) throws InterruptedException {
+                decodeImages(job);
+            }
+            
+            @Override
+            public void encode(ThumbnailJob job, ImageEncoder encoder) throws IOException {
+                encodeImages(job, encoder);
+            }
+            
+            @Override
+            public void write(List<ThumbnailJob> batch) throws SQLException {
+                saveResults(batch);
+            }
+        }, performance.getIoThreads(), performance.getThumbnailThreads(), performance.getEncodeThreads(),
+           performance.getDbBatchSize());
         
-        for (MediaFile mediaFile : mediaFiles) {
-            try {
-                generateThumbnailForFile(mediaFile);
-                processedCount.incrementAndGet();
-                
-                if (processedCount.get() % 100 == 0) {
-                    logger.info("Generated thumbnails for {} files...", processedCount.get());
+        try (DecodeWatchdog watchdog = new DecodeWatchdog(performance.getDecodeTimeoutSeconds() * 1000L)) {
+            decodeWatchdog = watchdog;
+            pipeline.run(work);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Thumbnail generation interrupted");
+        } finally {
+            decodeWatchdog = null;
+        }
+    }
+    
+    /** Moves thumbnails written as loose files, by earlier runs or in file storage mode, into the pack. */
+    private void migrateLooseThumbnails() throws SQLException, IOException {
+        int batchSize = Math.max(1, config.getPerformance().getDbBatchSize());
+        long moved = 0;
+        String lastPath = "";
+        
+        // One page at a time, so a large collection's paths are never all in memory
+        while (true) {
+            List<String> batch = databaseService.getLooseThumbnailPaths(lastPath, batchSize);
+            if (batch.isEmpty()) {
+                break;
+            }
+            if (lastPath.isEmpty()) {
+                logger.info("Moving thumbnail files into pack files");
+            }
+            lastPath = batch.get(batch.size() - 1);
+            
+            Map<String, ThumbnailPackStore.Entry> entries = new HashMap<>();
+            for (String path : batch) {
+                Path file = Paths.get(path);
+                if (Files.exists(file)) {
+                    entries.put(path, packStore.append(ByteBuffer.wrap(Files.readAllBytes(file))));
                 }
-                
-            } catch (Exception e) {
-                logger.error("Failed to generate thumbnail for file: {}", mediaFile.getFilePath(), e);
             }
+            packStore.force();
+            
+            // Rows whose file is gone are dropped, so the next selection regenerates them
+            databaseService.runInTransaction(() -> {
+                for (String path : batch) {
+                    ThumbnailPackStore.Entry entry = entries.get(path);
+                    if (entry != null) {
+                        databaseService.moveThumbnailToPack(path, entry.segment(), entry.offset(), entry.length());
+                    } else {
+                        databaseService.deleteThumbnailsByPath(path);
+                    }
+                }
+            });
+            for (String path : entries.keySet()) {
+                Files.deleteIfExists(Paths.get(path));
+            }
+            moved += entries.size();
+        }
+        if (moved > 0) {
+            logger.info("Moved {} thumbnail files into pack files", moved);
         }
-        
-        logger.info("Thumbnail generation completed. Processed {} files", processedCount.get());
     }
     
-    public void generateMiniThumbnails() throws SQLException {
-        logger.info("Starting mini thumbnail generation");
+    /**
+     * Reclaims the space of replaced and deleted thumbnails. Segments with no live entries are
+     * deleted; segments that are mostly dead have their live entries copied to a new segment.
+     */
+    private void compactPackSegments() throws SQLException, IOException {
+        Map<Integer, Long> liveBytes = databaseService.getPackLiveBytes();
+        List<Integer> toCompact = new ArrayList<>();
         
-        List<MediaFile> mediaFiles = databaseService.getAllMediaFiles();
-        logger.info("Found {} media files to process", mediaFiles.size());
+        for (int segment : packStore.getSegments()) {
+            long size = packStore.getSegmentSize(segment);
+            long live = liveBytes.getOrDefault(segment, 0L);
+            if (live == 0) {
+                packStore.deleteSegment(segment);
+            } else if (size - live > size * PACK_COMPACTION_THRESHOLD) {
+                toCompact.add(segment);
+            }
+        }
+        if (toCompact.isEmpty()) {
+            return;
+        }
         
-        processedCount.set(0);
+        // Copies go to a fresh segment, so none of the segments being compacted receives them
+        packStore.startNewSegment();
+        for (int segment : toCompact) {
+            Map<Long, ThumbnailPackStore.Entry> moved = new HashMap<>();
+            for (Map.Entry<Long, Integer> entry : databaseService.getPackEntries(segment).entrySet()) {
+                ByteBuffer data = packStore.read(new ThumbnailPackStore.Entry(segment, entry.getKey(), entry.getValue()));
+                moved.put(entry.getKey(), packStore.append(data));
+            }
+            packStore.force();
+            
+            databaseService.runInTransaction(() -> {
+                for (Map.Entry<Long, ThumbnailPackStore.Entry> entry : moved.entrySet()) {
+                    databaseService.movePackEntry(segment, entry.getKey(), entry.getValue().segment(), entry.getValue().offset());
+                }
+            });
+            packStore.deleteSegment(segment);
+            logger.info("Compacted thumbnail pack segment {}: kept {} entries", segment, moved.size());
+        }
+    }
+    
+    @FunctionalInterface
+    private interface WorkQuery {
+        List<DatabaseService.ThumbnailWork> fetch(String afterPath, int limit) throws SQLException;
+    }
+    
+    /** Pages through the files that need work, creating each job as the pipeline asks for it. */
+    private class WorkIterator implements Iterator<ThumbnailJob> {
+        private final WorkQuery query;
+        private long remaining;
+        private List<DatabaseService.ThumbnailWork> page = List.of();
+        private int index;
+        private String lastPath = "";
+        private boolean exhausted;
         
-        for (MediaFile mediaFile : mediaFiles) {
-            try {
-                generateMiniThumbnailForFile(mediaFile);
-                processedCount.incrementAndGet();
-                
-                if (processedCount.get() % 100 == 0) {
-                    logger.info("Generated mini thumbnails for {} files...", processedCount.get());
+        WorkIterator(WorkQuery query, long limit) {
+            this.query = query;
+            this.remaining = limit;
+        }
+        
+        @Override
+        public boolean hasNext() {
+            if (index == page.size() && !exhausted) {
+                int pageSize = (int) Math.min(WORK_PAGE_SIZE, remaining);
+                try {
+                    page = query.fetch(lastPath, pageSize);
+                } catch (SQLException e) {
+                    logger.error("Failed to select files needing thumbnails after {}", lastPath, e);
+                    page = List.of();
                 }
-                
-            } catch (Exception e) {
-                logger.error("Failed to generate mini thumbnail for file: {}", mediaFile.getFilePath(), e);
+                index = 0;
+                remaining -= page.size();
+                exhausted = page.size() < pageSize || remaining == 0;
             }
+            return index < page.size();
         }
         
-        logger.info("Mini thumbnail generation completed. Processed {} files", processedCount.get());
+        @Override
+        public ThumbnailJob next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            DatabaseService.ThumbnailWork work = page.get(index++);
+            MediaFile mediaFile = work.mediaFile();
+            lastPath = mediaFile.getFilePath();
+            
+            ThumbnailJob job = new ThumbnailJob(mediaFile);
+            job.setThumbnailNeeded(work.thumbnailNeeded());
+            job.setMiniThumbnailNeeded(work.miniThumbnailNeeded());
+            return job;
+        }
     }
     
-    private void generateThumbnailForFile(MediaFile mediaFile) throws IOException, SQLException {
+    private void loadSource(ThumbnailJob job) {
+        MediaFile mediaFile = job.getMediaFile();
         Path inputPath = Paths.get(mediaFile.getFilePath());
         
         if (!Files.exists(inputPath)) {
             logger.warn("File no longer exists: {}", mediaFile.getFilePath());
+            job.setSkipped(true);
             return;
         }
         
-        String thumbnailFileName = mediaFile.getId() + "." + config.getThumbnail().getFormat().toLowerCase();
-        Path thumbnailPath = Paths.get(config.getThumbnailOutputDir(), thumbnailFileName);
-        
-        if (Files.exists(thumbnailPath)) {
-            logger.debug("Thumbnail already exists: {}", thumbnailPath);
+        byte[] contentHash = mediaFile.getContentHash();
+        job.setThumbnailPath(getThumbnailPath(mediaFile, contentHash));
+        if (contentHash != null && linkDuplicate(job, contentHash)) {
             return;
         }
         
-        BufferedImage originalImage;
+        MediaSource source;
         try {
-            originalImage = ImageIO.read(inputPath.toFile());
-            if (originalImage == null) {
-                String errorMsg = String.format("Image decoding failed: unsupported format or corrupted file - %s", inputPath);
-                logger.warn("Could not decode image file (unsupported format or corrupted): {} [Format: {}]", 
-                    inputPath, mediaFile.getExtension());
-                
-                if (config.getThumbnail().isGeneratePlaceholders()) {
-                    generatePlaceholderThumbnail(mediaFile, thumbnailPath, ThumbnailErrorType.DECODING_ERROR);
-                } else {
-                    saveThumbnailFailure(mediaFile.getId(), errorMsg, ThumbnailErrorType.DECODING_ERROR);
-                }
-                return;
-            }
+            source = MediaSource.open(inputPath, bufferPool, config.getPerformance().getMaxBufferedFileMB() * 1024L * 1024L);
         } catch (IOException e) {
             String errorMsg = String.format("Image reading failed (I/O error): %s - %s", inputPath, e.getMessage());
             logger.warn("Could not read image file (I/O error): {} - {} [Cause: {}]", 
                 inputPath, e.getMessage(), e.getClass().getSimpleName());
             
-            if (config.getThumbnail().isGeneratePlaceholders()) {
-                generatePlaceholderThumbnail(mediaFile, thumbnailPath, ThumbnailErrorType.IO_ERROR);
-            } else {
-                saveThumbnailFailure(mediaFile.getId(), errorMsg, ThumbnailErrorType.IO_ERROR);
-            }
+            job.setFailure(new ThumbnailJob.Failure(ThumbnailErrorType.IO_ERROR, errorMsg));
             return;
         }
         
-        int orientation = getExifOrientation(inputPath.toFile());
-        BufferedImage rotatedImage = applyExifOrientation(originalImage, orientation);
-        
-        BufferedImage thumbnail = createThumbnail(rotatedImage, config.getThumbnail().getMaxDimension());
-        
-        writeImageToFile(thumbnail, thumbnailPath.toFile(), config.getThumbnail().getFormat(), config.getThumbnail().getQuality());
+        job.setSource(source);
+        if (contentHash == null && source.isBuffered()) {
+            contentHash = computeContentHash(source);
+            job.setContentHash(contentHash);
+            if (contentHash != null) {
+                job.setThumbnailPath(getThumbnailPath(mediaFile, contentHash));
+                if (linkDuplicate(job, contentHash)) {
+                    job.releaseSource();
+                    return;
+                }
+            }
+        }
         
-        Thumbnail thumbnailRecord = new Thumbnail(
-            mediaFile.getId(),
-            thumbnailPath.toString(),
-            thumbnail.getWidth(),
-            thumbnail.getHeight(),
-            orientation,
-            config.getThumbnail().getFormat()
-        );
+        Metadata metadata = readMetadata(source);
+        job.setOrientation(getExifOrientation(metadata));
+        job.setPreview(findPreview(job, source, metadata));
+    }
+    
+    /**
+     * Thumbnail files are named by content hash when it is known, so duplicates share one file and
+     * a file whose content changes gets a new one rather than overwriting a shared thumbnail.
+     */
+    private Path getThumbnailPath(MediaFile mediaFile, byte[] contentHash) {
+        String name = contentHash != null ? HashUtil.bytesToHex(contentHash) : String.valueOf(mediaFile.getId());
+        return Paths.get(config.getThumbnailOutputDir(), name + "." + config.getThumbnail().getFormat().toLowerCase());
+    }
+    
+    /**
+     * Copies the results of another file with the same content instead of decoding this one.
+     * Returns false, leaving the job untouched, unless every output the job needs was found.
+     */
+    private boolean linkDuplicate(ThumbnailJob job, byte[] contentHash) {
+        Long mediaFileId = job.getMediaFile().getId();
+        try {
+            Thumbnail thumbnail = null;
+            MiniThumbnail miniThumbnail = null;
+            if (job.isThumbnailNeeded()) {
+                thumbnail = databaseService.findThumbnailByContentHash(contentHash, mediaFileId, thumbnailFingerprint).orElse(null);
+                if (thumbnail == null) {
+                    return false;
+                }
+            }
+            if (job.isMiniThumbnailNeeded()) {
+                miniThumbnail = databaseService.findMiniThumbnailByContentHash(contentHash, mediaFileId,
+                                                                               miniThumbnailFingerprint).orElse(null);
+                if (miniThumbnail == null) {
+                    return false;
+                }
+            }
+            
+            if (thumbnail != null) {
+                Thumbnail linkedThumbnail = new Thumbnail(mediaFileId, thumbnail.getThumbnailPath(), thumbnail.getWidth(),
+                                                          thumbnail.getHeight(), thumbnail.getOrientation(), thumbnail.getFormat());
+                linkedThumbnail.setPackSegment(thumbnail.getPackSegment());
+                linkedThumbnail.setPackOffset(thumbnail.getPackOffset());
+                linkedThumbnail.setPackLength(thumbnail.getPackLength());
+                linkedThumbnail.setParamsFingerprint(thumbnail.getParamsFingerprint());
+                job.setThumbnailRecord(linkedThumbnail);
+                job.setRenditionRecords(databaseService.getThumbnailRenditions(thumbnail.getMediaFileId()));
+            }
+            if (miniThumbnail != null) {
+                MiniThumbnail linkedMini = new MiniThumbnail(mediaFileId, miniThumbnail.getImageData(), miniThumbnail.getWidth(),
+                                                             miniThumbnail.getHeight(), miniThumbnail.getOrientation(),
+                                                             miniThumbnail.getFormat());
+                linkedMini.setPerceptualHash(miniThumbnail.getPerceptualHash());
+                linkedMini.setParamsFingerprint(miniThumbnail.getParamsFingerprint());
+                linkedMini.setThumbHash(miniThumbnail.getThumbHash());
+                job.setMiniThumbnailRecord(linkedMini);
+            }
+            job.setLinked(true);
+            linkedCount.incrementAndGet();
+            logger.debug("Linked thumbnails of duplicate file: {}", job.getMediaFile().getFilePath());
+            return true;
+        } catch (SQLException e) {
+            logger.debug("Could not look up duplicate thumbnails for file: {}", job.getMediaFile().getFilePath(), e);
+            return false;
+        }
+    }
+    
+    /**
+     * Picks an embedded JPEG to decode instead of the file: the largest useful preview of a RAW
+     * file, which ImageIO cannot decode, or the EXIF thumbnail of a JPEG when only the mini
+     * thumbnail has to be made.
+     */
+    private EmbeddedPreviewExtractor.Preview findPreview(ThumbnailJob job, MediaSource source, Metadata metadata) {
+        int miniHeight = config.getMiniThumbnail().getMaxHeight();
         
-        databaseService.saveThumbnail(thumbnailRecord);
+        if (EmbeddedPreviewExtractor.isRawFile(job.getMediaFile().getExtension())) {
+            return previewExtractor.findRawPreview(source, getDecodeLongEdge(job), miniHeight);
+        }
+        if (!job.isThumbnailNeeded()) {
+            return previewExtractor.findExifThumbnail(source, metadata, miniHeight);
+        }
+        return null;
     }
     
-    private void generateMiniThumbnailForFile(MediaFile mediaFile) throws IOException, SQLException {
-        Path inputPath = Paths.get(mediaFile.getFilePath());
+    private byte[] computeContentHash(MediaSource source) {
+        try (InputStream inputStream = source.openStream()) {
+            return hashingService.computeContentHash(inputStream, source.length());
+        } catch (IOException e) {
+            logger.debug("Could not hash buffered file: {}", source.getPath(), e);
+            return null;
+        }
+    }
+    
+    /**
+     * Decodes the original once, scales it to the thumbnail size and derives the
+     * mini thumbnail from that, rather than scaling the full-resolution image a second time.
+     * Configured renditions are made the same way, each from the next larger level.
+     * The thumbnail is scaled even when it is up to date, since it is the mini's source,
+     * unless the decoded image is an embedded preview no larger than the thumbnail. The decode's
+     * estimated memory is reserved with the {@link MemoryGovernor} until the original is dropped.
+     * Files that would need more than {@code maxDecodeMemoryMB}, run out of memory or exceed
+     * {@code decodeTimeoutSeconds} are recorded as failed rather than retried on every run.
+     */
+    private void decodeImages(ThumbnailJob job) throws InterruptedException {
+        if (job.getFailure() != null || job.isLinked()) {
+            return;
+        }
         
-        if (!Files.exists(inputPath)) {
-            logger.warn("File no longer exists: {}", mediaFile.getFilePath());
+        Path path = job.getSource().getPath();
+        long estimatedBytes = imageDecoder.estimateMemory(job.getSource(), job.getPreview(), getDecodeLongEdge(job),
+                                                          config.getMiniThumbnail().getMaxHeight());
+        long maxDecodeBytes = config.getPerformance().getMaxDecodeMemoryMB() * 1024L * 1024L;
+        if (maxDecodeBytes > 0 && estimatedBytes > maxDecodeBytes) {
+            job.releaseSource();
+            String errorMsg = String.format("Image decoding skipped: needs about %d MB, more than maxDecodeMemoryMB - %s",
+                                            estimatedBytes / (1024 * 1024), path);
+            logger.warn("Image too large to decode: {} [Estimated: {} MB]", path, estimatedBytes / (1024 * 1024));
+            
+            job.setFailure(new ThumbnailJob.Failure(ThumbnailErrorType.OUT_OF_MEMORY, errorMsg));
             return;
         }
         
-        BufferedImage originalImage;
+        MemoryGovernor.Reservation reservation = memoryGovernor.reserve(estimatedBytes);
+        try (DecodeWatchdog.Deadline deadline = decodeWatchdog.start()) {
+            BufferedImage originalImage = decodeOriginal(job, deadline);
+            if (originalImage != null) {
+                scaleImages(job, originalImage);
+                // Every output is a new image, so nothing refers to the original any more
+                rasterPool.release(originalImage);
+            }
+        } catch (OutOfMemoryError e) {
+            job.releaseSource();
+            job.releaseImages();
+            String errorMsg = String.format("Image decoding failed: out of memory - %s", path);
+            logger.warn("Out of memory decoding image file: {}", path);
+            
+            job.setFailure(new ThumbnailJob.Failure(ThumbnailErrorType.OUT_OF_MEMORY, errorMsg));
+        } finally {
+            reservation.close();
+        }
+    }
+    
+    private BufferedImage decodeOriginal(ThumbnailJob job, DecodeWatchdog.Deadline deadline) {
+        MediaSource source = job.getSource();
         try {
-            originalImage = ImageIO.read(inputPath.toFile());
+            BufferedImage originalImage;
+            if (job.getPreview() != null) {
+                originalImage = imageDecoder.decodePreview(source, job.getPreview(), getDecodeLongEdge(job),
+                                                           config.getMiniThumbnail().getMaxHeight(), deadline);
+            } else {
+                originalImage = imageDecoder.decode(source, getDecodeLongEdge(job), config.getMiniThumbnail().getMaxHeight(), deadline);
+            }
+            if (deadline.isExpired()) {
+                recordTimeout(job, source);
+                return null;
+            }
             if (originalImage == null) {
-                String errorMsg = String.format("Image decoding failed: unsupported format or corrupted file - %s", inputPath);
+                String errorMsg = String.format("Image decoding failed: unsupported format or corrupted file - %s", source.getPath());
                 logger.warn("Could not decode image file (unsupported format or corrupted): {} [Format: {}]", 
-                    inputPath, mediaFile.getExtension());
+                    source.getPath(), job.getMediaFile().getExtension());
                 
-                if (config.getMiniThumbnail().isGeneratePlaceholders()) {
-                    generatePlaceholderMiniThumbnail(mediaFile, ThumbnailErrorType.DECODING_ERROR);
-                } else {
-                    saveMiniThumbnailFailure(mediaFile.getId(), errorMsg, ThumbnailErrorType.DECODING_ERROR);
-                }
-                return;
+                job.setFailure(new ThumbnailJob.Failure(ThumbnailErrorType.DECODING_ERROR, errorMsg));
+            }
+            return originalImage;
+        } catch (IIOException e) {
+            if (deadline.isExpired()) {
+                recordTimeout(job, source);
+                return null;
             }
+            // ImageIO reports malformed data as IIOException; decoding it again would fail the same way
+            String errorMsg = String.format("Image decoding failed: %s - %s", source.getPath(), e.getMessage());
+            logger.warn("Could not decode image file (corrupted): {} - {} [Format: {}]",
+                source.getPath(), e.getMessage(), job.getMediaFile().getExtension());
+            
+            job.setFailure(new ThumbnailJob.Failure(ThumbnailErrorType.DECODING_ERROR, errorMsg));
+            return null;
         } catch (IOException e) {
-            String errorMsg = String.format("Image reading failed (I/O error): %s - %s", inputPath, e.getMessage());
+            if (deadline.isExpired()) {
+                recordTimeout(job, source);
+                return null;
+            }
+            String errorMsg = String.format("Image reading failed (I/O error): %s - %s", source.getPath(), e.getMessage());
             logger.warn("Could not read image file (I/O error): {} - {} [Cause: {}]", 
-                inputPath, e.getMessage(), e.getClass().getSimpleName());
+                source.getPath(), e.getMessage(), e.getClass().getSimpleName());
             
-            if (config.getMiniThumbnail().isGeneratePlaceholders()) {
-                generatePlaceholderMiniThumbnail(mediaFile, ThumbnailErrorType.IO_ERROR);
-            } else {
-                saveMiniThumbnailFailure(mediaFile.getId(), errorMsg, ThumbnailErrorType.IO_ERROR);
-            }
-            return;
+            job.setFailure(new ThumbnailJob.Failure(ThumbnailErrorType.IO_ERROR, errorMsg));
+            return null;
+        } finally {
+            job.releaseSource();
         }
-        
-        int orientation = getExifOrientation(inputPath.toFile());
-        BufferedImage rotatedImage = applyExifOrientation(originalImage, orientation);
-        
-        BufferedImage miniThumbnail = createMiniThumbnail(rotatedImage, config.getMiniThumbnail().getMaxHeight());
-        
-        String base64Data = encodeImageToBase64(miniThumbnail, config.getMiniThumbnail().getFormat(), config.getMiniThumbnail().getQuality());
-        
-        MiniThumbnail miniThumbnailRecord = new MiniThumbnail(
-            mediaFile.getId(),
-            base64Data,
-            miniThumbnail.getWidth(),
-            miniThumbnail.getHeight(),
-            orientation,
-            config.getMiniThumbnail().getFormat()
-        );
-        
-        databaseService.saveMiniThumbnail(miniThumbnailRecord);
     }
     
-    private BufferedImage createThumbnail(BufferedImage original, int maxDimension) {
-        int originalWidth = original.getWidth();
-        int originalHeight = original.getHeight();
+    private void recordTimeout(ThumbnailJob job, MediaSource source) {
+        int timeoutSeconds = config.getPerformance().getDecodeTimeoutSeconds();
+        String errorMsg = String.format("Image decoding timed out after %d seconds - %s", timeoutSeconds, source.getPath());
+        logger.warn("Decoding timed out after {} seconds: {}", timeoutSeconds, source.getPath());
         
-        double scale = Math.min((double) maxDimension / originalWidth, (double) maxDimension / originalHeight);
+        job.setFailure(new ThumbnailJob.Failure(ThumbnailErrorType.TIMEOUT, errorMsg));
+    }
+    
+    /** The renditions larger than the thumbnail are only made along with it; a mini alone needs no more than the thumbnail size. */
+    private int getDecodeLongEdge(ThumbnailJob job) {
+        return job.isThumbnailNeeded() ? decodeLongEdge : config.getThumbnail().getMaxDimension();
+    }
+    
+    private void scaleImages(ThumbnailJob job, BufferedImage originalImage) {
+        // Orientation is applied to the scaled outputs, never to the decoded original
+        int orientation = config.getThumbnail().isRespectExifOrientation() ? job.getOrientation() : 1;
+        int maxDimension = config.getThumbnail().getMaxDimension();
+        int miniHeight = config.getMiniThumbnail().getMaxHeight();
+        BufferedImage miniSource = originalImage;
+        int miniOrientation = orientation;
         
-        int newWidth = (int) (originalWidth * scale);
-        int newHeight = (int) (originalHeight * scale);
+        // An image already within the thumbnail size, such as an EXIF thumbnail, goes straight to the mini
+        if (job.isThumbnailNeeded() || Math.max(originalImage.getWidth(), originalImage.getHeight()) > maxDimension) {
+            // Each level is scaled from the one above it, so only the largest reads the full decode
+            BufferedImage source = originalImage;
+            int sourceOrientation = orientation;
+            if (job.isThumbnailNeeded()) {
+                for (int size : renditionSizes) {
+                    if (size > maxDimension && Math.max(source.getWidth(), source.getHeight()) > size) {
+                        source = createThumbnail(source, size, sourceOrientation);
+                        sourceOrientation = 1;
+                        job.getRenditionImages().put(size, source);
+                    }
+                }
+            }
+            
+            BufferedImage thumbnail = createThumbnail(source, maxDimension, sourceOrientation);
+            if (thumbnail.getHeight() >= miniHeight) {
+                miniSource = thumbnail;
+                miniOrientation = 1;
+            }
+            job.setThumbnailImage(thumbnail);
+            
+            if (job.isThumbnailNeeded()) {
+                BufferedImage level = thumbnail;
+                for (int size : renditionSizes) {
+                    if (size < maxDimension && Math.max(level.getWidth(), level.getHeight()) > size) {
+                        level = createThumbnail(level, size, 1);
+                        job.getRenditionImages().put(size, level);
+                        if (level.getHeight() >= miniHeight) {
+                            miniSource = level;
+                        }
+                    }
+                }
+            }
+        }
+        if (job.isMiniThumbnailNeeded()) {
+            job.setMiniThumbnailImage(createMiniThumbnail(miniSource, miniHeight, miniOrientation));
+        }
+    }
+    
+    private void encodeImages(ThumbnailJob job, ImageEncoder encoder) throws IOException {
+        if (job.isLinked()) {
+            return;
+        }
         
-        BufferedImage thumbnail = new BufferedImage(newWidth, newHeight, BufferedImage.TYPE_INT_RGB);
-        Graphics2D g2d = thumbnail.createGraphics();
+        MediaFile mediaFile = job.getMediaFile();
+        ThumbnailJob.Failure failure = job.getFailure();
         
-        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-        g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        if (job.isThumbnailNeeded()) {
+            if (failure == null) {
+                BufferedImage thumbnail = job.getThumbnailImage();
+                Thumbnail thumbnailRecord = new Thumbnail(
+                    mediaFile.getId(),
+                    job.getThumbnailPath().toString(),
+                    thumbnail.getWidth(),
+                    thumbnail.getHeight(),
+                    job.getOrientation(),
+                    config.getThumbnail().getFormat()
+                );
+                thumbnailRecord.setParamsFingerprint(thumbnailFingerprint);
+                storeThumbnail(thumbnail, thumbnailRecord, encoder);
+                job.setThumbnailRecord(thumbnailRecord);
+                
+                for (Map.Entry<Integer, BufferedImage> entry : job.getRenditionImages().entrySet()) {
+                    BufferedImage image = entry.getValue();
+                    ThumbnailRendition rendition = new ThumbnailRendition(
+                        mediaFile.getId(),
+                        entry.getKey(),
+                        getRenditionPath(job.getThumbnailPath(), entry.getKey()).toString(),
+                        image.getWidth(),
+                        image.getHeight(),
+                        config.getThumbnail().getFormat()
+                    );
+                    ThumbnailPackStore.Entry packEntry = storeImage(image, rendition.getThumbnailPath(), encoder);
+                    if (packEntry != null) {
+                        rendition.setThumbnailPath(null);
+                        rendition.setPackSegment(packEntry.segment());
+                        rendition.setPackOffset(packEntry.offset());
+                        rendition.setPackLength(packEntry.length());
+                    }
+                    job.getRenditionRecords().add(rendition);
+                }
+            } else if (config.getThumbnail().isGeneratePlaceholders()) {
+                job.setThumbnailRecord(generatePlaceholderThumbnail(mediaFile, failure.errorType(), encoder));
+            } else {
+                job.setThumbnailRecord(createThumbnailFailure(mediaFile.getId(), failure.message(), failure.errorType()));
+            }
+        }
         
-        g2d.drawImage(original, 0, 0, newWidth, newHeight, null);
-        g2d.dispose();
+        if (job.isMiniThumbnailNeeded()) {
+            if (failure == null) {
+                BufferedImage miniThumbnail = job.getMiniThumbnailImage();
+                byte[] imageData = encodeMiniThumbnail(miniThumbnail, encoder);
+                
+                MiniThumbnail miniThumbnailRecord = new MiniThumbnail(
+                    mediaFile.getId(),
+                    imageData,
+                    miniThumbnail.getWidth(),
+                    miniThumbnail.getHeight(),
+                    job.getOrientation(),
+                    config.getMiniThumbnail().getFormat()
+                );
+                miniThumbnailRecord.setPerceptualHash(PerceptualHash.computeDifferenceHash(miniThumbnail));
+                miniThumbnailRecord.setParamsFingerprint(miniThumbnailFingerprint);
+                miniThumbnailRecord.setThumbHash(computeThumbHash(miniThumbnail));
+                job.setMiniThumbnailRecord(miniThumbnailRecord);
+            } else if (config.getMiniThumbnail().isGeneratePlaceholders()) {
+                job.setMiniThumbnailRecord(generatePlaceholderMiniThumbnail(mediaFile, failure.errorType(), encoder));
+            } else {
+                job.setMiniThumbnailRecord(createMiniThumbnailFailure(mediaFile.getId(), failure.message(), failure.errorType()));
+            }
+        }
         
-        return thumbnail;
+        // Every output is encoded; their pixels can serve the next decode
+        rasterPool.release(job.getThumbnailImage());
+        rasterPool.release(job.getMiniThumbnailImage());
+        job.getRenditionImages().values().forEach(rasterPool::release);
+        job.releaseImages();
     }
     
-    private BufferedImage createMiniThumbnail(BufferedImage original, int maxHeight) {
-        int originalWidth = original.getWidth();
-        int originalHeight = original.getHeight();
-        
-        double scale = (double) maxHeight / originalHeight;
-        int newWidth = (int) (originalWidth * scale);
-
-        BufferedImage miniThumbnail = new BufferedImage(newWidth, maxHeight, BufferedImage.TYPE_INT_RGB);
-        Graphics2D g2d = miniThumbnail.createGraphics();
-        
-        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-        g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+    private void saveResults(List<ThumbnailJob> batch) throws SQLException {
+        if (packStore != null) {
+            // The rows must never point at pack entries that a crash could lose
+            try {
+                packStore.force();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
         
-        g2d.drawImage(original, 0, 0, newWidth, maxHeight, null);
-        g2d.dispose();
+        Set<String> replacedPaths = new HashSet<>();
+        databaseService.runInTransaction(() -> {
+            for (ThumbnailJob job : batch) {
+                if (job.getContentHash() != null) {
+                    databaseService.updateContentHash(job.getMediaFile().getId(), job.getContentHash());
+                }
+                addMissingFailureRecords(job);
+                if (job.getThumbnailRecord() != null) {
+                    if (packStore == null) {
+                        replacedPaths.addAll(databaseService.getThumbnailPaths(job.getMediaFile().getId()));
+                    }
+                    databaseService.saveThumbnail(job.getThumbnailRecord());
+                    databaseService.saveThumbnailRenditions(job.getMediaFile().getId(), job.getRenditionRecords());
+                }
+                if (job.getMiniThumbnailRecord() != null) {
+                    databaseService.saveMiniThumbnail(job.getMiniThumbnailRecord());
+                }
+                if (job.getFailure() != null) {
+                    recordFailedAttempt(job.getMediaFile(), job.getFailure().errorType());
+                } else {
+                    databaseService.deleteThumbnailRetry(job.getMediaFile().getId());
+                }
+            }
+        });
+        deleteUnreferencedThumbnails(replacedPaths);
         
-        return miniThumbnail;
+        long before = processedCount.getAndAdd(batch.size());
+        if (before / 100 != (before + batch.size()) / 100) {
+            logger.info("Generated thumbnails for {} files...", before + batch.size());
+        }
     }
     
-    private int getExifOrientation(File file) {
-        try {
-            Metadata metadata = ImageMetadataReader.readMetadata(file);
-            ExifIFD0Directory exifDirectory = metadata.getFirstDirectoryOfType(ExifIFD0Directory.class);
-            
-            if (exifDirectory != null && exifDirectory.hasTagName(ExifIFD0Directory.TAG_ORIENTATION)) {
-                return exifDirectory.getInt(ExifIFD0Directory.TAG_ORIENTATION);
+    /** A job that failed while encoding has no records; failure records keep it from being selected again right away. */
+    private void addMissingFailureRecords(ThumbnailJob job) {
+        ThumbnailJob.Failure failure = job.getFailure();
+        if (failure == null || job.isLinked()) {
+            return;
+        }
+        Long mediaFileId = job.getMediaFile().getId();
+        if (job.isThumbnailNeeded() && job.getThumbnailRecord() == null) {
+            job.setThumbnailRecord(createThumbnailFailure(mediaFileId, failure.message(), failure.errorType()));
+        }
+        if (job.isMiniThumbnailNeeded() && job.getMiniThumbnailRecord() == null) {
+            job.setMiniThumbnailRecord(createMiniThumbnailFailure(mediaFileId, failure.message(), failure.errorType()));
+        }
+    }
+    
+    /**
+     * Deletes the files of replaced thumbnails and renditions once no row points at them. A file
+     * whose thumbnail moves to a new path, say from its id to its content hash, would otherwise
+     * leave the old file behind; duplicates may still share it, so it is only deleted when unused.
+     */
+    private void deleteUnreferencedThumbnails(Set<String> paths) throws SQLException {
+        for (String path : paths) {
+            if (databaseService.isThumbnailPathReferenced(path)) {
+                continue;
+            }
+            try {
+                Files.deleteIfExists(Paths.get(path));
+            } catch (IOException e) {
+                logger.warn("Could not delete replaced thumbnail: {} - {}", path, e.getMessage());
             }
-        } catch (Exception e) {
-            logger.debug("Could not read EXIF orientation for file: {}", file.getPath());
         }
-        
-        return 1; // Default orientation
     }
     
-    private BufferedImage applyExifOrientation(BufferedImage image, int orientation) {
-        if (!config.getThumbnail().isRespectExifOrientation() || orientation == 1) {
-            return image;
+    /**
+     * Schedules the next attempt for a failed file. I/O errors may be transient and are retried
+     * with exponential backoff, up to {@code maxRetries} attempts; anything else, or a file out
+     * of attempts, is not retried until its size or modification time changes.
+     */
+    private void recordFailedAttempt(MediaFile mediaFile, ThumbnailErrorType errorType) throws SQLException {
+        int attempts = databaseService.getThumbnailAttempts(mediaFile) + 1;
+        LocalDateTime nextAttemptAt = null;
+        if (errorType == ThumbnailErrorType.IO_ERROR && attempts < config.getThumbnail().getMaxRetries()) {
+            long backoffMinutes = (long) config.getThumbnail().getRetryBackoffMinutes() << Math.min(attempts - 1, 20);
+            nextAttemptAt = LocalDateTime.now().plusMinutes(backoffMinutes);
         }
-        
-        int width = image.getWidth();
-        int height = image.getHeight();
-        BufferedImage rotatedImage;
-        AffineTransform transform = new AffineTransform();
-        
-        switch (orientation) {
-            case 2: // Flip horizontally
-                rotatedImage = new BufferedImage(width, height, image.getType());
-                transform.scale(-1.0, 1.0);
-                transform.translate(-width, 0);
-                break;
-                
-            case 3: // Rotate 180 degrees
-                rotatedImage = new BufferedImage(width, height, image.getType());
-                transform.rotate(Math.PI, width / 2.0, height / 2.0);
-                break;
-                
-            case 4: // Flip vertically
-                rotatedImage = new BufferedImage(width, height, image.getType());
-                transform.scale(1.0, -1.0);
-                transform.translate(0, -height);
-                break;
-                
-            case 5: // Rotate 90 degrees CW and flip horizontally
-                rotatedImage = new BufferedImage(height, width, image.getType());
-                transform.rotate(Math.PI / 2);
-                transform.scale(-1.0, 1.0);
-                break;
-                
-            case 6: // Rotate 90 degrees CW
-                rotatedImage = new BufferedImage(height, width, image.getType());
-                transform.translate(height, 0);
-                transform.rotate(Math.PI / 2);
-                break;
-                
-            case 7: // Rotate 90 degrees CCW and flip horizontally
-                rotatedImage = new BufferedImage(height, width, image.getType());
-                transform.scale(-1.0, 1.0);
-                transform.translate(-height, 0);
-                transform.translate(0, width);
-                transform.rotate(3 * Math.PI / 2);
-                break;
-                
-            case 8: // Rotate 90 degrees CCW
-                rotatedImage = new BufferedImage(height, width, image.getType());
-                transform.translate(0, width);
-                transform.rotate(3 * Math.PI / 2);
-                break;
-                
-            default:
-                return image;
+        databaseService.saveThumbnailRetry(mediaFile, attempts, nextAttemptAt, errorType.getCode());
+    }
+    
+    /** Encodes at the configured quality, or at the highest quality that fits the target size when one is set. */
+    private byte[] encodeMiniThumbnail(BufferedImage miniThumbnail, ImageEncoder encoder) throws IOException {
+        MediaIndexerConfig.MiniThumbnailConfig settings = config.getMiniThumbnail();
+        if (settings.getTargetSizeBytes() <= 0) {
+            return encoder.encode(miniThumbnail, settings.getFormat(), settings.getQuality());
         }
+        return encoder.encodeWithinSize(miniThumbnail, settings.getFormat(), settings.getMinQuality(), settings.getQuality(),
+                                        settings.getTargetSizeBytes());
+    }
+    
+    /** The hash only keeps the lowest frequencies, which a 32 pixel image already has; more pixels just cost time. */
+    private byte[] computeThumbHash(BufferedImage miniThumbnail) {
+        int width = miniThumbnail.getWidth();
+        int height = miniThumbnail.getHeight();
+        double scale = (double) THUMB_HASH_INPUT_SIZE / Math.max(width, height);
+        if (scale >= 1) {
+            return ThumbHash.encode(miniThumbnail);
+        }
+        // A wide panorama would round to zero rows
+        return ThumbHash.encode(Resampler.resize(miniThumbnail, Math.max(1, (int) Math.round(width * scale)),
+                                                 Math.max(1, (int) Math.round(height * scale))));
+    }
+    
+    private BufferedImage createThumbnail(BufferedImage original, int maxDimension, int orientation) {
+        int originalWidth = original.getWidth();
+        int originalHeight = original.getHeight();
         
-        Graphics2D g2d = rotatedImage.createGraphics();
-        g2d.setTransform(transform);
-        g2d.drawImage(image, 0, 0, null);
-        g2d.dispose();
+        double scale = Math.min((double) maxDimension / originalWidth, (double) maxDimension / originalHeight);
+        
+        // A long panorama would round its short side to zero
+        int newWidth = Math.max(1, (int) (originalWidth * scale));
+        int newHeight = Math.max(1, (int) (originalHeight * scale));
         
-        return rotatedImage;
+        return resizeAndOrient(original, newWidth, newHeight, orientation);
     }
     
-    private void writeImageToFile(BufferedImage image, File file, String format, float quality) throws IOException {
-        javax.imageio.ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
-        javax.imageio.ImageWriteParam param = writer.getDefaultWriteParam();
+    private BufferedImage createMiniThumbnail(BufferedImage original, int maxHeight, int orientation) {
+        // The mini's height is measured after orientation, which may be the original's width
+        boolean swapped = ImageOrientation.swapsAxes(orientation);
+        int originalWidth = swapped ? original.getHeight() : original.getWidth();
+        int originalHeight = swapped ? original.getWidth() : original.getHeight();
         
-        if (param.canWriteCompressed()) {
-            param.setCompressionMode(javax.imageio.ImageWriteParam.MODE_EXPLICIT);
-            param.setCompressionQuality(quality);
-        }
+        double scale = (double) maxHeight / originalHeight;
+        int newWidth = Math.max(1, (int) (originalWidth * scale));
         
-        try (var output = ImageIO.createImageOutputStream(file)) {
-            writer.setOutput(output);
-            writer.write(null, new javax.imageio.IIOImage(image, null, null), param);
-        } finally {
-            writer.dispose();
+        return swapped
+            ? resizeAndOrient(original, maxHeight, newWidth, orientation)
+            : resizeAndOrient(original, newWidth, maxHeight, orientation);
+    }
+    
+    /** Scales into a pooled image, which goes back to the pool once it is encoded or, if orienting copies it, right away. */
+    private BufferedImage resizeAndOrient(BufferedImage source, int width, int height, int orientation) {
+        BufferedImage resized = Resampler.resize(source, width, height, rasterPool);
+        BufferedImage oriented = ImageOrientation.apply(resized, orientation);
+        if (oriented != resized) {
+            rasterPool.release(resized);
         }
+        return oriented;
     }
     
-    private String encodeImageToBase64(BufferedImage image, String format, float quality) throws IOException {
-        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-            javax.imageio.ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
-            javax.imageio.ImageWriteParam param = writer.getDefaultWriteParam();
-            
-            if (param.canWriteCompressed()) {
-                param.setCompressionMode(javax.imageio.ImageWriteParam.MODE_EXPLICIT);
-                param.setCompressionQuality(quality);
-            }
-            
-            try (var output = ImageIO.createImageOutputStream(baos)) {
-                writer.setOutput(output);
-                writer.write(null, new javax.imageio.IIOImage(image, null, null), param);
-            } finally {
-                writer.dispose();
+    private Metadata readMetadata(MediaSource source) {
+        try (InputStream inputStream = source.openStream()) {
+            return ImageMetadataReader.readMetadata(inputStream, source.length());
+        } catch (Exception e) {
+            logger.debug("Could not read metadata for file: {}", source.getPath());
+            return null;
+        }
+    }
+    
+    private int getExifOrientation(Metadata metadata) {
+        ExifIFD0Directory exifDirectory = metadata != null ? metadata.getFirstDirectoryOfType(ExifIFD0Directory.class) : null;
+        
+        try {
+            if (exifDirectory != null && exifDirectory.hasTagName(ExifIFD0Directory.TAG_ORIENTATION)) {
+                return exifDirectory.getInt(ExifIFD0Directory.TAG_ORIENTATION);
             }
-            
-            return Base64.getEncoder().encodeToString(baos.toByteArray());
+        } catch (Exception e) {
+            logger.debug("Could not read EXIF orientation: {}", e.getMessage());
         }
+        
+        return 1; // Default orientation
     }
     
     public long getProcessedCount() {
         return processedCount.get();
     }
     
-    private void saveThumbnailFailure(Long mediaFileId, String errorMessage, ThumbnailErrorType errorType) throws SQLException {
-        Thumbnail thumbnailRecord = new Thumbnail(
+    private Thumbnail createThumbnailFailure(Long mediaFileId, String errorMessage, ThumbnailErrorType errorType) {
+        return new Thumbnail(
             mediaFileId,
             null,
             0,
@@ -385,12 +915,10 @@ public class ThumbnailService {
             errorMessage,
             errorType.getCode()
         );
-        
-        databaseService.saveThumbnail(thumbnailRecord);
     }
     
-    private void saveMiniThumbnailFailure(Long mediaFileId, String errorMessage, ThumbnailErrorType errorType) throws SQLException {
-        MiniThumbnail miniThumbnailRecord = new MiniThumbnail(
+    private MiniThumbnail createMiniThumbnailFailure(Long mediaFileId, String errorMessage, ThumbnailErrorType errorType) {
+        return new MiniThumbnail(
             mediaFileId,
             null,
             0,
@@ -401,11 +929,14 @@ public class ThumbnailService {
             errorMessage,
             errorType.getCode()
         );
-        
-        databaseService.saveMiniThumbnail(miniThumbnailRecord);
     }
     
-    private void generatePlaceholderThumbnail(MediaFile mediaFile, Path thumbnailPath, ThumbnailErrorType errorType) throws SQLException, IOException {
+    /**
+     * A placeholder does not depend on the content, so it is stored under the file's own id and
+     * never under the content hash, whose file duplicates may still list as a good thumbnail.
+     */
+    private Thumbnail generatePlaceholderThumbnail(MediaFile mediaFile, ThumbnailErrorType errorType,
+                                                   ImageEncoder encoder) throws IOException {
         BufferedImage placeholder = createPlaceholderImage(
             config.getThumbnail().getMaxDimension(), 
             config.getThumbnail().getMaxDimension(),
@@ -413,11 +944,9 @@ public class ThumbnailService {
             errorType
         );
         
-        writeImageToFile(placeholder, thumbnailPath.toFile(), config.getThumbnail().getFormat(), config.getThumbnail().getQuality());
-        
-        Thumbnail thumbnailRecord = new Thumbnail(
+        Thumbnail thumbnail = new Thumbnail(
             mediaFile.getId(),
-            thumbnailPath.toString(),
+            getThumbnailPath(mediaFile, null).toString(),
             placeholder.getWidth(),
             placeholder.getHeight(),
             1,
@@ -426,12 +955,42 @@ public class ThumbnailService {
             "Placeholder generated for " + errorType.getDescription(),
             errorType.getCode()
         );
-        
-        databaseService.saveThumbnail(thumbnailRecord);
+        storeThumbnail(placeholder, thumbnail, encoder);
         logger.debug("Generated placeholder thumbnail for file: {}", mediaFile.getFilePath());
+        return thumbnail;
+    }
+    
+    /** Writes the image to the record's path, or in pack storage appends it and points the record at the entry. */
+    private void storeThumbnail(BufferedImage image, Thumbnail record, ImageEncoder encoder) throws IOException {
+        ThumbnailPackStore.Entry entry = storeImage(image, record.getThumbnailPath(), encoder);
+        if (entry != null) {
+            record.setThumbnailPath(null);
+            record.setPackSegment(entry.segment());
+            record.setPackOffset(entry.offset());
+            record.setPackLength(entry.length());
+        }
+    }
+    
+    /** Writes the image to the path and returns null, or in pack storage appends it and returns its entry. */
+    private ThumbnailPackStore.Entry storeImage(BufferedImage image, String path, ImageEncoder encoder) throws IOException {
+        String format = config.getThumbnail().getFormat();
+        float quality = config.getThumbnail().getQuality();
+        if (packStore == null) {
+            encoder.writeToFile(image, Paths.get(path), format, quality);
+            return null;
+        }
+        return packStore.append(ByteBuffer.wrap(encoder.encode(image, format, quality)));
+    }
+    
+    /** A rendition is stored next to the thumbnail, with its size appended to the name. */
+    private Path getRenditionPath(Path thumbnailPath, int size) {
+        String name = thumbnailPath.getFileName().toString();
+        int extension = name.lastIndexOf('.');
+        return thumbnailPath.resolveSibling(name.substring(0, extension) + "-" + size + name.substring(extension));
     }
     
-    private void generatePlaceholderMiniThumbnail(MediaFile mediaFile, ThumbnailErrorType errorType) throws SQLException, IOException {
+    private MiniThumbnail generatePlaceholderMiniThumbnail(MediaFile mediaFile, ThumbnailErrorType errorType,
+                                                           ImageEncoder encoder) throws IOException {
         int width = (int) (config.getMiniThumbnail().getMaxHeight() * 1.5); // 3:2 aspect ratio
         BufferedImage placeholder = createPlaceholderImage(
             width,
@@ -440,11 +999,12 @@ public class ThumbnailService {
             errorType
         );
         
-        String base64Data = encodeImageToBase64(placeholder, config.getMiniThumbnail().getFormat(), config.getMiniThumbnail().getQuality());
+        byte[] imageData = encoder.encode(placeholder, config.getMiniThumbnail().getFormat(), config.getMiniThumbnail().getQuality());
+        logger.debug("Generated placeholder mini thumbnail for file: {}", mediaFile.getFilePath());
         
-        MiniThumbnail miniThumbnailRecord = new MiniThumbnail(
+        return new MiniThumbnail(
             mediaFile.getId(),
-            base64Data,
+            imageData,
             placeholder.getWidth(),
             placeholder.getHeight(),
             1,
@@ -453,12 +1013,16 @@ public class ThumbnailService {
             "Placeholder generated for " + errorType.getDescription(),
             errorType.getCode()
         );
-        
-        databaseService.saveMiniThumbnail(miniThumbnailRecord);
-        logger.debug("Generated placeholder mini thumbnail for file: {}", mediaFile.getFilePath());
     }
     
+    /** Returns the shared placeholder image; it is only read after it is drawn, so encoders can use it concurrently. */
     private BufferedImage createPlaceholderImage(int width, int height, String fileExtension, ThumbnailErrorType errorType) {
+        String extension = fileExtension != null ? fileExtension.toUpperCase() : "";
+        return placeholderImages.computeIfAbsent(new PlaceholderKey(width, height, extension, errorType),
+                                                 key -> drawPlaceholderImage(width, height, extension, errorType));
+    }
+    
+    private BufferedImage drawPlaceholderImage(int width, int height, String fileExtension, ThumbnailErrorType errorType) {
         BufferedImage placeholder = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
         Graphics2D g2d = placeholder.createGraphics();
         
@@ -490,7 +1054,7 @@ public class ThumbnailService {
         
         // Draw border
         g2d.setColor(textColor);
-        g2d.setStroke(new BasicStroke(2));
+        g2d.setStroke(BORDER_STROKE);
         g2d.drawRect(1, 1, width - 2, height - 2);
         
         // Calculate font size based on image size
@@ -506,12 +1070,12 @@ public class ThumbnailService {
         
         if (errorType == ThumbnailErrorType.IO_ERROR) {
             // Draw X
-            g2d.setStroke(new BasicStroke(4));
+            g2d.setStroke(CROSS_STROKE);
             g2d.drawLine(iconX, iconY, iconX + iconSize, iconY + iconSize);
             g2d.drawLine(iconX + iconSize, iconY, iconX, iconY + iconSize);
         } else {
             // Draw !
-            g2d.setStroke(new BasicStroke(6));
+            g2d.setStroke(EXCLAMATION_STROKE);
             g2d.drawLine(iconX + iconSize / 2, iconY, iconX + iconSize / 2, iconY + iconSize * 2 / 3);
             g2d.fillOval(iconX + iconSize / 2 - 3, iconY + iconSize * 3 / 4, 6, 6);
         }
@@ -0,0 +1,80 @@
+package com.mediaindexer.thumbnail;
+
+import javax.imageio.ImageReader;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds how long a single decode may run. Each decode takes a {@link Deadline}; when it
+ * expires, the ImageIO reader working on it is asked to abort and the scaled JPEG decoder stops
+ * at its next row of blocks. The decode then returns early and the caller records a timeout,
+ * so one pathological file cannot hold a decode worker for the rest of the run.
+ */
+public class DecodeWatchdog implements AutoCloseable {
+    private final ScheduledThreadPoolExecutor timer;
+    private final long timeoutMillis;
+    
+    /** A running decode's time limit; close it when the decode returns. */
+    public static final class Deadline implements AutoCloseable {
+        private volatile boolean expired;
+        private volatile ImageReader reader;
+        private ScheduledFuture<?> expiry;
+        
+        private Deadline() {
+        }
+        
+        public boolean isExpired() {
+            return expired;
+        }
+        
+        /** Sets the reader to abort on expiry, or null once it is done. */
+        void watch(ImageReader reader) {
+            this.reader = reader;
+            if (reader != null && expired) {
+                reader.abort();
+            }
+        }
+        
+        private void expire() {
+            expired = true;
+            ImageReader current = reader;
+            if (current != null) {
+                current.abort();
+            }
+        }
+        
+        @Override
+        public void close() {
+            if (expiry != null) {
+                expiry.cancel(false);
+            }
+            reader = null;
+        }
+    }
+    
+    /** A timeout of zero or less disables the limit. */
+    public DecodeWatchdog(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        this.timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "decode-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Nearly every deadline is cancelled; drop those right away instead of at their expiry
+        timer.setRemoveOnCancelPolicy(true);
+    }
+    
+    public Deadline start() {
+        Deadline deadline = new Deadline();
+        if (timeoutMillis > 0) {
+            deadline.expiry = timer.schedule(deadline::expire, timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        return deadline;
+    }
+    
+    @Override
+    public void close() {
+        timer.shutdownNow();
+    }
+}
@@ -0,0 +1,329 @@
+package com.mediaindexer.thumbnail;
+
+import com.drew.metadata.Metadata;
+import com.drew.metadata.MetadataException;
+import com.drew.metadata.exif.ExifThumbnailDirectory;
+import com.drew.metadata.jpeg.JpegDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds the JPEG previews that cameras embed in their files, so a thumbnail can be made without
+ * decoding the full image. TIFF-based RAW files keep one or more previews in their IFDs next to
+ * the sensor data, which ImageIO cannot read at all; camera JPEGs carry a small EXIF thumbnail
+ * that is often enough for the mini thumbnail.
+ */
+public class EmbeddedPreviewExtractor {
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddedPreviewExtractor.class);
+    
+    private static final Set<String> RAW_EXTENSIONS = Set.of(".cr2", ".nef", ".arw", ".dng");
+    
+    private static final int TAG_COMPRESSION = 0x0103;
+    private static final int TAG_STRIP_OFFSETS = 0x0111;
+    private static final int TAG_STRIP_BYTE_COUNTS = 0x0117;
+    private static final int TAG_SUB_IFDS = 0x014A;
+    private static final int TAG_JPEG_OFFSET = 0x0201;
+    private static final int TAG_JPEG_LENGTH = 0x0202;
+    
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+    private static final int TYPE_IFD = 13;
+    
+    // Old-style and new-style JPEG compression
+    private static final int COMPRESSION_OJPEG = 6;
+    private static final int COMPRESSION_JPEG = 7;
+    
+    // Guards against IFD loops and corrupted files
+    private static final int MAX_IFDS = 32;
+    
+    // An EXIF thumbnail is only used when its aspect ratio is this close to the main image's
+    private static final double ASPECT_TOLERANCE = 0.02;
+    
+    /** A JPEG stream at {@code offset} in the file, with the dimensions from its frame header. */
+    public record Preview(int offset, int length, int width, int height) {}
+    
+    public static boolean isRawFile(String extension) {
+        return extension != null && RAW_EXTENSIONS.contains(extension.toLowerCase());
+    }
+    
+    /**
+     * Returns the smallest preview of a RAW file whose long and short edges cover the targets,
+     * or the largest one if none does. Returns null if the file is not buffered or has no
+     * decodable JPEG preview.
+     */
+    public Preview findRawPreview(MediaSource source, int targetLongEdge, int targetShortEdge) {
+        if (!source.isBuffered()) {
+            return null;
+        }
+        
+        List<Preview> previews = findTiffPreviews(source.getBuffer(), (int) source.length());
+        logger.debug("Found {} embedded previews in {}", previews.size(), source.getPath());
+        
+        Preview best = null;
+        boolean bestCovers = false;
+        for (Preview preview : previews) {
+            boolean covers = Math.max(preview.width(), preview.height()) >= targetLongEdge
+                && Math.min(preview.width(), preview.height()) >= targetShortEdge;
+            long area = (long) preview.width() * preview.height();
+            
+            if (best == null
+                || (covers && !bestCovers)
+                || (covers && area < (long) best.width() * best.height())
+                || (!covers && !bestCovers && area > (long) best.width() * best.height())) {
+                best = preview;
+                bestCovers = covers;
+            }
+        }
+        return best;
+    }
+    
+    /**
+     * Returns the EXIF thumbnail of a JPEG if its short edge covers {@code targetShortEdge} and
+     * its aspect ratio matches the main image. Many cameras pad the thumbnail to 4:3, which
+     * would show as black bars, so a mismatched one is not used.
+     */
+    public Preview findExifThumbnail(MediaSource source, Metadata metadata, int targetShortEdge) {
+        if (!source.isBuffered() || metadata == null) {
+            return null;
+        }
+        
+        ExifThumbnailDirectory thumbnailDirectory = metadata.getFirstDirectoryOfType(ExifThumbnailDirectory.class);
+        JpegDirectory jpegDirectory = metadata.getFirstDirectoryOfType(JpegDirectory.class);
+        if (thumbnailDirectory == null || jpegDirectory == null
+            || !thumbnailDirectory.containsTag(ExifThumbnailDirectory.TAG_THUMBNAIL_OFFSET)
+            || !thumbnailDirectory.containsTag(ExifThumbnailDirectory.TAG_THUMBNAIL_LENGTH)) {
+            return null;
+        }
+        
+        byte[] data = source.getBuffer();
+        int length = (int) source.length();
+        int tiffStart = findExifTiffStart(data, length);
+        if (tiffStart < 0) {
+            return null;
+        }
+        
+        try {
+            // The thumbnail offset is relative to the TIFF header inside the APP1 segment
+            long offset = tiffStart + thumbnailDirectory.getLong(ExifThumbnailDirectory.TAG_THUMBNAIL_OFFSET);
+            long thumbnailLength = thumbnailDirectory.getLong(ExifThumbnailDirectory.TAG_THUMBNAIL_LENGTH);
+            Preview preview = readPreview(data, length, offset, thumbnailLength);
+            if (preview == null || Math.min(preview.width(), preview.height()) < targetShortEdge) {
+                return null;
+            }
+            
+            double imageAspect = (double) jpegDirectory.getImageWidth() / jpegDirectory.getImageHeight();
+            double previewAspect = (double) preview.width() / preview.height();
+            if (Math.abs(previewAspect / imageAspect - 1) > ASPECT_TOLERANCE) {
+                return null;
+            }
+            return preview;
+        } catch (MetadataException | ArithmeticException e) {
+            logger.debug("Could not locate EXIF thumbnail in {}: {}", source.getPath(), e.getMessage());
+            return null;
+        }
+    }
+    
+    /** Offset of the TIFF header in the first Exif APP1 segment, or -1 if there is none. */
+    private static int findExifTiffStart(byte[] data, int length) {
+        int pos = 2;
+        while (pos + 4 <= length && (data[pos] & 0xff) == 0xFF) {
+            int marker = data[pos + 1] & 0xff;
+            if (marker == 0xDA || marker == 0xD9) {
+                break;
+            }
+            int segmentLength = ((data[pos + 2] & 0xff) << 8) | (data[pos + 3] & 0xff);
+            int payload = pos + 4;
+            if (marker == 0xE1 && payload + 6 <= length
+                && data[payload] == 'E' && data[payload + 1] == 'x' && data[payload + 2] == 'i'
+                && data[payload + 3] == 'f' && data[payload + 4] == 0 && data[payload + 5] == 0) {
+                return payload + 6;
+            }
+            pos += 2 + segmentLength;
+        }
+        return -1;
+    }
+    
+    /**
+     * Walks the IFD chain and every SubIFD of a TIFF-based file and collects the JPEG streams it
+     * references, either as JPEGInterchangeFormat or as a single JPEG-compressed strip. Sensor
+     * data stored as lossless JPEG is rejected when its header is validated.
+     */
+    static List<Preview> findTiffPreviews(byte[] data, int length) {
+        List<Preview> previews = new ArrayList<>();
+        TiffReader tiff = TiffReader.open(data, length);
+        if (tiff == null) {
+            return previews;
+        }
+        
+        Deque<Long> pending = new ArrayDeque<>();
+        Set<Long> visited = new HashSet<>();
+        pending.add(tiff.readUnsignedInt(4));
+        
+        while (!pending.isEmpty() && visited.size() < MAX_IFDS) {
+            long ifd = pending.poll();
+            if (ifd < 8 || ifd + 2 > length || !visited.add(ifd)) {
+                continue;
+            }
+            
+            int entryCount = tiff.readUnsignedShort((int) ifd);
+            int entries = (int) ifd + 2;
+            if (entries + entryCount * 12L + 4 > length) {
+                continue;
+            }
+            
+            long compression = -1;
+            long jpegOffset = -1;
+            long jpegLength = -1;
+            long stripOffset = -1;
+            long stripLength = -1;
+            
+            for (int i = 0; i < entryCount; i++) {
+                int entry = entries + i * 12;
+                int tag = tiff.readUnsignedShort(entry);
+                switch (tag) {
+                    case TAG_COMPRESSION -> compression = tiff.readValue(entry, 0);
+                    case TAG_JPEG_OFFSET -> jpegOffset = tiff.readValue(entry, 0);
+                    case TAG_JPEG_LENGTH -> jpegLength = tiff.readValue(entry, 0);
+                    case TAG_STRIP_OFFSETS -> stripOffset = tiff.readSingleValue(entry);
+                    case TAG_STRIP_BYTE_COUNTS -> stripLength = tiff.readSingleValue(entry);
+                    case TAG_SUB_IFDS -> {
+                        long count = Math.min(tiff.readUnsignedInt(entry + 4), MAX_IFDS);
+                        for (int k = 0; k < count; k++) {
+                            long subIfd = tiff.readValue(entry, k);
+                            if (subIfd > 0) {
+                                pending.add(subIfd);
+                            }
+                        }
+                    }
+                    default -> {
+                        // Other tags describe the image data, which is not needed to find previews
+                    }
+                }
+            }
+            
+            addPreview(previews, readPreview(data, length, jpegOffset, jpegLength));
+            if (compression == COMPRESSION_OJPEG || compression == COMPRESSION_JPEG) {
+                addPreview(previews, readPreview(data, length, stripOffset, stripLength));
+            }
+            
+            long next = tiff.readUnsignedInt(entries + entryCount * 12);
+            if (next != 0) {
+                pending.add(next);
+            }
+        }
+        
+        return previews;
+    }
+    
+    private static void addPreview(List<Preview> previews, Preview preview) {
+        if (preview != null && previews.stream().noneMatch(p -> p.offset() == preview.offset())) {
+            previews.add(preview);
+        }
+    }
+    
+    /** Validates a JPEG stream by parsing its header; returns null if it is missing or cannot be decoded. */
+    private static Preview readPreview(byte[] data, int length, long offset, long previewLength) {
+        if (offset <= 0 || previewLength <= 0 || offset + previewLength > length
+            || !ScaledJpegDecoder.isJpeg(data, (int) offset, (int) previewLength)) {
+            return null;
+        }
+        
+        try {
+            ScaledJpegDecoder decoder = new ScaledJpegDecoder(data, (int) offset, (int) previewLength);
+            decoder.readHeader();
+            return new Preview((int) offset, (int) previewLength, decoder.getWidth(), decoder.getHeight());
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Skipping embedded JPEG at offset {}: {}", offset, e.getMessage());
+            return null;
+        }
+    }
+    
+    /** Reads IFD entries in the byte order given by the TIFF header. */
+    private static final class TiffReader {
+        private final byte[] data;
+        private final int length;
+        private final boolean littleEndian;
+        
+        private TiffReader(byte[] data, int length, boolean littleEndian) {
+            this.data = data;
+            this.length = length;
+            this.littleEndian = littleEndian;
+        }
+        
+        static TiffReader open(byte[] data, int length) {
+            if (length < 8) {
+                return null;
+            }
+            boolean littleEndian;
+            if (data[0] == 'I' && data[1] == 'I') {
+                littleEndian = true;
+            } else if (data[0] == 'M' && data[1] == 'M') {
+                littleEndian = false;
+            } else {
+                return null;
+            }
+            TiffReader reader = new TiffReader(data, length, littleEndian);
+            return reader.readUnsignedShort(2) == 42 ? reader : null;
+        }
+        
+        int readUnsignedShort(int pos) {
+            if (pos < 0 || pos + 2 > length) {
+                return 0;
+            }
+            int b0 = data[pos] & 0xff;
+            int b1 = data[pos + 1] & 0xff;
+            return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+        }
+        
+        long readUnsignedInt(int pos) {
+            if (pos < 0 || pos + 4 > length) {
+                return 0;
+            }
+            long b0 = data[pos] & 0xff;
+            long b1 = data[pos + 1] & 0xff;
+            long b2 = data[pos + 2] & 0xff;
+            long b3 = data[pos + 3] & 0xff;
+            return littleEndian
+                ? (b3 << 24) | (b2 << 16) | (b1 << 8) | b0
+                : (b0 << 24) | (b1 << 16) | (b2 << 8) | b3;
+        }
+        
+        /** The value of an entry that must hold exactly one number, such as a single strip; -1 otherwise. */
+        long readSingleValue(int entry) {
+            return readUnsignedInt(entry + 4) == 1 ? readValue(entry, 0) : -1;
+        }
+        
+        /** The {@code index}-th SHORT, LONG or IFD value of an entry, or -1 for other types. */
+        long readValue(int entry, int index) {
+            int type = readUnsignedShort(entry + 2);
+            int size;
+            if (type == TYPE_SHORT) {
+                size = 2;
+            } else if (type == TYPE_LONG || type == TYPE_IFD) {
+                size = 4;
+            } else {
+                return -1;
+            }
+            
+            long count = readUnsignedInt(entry + 4);
+            if (index >= count) {
+                return -1;
+            }
+            // Values that fit in four bytes are stored in the entry itself
+            long base = count * size <= 4 ? entry + 8 : readUnsignedInt(entry + 8);
+            long pos = base + (long) index * size;
+            if (pos + size > length) {
+                return -1;
+            }
+            return size == 2 ? readUnsignedShort((int) pos) : readUnsignedInt((int) pos);
+        }
+    }
+}
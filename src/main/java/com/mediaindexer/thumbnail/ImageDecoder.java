@@ -0,0 +1,250 @@
+package com.mediaindexer.thumbnail;
+
+import com.mediaindexer.util.ByteArrayImageInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.spi.IIORegistry;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decodes images at reduced resolution for thumbnailing. The dimensions are read from the
+ * header first and the reader is asked to subsample rows and columns, so a large photo is
+ * never materialized at full size when only a few hundred pixels are kept. JPEGs take a faster
+ * path that scales in the DCT domain while decoding.
+ * <p>
+ * ImageIO readers are reused: each thread keeps one reader per provider and resets it after
+ * use, and the provider that last decoded a file extension is tried before asking every
+ * registered provider whether it recognizes the stream.
+ */
+public class ImageDecoder {
+    private static final Logger logger = LoggerFactory.getLogger(ImageDecoder.class);
+    
+    // Decode to at least twice the target so the final resize still has pixels to average
+    private static final int OVERSAMPLING = 2;
+    
+    // Covers packed RGB and ARGB; 16-bit images take more but are rare among photos
+    private static final int BYTES_PER_PIXEL = 4;
+    
+    // Embedded previews are always JPEG, whatever the file they come from
+    private static final String PREVIEW_EXTENSION = "jpg";
+    
+    private final RasterPool rasterPool;
+    private final List<ImageReaderSpi> providers = new ArrayList<>();
+    private final Map<String, ImageReaderSpi> providersByExtension = new ConcurrentHashMap<>();
+    private final ThreadLocal<Map<ImageReaderSpi, ImageReader>> threadReaders = ThreadLocal.withInitial(HashMap::new);
+    
+    /** JPEGs decoded on the fast path get their pixels from the pool; release the image to it once it is scaled. */
+    public ImageDecoder(RasterPool rasterPool) {
+        this.rasterPool = rasterPool;
+        // Same providers, in the same order, that ImageIO.getImageReaders would consult
+        IIORegistry.getDefaultInstance().getServiceProviders(ImageReaderSpi.class, true).forEachRemaining(providers::add);
+    }
+    
+    /**
+     * Decodes the first image of the source, keeping the long edge at least
+     * {@code OVERSAMPLING * targetLongEdge} and the short edge at least
+     * {@code OVERSAMPLING * targetShortEdge} pixels. Returns null if no reader recognizes the format.
+     * Once the deadline expires the decode is abandoned; the result is then incomplete or null.
+     */
+    public BufferedImage decode(MediaSource source, int targetLongEdge, int targetShortEdge,
+                                DecodeWatchdog.Deadline deadline) throws IOException {
+        if (source.isBuffered() && ScaledJpegDecoder.isJpeg(source.getBuffer(), (int) source.length())) {
+            BufferedImage image = decodeScaledJpeg(source, 0, (int) source.length(), targetLongEdge, targetShortEdge, deadline);
+            if (image != null || deadline.isExpired()) {
+                return image;
+            }
+        }
+        
+        return readSubsampled(source.openImageStream(), getExtension(source), targetLongEdge, targetShortEdge, deadline);
+    }
+    
+    /**
+     * Decodes a JPEG preview embedded in a buffered source, with the same targets and deadline
+     * handling as {@link #decode(MediaSource, int, int, DecodeWatchdog.Deadline)}.
+     */
+    public BufferedImage decodePreview(MediaSource source, EmbeddedPreviewExtractor.Preview preview,
+                                       int targetLongEdge, int targetShortEdge,
+                                       DecodeWatchdog.Deadline deadline) throws IOException {
+        BufferedImage image = decodeScaledJpeg(source, preview.offset(), preview.length(), targetLongEdge, targetShortEdge,
+                                               deadline);
+        if (image != null || deadline.isExpired()) {
+            return image;
+        }
+        
+        return readSubsampled(new ByteArrayImageInputStream(source.getBuffer(), preview.offset(), preview.length()),
+                              PREVIEW_EXTENSION, targetLongEdge, targetShortEdge, deadline);
+    }
+    
+    /**
+     * Estimates the bytes a decode with the same arguments will allocate, from the image header
+     * alone. {@code preview} may be null to decode the file itself. Returns 0 if the header
+     * cannot be read, in which case the decode is expected to fail quickly.
+     */
+    public long estimateMemory(MediaSource source, EmbeddedPreviewExtractor.Preview preview,
+                               int targetLongEdge, int targetShortEdge) {
+        int offset = preview != null ? preview.offset() : 0;
+        int length = preview != null ? preview.length() : (int) source.length();
+        
+        try {
+            if (source.isBuffered() && ScaledJpegDecoder.isJpeg(source.getBuffer(), offset, length)) {
+                ScaledJpegDecoder decoder = new ScaledJpegDecoder(source.getBuffer(), offset, length);
+                decoder.readHeader();
+                int denominator = computeJpegScale(decoder.getWidth(), decoder.getHeight(), targetLongEdge, targetShortEdge);
+                if (denominator > 1) {
+                    return decoder.estimateMemory(denominator);
+                }
+            }
+            
+            ImageInputStream input = preview != null
+                ? new ByteArrayImageInputStream(source.getBuffer(), offset, length)
+                : source.openImageStream();
+            try {
+                ImageReader reader = acquireReader(input, preview != null ? PREVIEW_EXTENSION : getExtension(source));
+                if (reader == null) {
+                    return 0;
+                }
+                try {
+                    reader.setInput(input, true, true);
+                    long width = reader.getWidth(0);
+                    long height = reader.getHeight(0);
+                    int factor = computeSubsampling((int) width, (int) height, targetLongEdge, targetShortEdge);
+                    return ((width + factor - 1) / factor) * ((height + factor - 1) / factor) * BYTES_PER_PIXEL;
+                } finally {
+                    reader.reset();
+                }
+            } finally {
+                input.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Could not read image header of {}: {}", source.getPath(), e.getMessage());
+            return 0;
+        }
+    }
+    
+    private BufferedImage readSubsampled(ImageInputStream input, String extension, int targetLongEdge,
+                                         int targetShortEdge, DecodeWatchdog.Deadline deadline) throws IOException {
+        try {
+            ImageReader reader = acquireReader(input, extension);
+            if (reader == null) {
+                return null;
+            }
+            
+            try {
+                reader.setInput(input, true, true);
+                int factor = computeSubsampling(reader.getWidth(0), reader.getHeight(0), targetLongEdge, targetShortEdge);
+                
+                ImageReadParam param = reader.getDefaultReadParam();
+                if (factor > 1) {
+                    param.setSourceSubsampling(factor, factor, 0, 0);
+                }
+                deadline.watch(reader);
+                return reader.read(0, param);
+            } finally {
+                deadline.watch(null);
+                reader.reset();
+            }
+        } finally {
+            input.close();
+        }
+    }
+    
+    /**
+     * Returns this thread's reader for the first provider that recognizes the stream, or null if
+     * none does. The caller must {@code reset()} the reader when done instead of disposing it.
+     */
+    private ImageReader acquireReader(ImageInputStream input, String extension) throws IOException {
+        ImageReaderSpi provider = providersByExtension.get(extension);
+        if (provider == null || !canDecode(provider, input)) {
+            provider = null;
+            for (ImageReaderSpi candidate : providers) {
+                if (canDecode(candidate, input)) {
+                    provider = candidate;
+                    providersByExtension.put(extension, candidate);
+                    break;
+                }
+            }
+            if (provider == null) {
+                return null;
+            }
+        }
+        
+        Map<ImageReaderSpi, ImageReader> readers = threadReaders.get();
+        ImageReader reader = readers.get(provider);
+        if (reader == null) {
+            reader = provider.createReaderInstance();
+            readers.put(provider, reader);
+        }
+        return reader;
+    }
+    
+    private static boolean canDecode(ImageReaderSpi provider, ImageInputStream input) {
+        try {
+            return provider.canDecodeInput(input);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+    
+    private static String getExtension(MediaSource source) {
+        String name = source.getPath().getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 ? name.substring(dot + 1).toLowerCase(Locale.ROOT) : "";
+    }
+    
+    /**
+     * Fast path for JPEG: decodes the stream at {@code offset} at the smallest DCT scale (1/2, 1/4
+     * or 1/8) that still covers the target. Returns null when the image is not reduced or uses
+     * features the scaled decoder does not handle, so the caller falls back to ImageIO.
+     */
+    private BufferedImage decodeScaledJpeg(MediaSource source, int offset, int length, int targetLongEdge,
+                                           int targetShortEdge, DecodeWatchdog.Deadline deadline) {
+        try {
+            ScaledJpegDecoder decoder = new ScaledJpegDecoder(source.getBuffer(), offset, length);
+            decoder.setDeadline(deadline);
+            decoder.setRasterPool(rasterPool);
+            decoder.readHeader();
+            int denominator = computeJpegScale(decoder.getWidth(), decoder.getHeight(), targetLongEdge, targetShortEdge);
+            if (denominator == 1) {
+                return null;
+            }
+            return decoder.decode(denominator);
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Scaled JPEG decoding not possible for {}, using ImageIO: {}", source.getPath(), e.getMessage());
+            return null;
+        }
+    }
+    
+    static int computeJpegScale(int width, int height, int targetLongEdge, int targetShortEdge) {
+        int longEdge = Math.max(width, height);
+        int shortEdge = Math.min(width, height);
+        // A DCT-domain reduction averages instead of dropping pixels, so no oversampling is needed
+        for (int denominator = 8; denominator > 1; denominator /= 2) {
+            int scaledLong = (longEdge + denominator - 1) / denominator;
+            int scaledShort = (shortEdge + denominator - 1) / denominator;
+            if (scaledLong >= targetLongEdge && scaledShort >= targetShortEdge) {
+                return denominator;
+            }
+        }
+        return 1;
+    }
+    
+    static int computeSubsampling(int width, int height, int targetLongEdge, int targetShortEdge) {
+        int longEdge = Math.max(width, height);
+        int shortEdge = Math.min(width, height);
+        int longFactor = longEdge / Math.max(1, OVERSAMPLING * targetLongEdge);
+        int shortFactor = shortEdge / Math.max(1, OVERSAMPLING * targetShortEdge);
+        return Math.max(1, Math.min(longFactor, shortFactor));
+    }
+}
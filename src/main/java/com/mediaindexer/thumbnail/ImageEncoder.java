@@ -0,0 +1,115 @@
+package com.mediaindexer.thumbnail;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Per-worker encoder state: one {@link ImageWriter} and {@link ImageWriteParam} per format and a
+ * reusable output buffer, instead of looking up and disposing a writer for every image. Not thread-safe; each encode
+ * worker owns its own instance.
+ */
+public class ImageEncoder implements AutoCloseable {
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final float QUALITY_RESOLUTION = 0.02f;
+    
+    private final Map<String, ImageWriter> writers = new HashMap<>();
+    private final Map<String, ImageWriteParam> params = new HashMap<>();
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+    
+    public byte[] encode(BufferedImage image, String format, float quality) throws IOException {
+        encodeToBuffer(image, format, quality);
+        return buffer.toByteArray();
+    }
+    
+    /**
+     * Encodes at the highest quality between {@code minQuality} and {@code maxQuality} whose output fits in
+     * {@code maxBytes}, found by binary search. If even {@code minQuality} does not fit, that is what is returned;
+     * formats without a quality setting are encoded once.
+     */
+    public byte[] encodeWithinSize(BufferedImage image, String format, float minQuality, float maxQuality,
+                                   int maxBytes) throws IOException {
+        encodeToBuffer(image, format, maxQuality);
+        if (buffer.size() <= maxBytes || !params.get(format).canWriteCompressed() || minQuality >= maxQuality) {
+            return buffer.toByteArray();
+        }
+        
+        encodeToBuffer(image, format, minQuality);
+        byte[] best = buffer.toByteArray();
+        if (best.length > maxBytes) {
+            return best;
+        }
+        
+        // The output size is not strictly monotonic in quality, but close enough to search on
+        float low = minQuality;
+        float high = maxQuality;
+        while (high - low > QUALITY_RESOLUTION) {
+            float quality = (low + high) / 2;
+            encodeToBuffer(image, format, quality);
+            if (buffer.size() <= maxBytes) {
+                best = buffer.toByteArray();
+                low = quality;
+            } else {
+                high = quality;
+            }
+        }
+        return best;
+    }
+    
+    public void writeToFile(BufferedImage image, Path file, String format, float quality) throws IOException {
+        encodeToBuffer(image, format, quality);
+        try (OutputStream output = Files.newOutputStream(file)) {
+            buffer.writeTo(output);
+        }
+    }
+    
+    private void encodeToBuffer(BufferedImage image, String format, float quality) throws IOException {
+        ImageWriter writer = getWriter(format);
+        ImageWriteParam param = params.computeIfAbsent(format, key -> writer.getDefaultWriteParam());
+        
+        if (param.canWriteCompressed()) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+        }
+        
+        buffer.reset();
+        try (ImageOutputStream output = new MemoryCacheImageOutputStream(buffer)) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.reset();
+        }
+    }
+    
+    private ImageWriter getWriter(String format) throws IOException {
+        ImageWriter writer = writers.get(format);
+        if (writer == null) {
+            Iterator<ImageWriter> candidates = ImageIO.getImageWritersByFormatName(format);
+            if (!candidates.hasNext()) {
+                throw new IOException("No image writer available for format: " + format);
+            }
+            writer = candidates.next();
+            writers.put(format, writer);
+        }
+        return writer;
+    }
+    
+    @Override
+    public void close() {
+        writers.values().forEach(ImageWriter::dispose);
+        writers.clear();
+        params.clear();
+    }
+}
@@ -0,0 +1,81 @@
+package com.mediaindexer.thumbnail;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Applies an EXIF orientation by moving pixels, without resampling. Meant for the scaled
+ * output, so the full-size decode is never copied just to rotate it.
+ */
+public final class ImageOrientation {
+    private ImageOrientation() {
+    }
+    
+    /** Whether the orientation turns the image on its side, swapping width and height (5 to 8). */
+    public static boolean swapsAxes(int orientation) {
+        return orientation >= 5 && orientation <= 8;
+    }
+    
+    /** Returns the image as it should be displayed, as a new {@code TYPE_INT_RGB} image; orientation 1 returns it unchanged. */
+    public static BufferedImage apply(BufferedImage image, int orientation) {
+        if (orientation < 2 || orientation > 8) {
+            return image;
+        }
+        
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getType() == BufferedImage.TYPE_INT_RGB
+            && image.getRaster().getDataBuffer() instanceof DataBufferInt buffer
+            && buffer.getSize() == width * height
+            ? buffer.getData()
+            : image.getRGB(0, 0, width, height, null, 0, width);
+        
+        boolean swapped = swapsAxes(orientation);
+        int outputWidth = swapped ? height : width;
+        int outputHeight = swapped ? width : height;
+        BufferedImage oriented = new BufferedImage(outputWidth, outputHeight, BufferedImage.TYPE_INT_RGB);
+        int[] output = ((DataBufferInt) oriented.getRaster().getDataBuffer()).getData();
+        
+        // For each displayed pixel (x, y), the stored pixel it comes from
+        for (int y = 0; y < outputHeight; y++) {
+            int outputOffset = y * outputWidth;
+            for (int x = 0; x < outputWidth; x++) {
+                int sourceX;
+                int sourceY;
+                switch (orientation) {
+                    case 2 -> { // Flip horizontally
+                        sourceX = width - 1 - x;
+                        sourceY = y;
+                    }
+                    case 3 -> { // Rotate 180 degrees
+                        sourceX = width - 1 - x;
+                        sourceY = height - 1 - y;
+                    }
+                    case 4 -> { // Flip vertically
+                        sourceX = x;
+                        sourceY = height - 1 - y;
+                    }
+                    case 5 -> { // Transpose: rotate 90 degrees CW and flip horizontally
+                        sourceX = y;
+                        sourceY = x;
+                    }
+                    case 6 -> { // Rotate 90 degrees CW
+                        sourceX = y;
+                        sourceY = height - 1 - x;
+                    }
+                    case 7 -> { // Transverse: rotate 90 degrees CCW and flip horizontally
+                        sourceX = width - 1 - y;
+                        sourceY = height - 1 - x;
+                    }
+                    default -> { // 8: Rotate 90 degrees CCW
+                        sourceX = width - 1 - y;
+                        sourceY = x;
+                    }
+                }
+                output[outputOffset + x] = pixels[sourceY * width + sourceX] & 0xffffff;
+            }
+        }
+        
+        return oriented;
+    }
+}
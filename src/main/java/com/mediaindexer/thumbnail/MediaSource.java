@@ -0,0 +1,100 @@
+package com.mediaindexer.thumbnail;
+
+import com.mediaindexer.util.BufferPool;
+import com.mediaindexer.util.ByteArrayImageInputStream;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The bytes of one media file, read from disk once into a pooled buffer and shared by the
+ * hasher, the EXIF parser and the image decoder. Files above the buffering limit are not
+ * loaded; their streams fall back to reading the file directly.
+ */
+public class MediaSource implements AutoCloseable {
+    private final Path path;
+    private final BufferPool bufferPool;
+    private final long length;
+    private byte[] buffer;
+    
+    private MediaSource(Path path, BufferPool bufferPool, long length, byte[] buffer) {
+        this.path = path;
+        this.bufferPool = bufferPool;
+        this.length = length;
+        this.buffer = buffer;
+    }
+    
+    public static MediaSource open(Path path, BufferPool bufferPool, long maxBufferedBytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > maxBufferedBytes || size > Integer.MAX_VALUE - 8) {
+                return new MediaSource(path, bufferPool, size, null);
+            }
+            
+            byte[] buffer = bufferPool.acquire((int) size);
+            try {
+                ByteBuffer target = ByteBuffer.wrap(buffer, 0, (int) size);
+                while (target.hasRemaining()) {
+                    if (channel.read(target) < 0) {
+                        throw new IOException("File truncated while reading: " + path);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                bufferPool.release(buffer);
+                throw e;
+            }
+            return new MediaSource(path, bufferPool, size, buffer);
+        }
+    }
+    
+    public Path getPath() {
+        return path;
+    }
+    
+    public long length() {
+        return length;
+    }
+    
+    public boolean isBuffered() {
+        return buffer != null;
+    }
+    
+    /** The buffered bytes, valid up to {@link #length()}; null when the file was not buffered. */
+    byte[] getBuffer() {
+        return buffer;
+    }
+    
+    public InputStream openStream() throws IOException {
+        if (buffer != null) {
+            return new ByteArrayInputStream(buffer, 0, (int) length);
+        }
+        return Files.newInputStream(path);
+    }
+    
+    public ImageInputStream openImageStream() throws IOException {
+        if (buffer != null) {
+            return new ByteArrayImageInputStream(buffer, 0, (int) length);
+        }
+        ImageInputStream stream = ImageIO.createImageInputStream(path.toFile());
+        if (stream == null) {
+            throw new IOException("Cannot open image stream: " + path);
+        }
+        return stream;
+    }
+    
+    @Override
+    public void close() {
+        if (buffer != null) {
+            bufferPool.release(buffer);
+            buffer = null;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.mediaindexer.thumbnail;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Caps the memory that concurrent decodes may hold. Each decode reserves its estimated size
+ * before it starts and blocks while the budget is used up. A single image larger than the
+ * whole budget reserves all of it, so it runs alone instead of alongside other large images.
+ */
+public class MemoryGovernor {
+    private static final Logger logger = LoggerFactory.getLogger(MemoryGovernor.class);
+    private static final int BYTES_PER_PERMIT = 1024;
+    
+    private final Semaphore permits;
+    private final int totalPermits;
+    
+    /** A reservation to release once the decoded image is no longer referenced. */
+    public final class Reservation implements AutoCloseable {
+        private int held;
+        
+        private Reservation(int held) {
+            this.held = held;
+        }
+        
+        @Override
+        public void close() {
+            if (held > 0) {
+                permits.release(held);
+                held = 0;
+            }
+        }
+    }
+    
+    public MemoryGovernor(long budgetBytes) {
+        this.totalPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, budgetBytes / BYTES_PER_PERMIT));
+        // Fair, so a large reservation is not starved by a stream of small ones
+        this.permits = new Semaphore(totalPermits, true);
+    }
+    
+    public Reservation reserve(long bytes) throws InterruptedException {
+        long requested = Math.max(1, (bytes + BYTES_PER_PERMIT - 1) / BYTES_PER_PERMIT);
+        if (requested > totalPermits) {
+            logger.debug("Decode of {} MB exceeds the memory budget; running it alone", bytes / (1024 * 1024));
+        }
+        
+        int needed = (int) Math.min(requested, totalPermits);
+        permits.acquire(needed);
+        return new Reservation(needed);
+    }
+}
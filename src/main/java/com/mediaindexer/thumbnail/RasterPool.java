@@ -0,0 +1,134 @@
+package com.mediaindexer.thumbnail;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * Reusable arrays for the large, short-lived buffers of a decode: JPEG coefficients, sample
+ * planes and the pixels of the decoded image. Photos from the same camera decode to the same
+ * sizes, so arrays are kept by size class, each class a quarter of a power of two wide, and a
+ * request is served from its class only. Arrays of this size are humongous objects in G1;
+ * reusing them avoids both the allocation and the young collections it triggers.
+ * <p>
+ * While idle, at most {@code maxArrays} arrays are kept per kind and size class, and at most
+ * {@code maxPooledBytes} of them in total: idle arrays are live data that count toward G1's
+ * threshold for starting a concurrent cycle, so the budget only covers what the decode
+ * threads use at once. Arrays are handed out dirty unless the caller asks for them cleared.
+ */
+public class RasterPool {
+    private static final DirectColorModel RGB = new DirectColorModel(24, 0xff0000, 0x00ff00, 0x0000ff);
+    private static final int[] RGB_MASKS = {0xff0000, 0x00ff00, 0x0000ff};
+    
+    private final int maxArrays;
+    private final long maxPooledBytes;
+    private final ArrayPool<int[]> ints = new ArrayPool<>(Integer.BYTES, int[]::new, array -> array.length);
+    private final ArrayPool<short[]> shorts = new ArrayPool<>(Short.BYTES, short[]::new, array -> array.length);
+    private final ArrayPool<byte[]> bytes = new ArrayPool<>(Byte.BYTES, byte[]::new, array -> array.length);
+    private long pooledBytes;
+    
+    public RasterPool(int maxArrays, long maxPooledBytes) {
+        this.maxArrays = maxArrays;
+        this.maxPooledBytes = maxPooledBytes;
+    }
+    
+    /** Returns a {@code TYPE_INT_RGB} image whose pixels come from the pool; its contents are undefined. */
+    public BufferedImage acquireImage(int width, int height) {
+        int[] pixels = ints.acquire(Math.multiplyExact(width, height));
+        WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(pixels, width * height), width, height, width,
+                                                          RGB_MASKS, new Point());
+        return new BufferedImage(RGB, raster, false, null);
+    }
+    
+    /** Takes back the pixels of an image no one uses any more; images not backed by a single int array are ignored. */
+    public void release(BufferedImage image) {
+        if (image != null && image.getRaster().getDataBuffer() instanceof DataBufferInt buffer
+            && buffer.getNumBanks() == 1) {
+            ints.release(buffer.getData());
+        }
+    }
+    
+    public short[] acquireShorts(int minLength, boolean cleared) {
+        short[] array = shorts.acquire(minLength);
+        if (cleared) {
+            Arrays.fill(array, 0, minLength, (short) 0);
+        }
+        return array;
+    }
+    
+    public void release(short[] array) {
+        shorts.release(array);
+    }
+    
+    public byte[] acquireBytes(int minLength) {
+        return bytes.acquire(minLength);
+    }
+    
+    public void release(byte[] array) {
+        bytes.release(array);
+    }
+    
+    /** Rounds up to a multiple of a quarter of the largest power of two not above the length, wasting at most a quarter. */
+    private static int sizeClass(int length) {
+        if (length <= 1024) {
+            return 1024;
+        }
+        int step = Integer.highestOneBit(length - 1) >> 2;
+        long rounded = ((long) length + step - 1) / step * step;
+        return (int) Math.min(rounded, Integer.MAX_VALUE - 8);
+    }
+    
+    /** The arrays of one element type. Guarded by the enclosing pool, which keeps the byte count for all of them. */
+    private final class ArrayPool<T> {
+        private final int elementBytes;
+        private final IntFunction<T> allocator;
+        private final ToIntFunction<T> lengthOf;
+        private final Map<Integer, Deque<T>> classes = new HashMap<>();
+        
+        ArrayPool(int elementBytes, IntFunction<T> allocator, ToIntFunction<T> lengthOf) {
+            this.elementBytes = elementBytes;
+            this.allocator = allocator;
+            this.lengthOf = lengthOf;
+        }
+        
+        T acquire(int minLength) {
+            int sizeClass = sizeClass(minLength);
+            synchronized (RasterPool.this) {
+                Deque<T> arrays = classes.get(sizeClass);
+                if (arrays != null && !arrays.isEmpty()) {
+                    pooledBytes -= (long) sizeClass * elementBytes;
+                    return arrays.pop();
+                }
+            }
+            // Allocate the whole class so the array can serve any request that maps to it
+            return allocator.apply(sizeClass);
+        }
+        
+        void release(T array) {
+            int length = lengthOf.applyAsInt(array);
+            long arrayBytes = (long) length * elementBytes;
+            // Only arrays from acquire fill a class exactly; any other could be too short for it
+            if (sizeClass(length) != length) {
+                return;
+            }
+            synchronized (RasterPool.this) {
+                Deque<T> arrays = classes.computeIfAbsent(length, key -> new ArrayDeque<>());
+                if (pooledBytes + arrayBytes > maxPooledBytes || arrays.size() >= maxArrays) {
+                    return;
+                }
+                arrays.push(array);
+                pooledBytes += arrayBytes;
+            }
+        }
+    }
+}
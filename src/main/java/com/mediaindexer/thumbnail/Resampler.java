@@ -0,0 +1,466 @@
+package com.mediaindexer.thumbnail;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.Arrays;
+
+/**
+ * Separable Lanczos-3 resampler for thumbnails. Each output row is accumulated from the source
+ * rows under the vertical kernel, then filtered horizontally; the kernel is widened by the
+ * reduction ratio, so every source pixel contributes and large reductions do not alias the way
+ * bilinear {@code Graphics2D} scaling does. Reductions of more than 4x first average whole
+ * pixel blocks, which costs far fewer taps than a kernel that wide.
+ * <p>
+ * Source rows are unpacked once into separate red, green and blue float rows, so the vertical
+ * pass and the unpacking run over contiguous arrays the JIT can vectorize; the horizontal pass
+ * filters two output pixels at a time to keep more additions in flight. The block averages sum
+ * red and blue side by side in one int. The result is always {@code TYPE_INT_RGB}; translucent
+ * pixels are composited over black.
+ */
+public final class Resampler {
+    /** Bump whenever a change alters the output, so thumbnails made by an earlier version are rebuilt. */
+    public static final int VERSION = 1;
+    private static final int LANCZOS_RADIUS = 3;
+    // The most rows whose red and blue sums still fit side by side in one int
+    private static final int MAX_BOX_FACTOR = 256;
+    
+    private Resampler() {
+    }
+    
+    /** Per output pixel: the first source index and the normalized weights of the taps that follow it. */
+    private static final class Filter {
+        final int[] start;
+        final int[] count;
+        final float[] weights;
+        final int stride;
+        
+        Filter(int[] start, int[] count, float[] weights, int stride) {
+            this.start = start;
+            this.count = count;
+            this.weights = weights;
+            this.stride = stride;
+        }
+    }
+    
+    public static BufferedImage resize(BufferedImage source, int width, int height) {
+        return resize(source, width, height, null);
+    }
+    
+    /** Resizes into an image from the pool, or a new one if the pool is null. */
+    public static BufferedImage resize(BufferedImage source, int width, int height, RasterPool pool) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid target size: " + width + "x" + height);
+        }
+        
+        int sourceWidth = source.getWidth();
+        int sourceHeight = source.getHeight();
+        RowReader reader = RowReader.create(source);
+        
+        // Large reductions average whole blocks first, leaving Lanczos a 2-4x reduction
+        int factor = Math.min(Math.min(sourceWidth / width, sourceHeight / height) / 2, MAX_BOX_FACTOR);
+        if (factor >= 2) {
+            int reducedWidth = (sourceWidth + factor - 1) / factor;
+            int reducedHeight = (sourceHeight + factor - 1) / factor;
+            int[] reduced = boxReduce(reader, sourceWidth, sourceHeight, factor, reducedWidth, reducedHeight);
+            return resize(RowReader.of(reduced, reducedWidth), reducedWidth, reducedHeight, width, height, pool);
+        }
+        return resize(reader, sourceWidth, sourceHeight, width, height, pool);
+    }
+    
+    private static BufferedImage resize(RowReader reader, int sourceWidth, int sourceHeight, int width, int height,
+                                        RasterPool pool) {
+        Filter horizontal = createFilter(sourceWidth, width);
+        Filter vertical = createFilter(sourceHeight, height);
+        
+        // Source rows unpacked to float channels, kept while some output row still reads them
+        int ringSize = vertical.stride;
+        float[][] ringRed = new float[ringSize][sourceWidth];
+        float[][] ringGreen = new float[ringSize][sourceWidth];
+        float[][] ringBlue = new float[ringSize][sourceWidth];
+        int[] ringRow = new int[ringSize];
+        Arrays.fill(ringRow, -1);
+        
+        int[] row = new int[sourceWidth];
+        // Padded so the horizontal pass can read taps in pairs past the last pixel; the extra taps have zero weight
+        float[] sumRed = new float[sourceWidth + horizontal.stride];
+        float[] sumGreen = new float[sourceWidth + horizontal.stride];
+        float[] sumBlue = new float[sourceWidth + horizontal.stride];
+        float[][] red = new float[vertical.stride][];
+        float[][] green = new float[vertical.stride][];
+        float[][] blue = new float[vertical.stride][];
+        
+        BufferedImage target = pool != null
+            ? pool.acquireImage(width, height)
+            : new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] output = ((DataBufferInt) target.getRaster().getDataBuffer()).getData();
+        
+        for (int y = 0; y < height; y++) {
+            int taps = vertical.count[y];
+            for (int t = 0; t < taps; t++) {
+                int sourceRow = vertical.start[y] + t;
+                int slot = sourceRow % ringSize;
+                if (ringRow[slot] != sourceRow) {
+                    reader.read(sourceRow, row);
+                    unpack(row, ringRed[slot], ringGreen[slot], ringBlue[slot]);
+                    ringRow[slot] = sourceRow;
+                }
+                red[t] = ringRed[slot];
+                green[t] = ringGreen[slot];
+                blue[t] = ringBlue[slot];
+            }
+            
+            // Vertical pass first: it runs over whole rows, which is where vectorization pays off
+            int weightOffset = y * vertical.stride;
+            filterRows(sumRed, red, vertical.weights, weightOffset, taps, sourceWidth);
+            filterRows(sumGreen, green, vertical.weights, weightOffset, taps, sourceWidth);
+            filterRows(sumBlue, blue, vertical.weights, weightOffset, taps, sourceWidth);
+            
+            // Then the horizontal pass on the single filtered row
+            filterRow(sumRed, sumGreen, sumBlue, horizontal, output, y * width, width);
+        }
+        
+        return target;
+    }
+    
+    private static void unpack(int[] row, float[] red, float[] green, float[] blue) {
+        for (int x = 0; x < row.length; x++) {
+            int rgb = row[x];
+            red[x] = (rgb >> 16) & 0xff;
+            green[x] = (rgb >> 8) & 0xff;
+            blue[x] = rgb & 0xff;
+        }
+    }
+    
+    /** Sums the weighted rows in order; four at a time, so the sum row is loaded and stored a quarter as often. */
+    private static void filterRows(float[] sum, float[][] rows, float[] weights, int weightOffset, int taps, int length) {
+        Arrays.fill(sum, 0, length, 0);
+        int t = 0;
+        for (; t + 3 < taps; t += 4) {
+            accumulate(sum, rows[t], weights[weightOffset + t], rows[t + 1], weights[weightOffset + t + 1],
+                       rows[t + 2], weights[weightOffset + t + 2], rows[t + 3], weights[weightOffset + t + 3], length);
+        }
+        for (; t < taps; t++) {
+            accumulate(sum, rows[t], weights[weightOffset + t], length);
+        }
+    }
+    
+    /**
+     * Filters one row horizontally, two output pixels at a time: their taps are independent, so
+     * the second pixel's additions overlap the first's instead of waiting on them. Each pixel sums
+     * its even and odd taps separately, which halves the chain of dependent additions.
+     */
+    private static void filterRow(float[] red, float[] green, float[] blue, Filter filter, int[] output, int offset, int width) {
+        int[] start = filter.start;
+        int[] count = filter.count;
+        float[] weights = filter.weights;
+        int stride = filter.stride;
+        int x = 0;
+        for (; x + 1 < width; x += 2) {
+            int first = start[x];
+            int second = start[x + 1];
+            int taps = Math.max(count[x], count[x + 1]);
+            int tapOffset = x * stride;
+            float r0 = 0;
+            float g0 = 0;
+            float b0 = 0;
+            float r1 = 0;
+            float g1 = 0;
+            float b1 = 0;
+            float r2 = 0;
+            float g2 = 0;
+            float b2 = 0;
+            float r3 = 0;
+            float g3 = 0;
+            float b3 = 0;
+            for (int t = 0; t < taps; t += 2) {
+                float weight0 = weights[tapOffset + t];
+                float weight1 = weights[tapOffset + t + 1];
+                float weight2 = weights[tapOffset + stride + t];
+                float weight3 = weights[tapOffset + stride + t + 1];
+                r0 += weight0 * red[first + t];
+                g0 += weight0 * green[first + t];
+                b0 += weight0 * blue[first + t];
+                r1 += weight1 * red[first + t + 1];
+                g1 += weight1 * green[first + t + 1];
+                b1 += weight1 * blue[first + t + 1];
+                r2 += weight2 * red[second + t];
+                g2 += weight2 * green[second + t];
+                b2 += weight2 * blue[second + t];
+                r3 += weight3 * red[second + t + 1];
+                g3 += weight3 * green[second + t + 1];
+                b3 += weight3 * blue[second + t + 1];
+            }
+            output[offset + x] = (clamp(r0 + r1) << 16) | (clamp(g0 + g1) << 8) | clamp(b0 + b1);
+            output[offset + x + 1] = (clamp(r2 + r3) << 16) | (clamp(g2 + g3) << 8) | clamp(b2 + b3);
+        }
+        if (x < width) {
+            int first = start[x];
+            int tapOffset = x * stride;
+            float r0 = 0;
+            float g0 = 0;
+            float b0 = 0;
+            float r1 = 0;
+            float g1 = 0;
+            float b1 = 0;
+            for (int t = 0; t < count[x]; t += 2) {
+                float weight0 = weights[tapOffset + t];
+                float weight1 = weights[tapOffset + t + 1];
+                r0 += weight0 * red[first + t];
+                g0 += weight0 * green[first + t];
+                b0 += weight0 * blue[first + t];
+                r1 += weight1 * red[first + t + 1];
+                g1 += weight1 * green[first + t + 1];
+                b1 += weight1 * blue[first + t + 1];
+            }
+            output[offset + x] = (clamp(r0 + r1) << 16) | (clamp(g0 + g1) << 8) | clamp(b0 + b1);
+        }
+    }
+    
+    private static void accumulate(float[] sum, float[] a, float weightA, float[] b, float weightB,
+                                   float[] c, float weightC, float[] d, float weightD, int length) {
+        for (int x = 0; x < length; x++) {
+            sum[x] = sum[x] + weightA * a[x] + weightB * b[x] + weightC * c[x] + weightD * d[x];
+        }
+    }
+    
+    private static void accumulate(float[] sum, float[] values, float weight, int length) {
+        for (int x = 0; x < length; x++) {
+            sum[x] += weight * values[x];
+        }
+    }
+    
+    /** Averages {@code factor x factor} blocks into packed RGB; blocks on the right and bottom edges may be partial. */
+    private static int[] boxReduce(RowReader reader, int sourceWidth, int sourceHeight, int factor,
+                                   int reducedWidth, int reducedHeight) {
+        int[] reduced = new int[reducedWidth * reducedHeight];
+        // Column sums of a block row; red and blue share an int, which holds up to 257 rows of them
+        int[] redBlue = new int[sourceWidth];
+        int[] green = new int[sourceWidth];
+        int[] row = new int[sourceWidth];
+        
+        for (int blockY = 0; blockY < reducedHeight; blockY++) {
+            Arrays.fill(redBlue, 0);
+            Arrays.fill(green, 0);
+            
+            int firstRow = blockY * factor;
+            int rows = Math.min(factor, sourceHeight - firstRow);
+            reader.accumulate(firstRow, rows, row, redBlue, green);
+            
+            int outputOffset = blockY * reducedWidth;
+            for (int blockX = 0, x = 0; blockX < reducedWidth; blockX++) {
+                int blockEnd = Math.min(x + factor, sourceWidth);
+                int count = rows * (blockEnd - x);
+                int r = 0;
+                int g = 0;
+                int b = 0;
+                for (; x < blockEnd; x++) {
+                    r += redBlue[x] >>> 16;
+                    g += green[x] >>> 8;
+                    b += redBlue[x] & 0xffff;
+                }
+                int half = count / 2;
+                reduced[outputOffset + blockX] = ((r + half) / count << 16) | ((g + half) / count << 8) | (b + half) / count;
+            }
+        }
+        
+        return reduced;
+    }
+    
+    private static int clamp(float value) {
+        // Lanczos lobes overshoot at sharp edges
+        int rounded = (int) (value + 0.5f);
+        return rounded < 0 ? 0 : Math.min(rounded, 255);
+    }
+    
+    private static Filter createFilter(int sourceSize, int targetSize) {
+        double scale = (double) targetSize / sourceSize;
+        // When reducing, stretch the kernel so it covers every source pixel that maps into an output pixel
+        double filterScale = Math.max(1.0, 1.0 / scale);
+        double support = LANCZOS_RADIUS * filterScale;
+        // Even, so the horizontal pass can take taps in pairs; unused taps keep a zero weight
+        int stride = ((int) Math.ceil(2 * support) + 3) & ~1;
+        
+        int[] start = new int[targetSize];
+        int[] count = new int[targetSize];
+        float[] weights = new float[targetSize * stride];
+        double[] taps = new double[stride];
+        
+        for (int i = 0; i < targetSize; i++) {
+            double center = (i + 0.5) / scale;
+            int left = Math.max(0, (int) Math.floor(center - support));
+            int right = Math.min(sourceSize - 1, (int) Math.ceil(center + support));
+            int n = Math.min(stride, right - left + 1);
+            
+            double sum = 0;
+            for (int t = 0; t < n; t++) {
+                taps[t] = lanczos((left + t + 0.5 - center) / filterScale);
+                sum += taps[t];
+            }
+            
+            // Near the edges the kernel is cut off; renormalizing keeps the brightness
+            for (int t = 0; t < n; t++) {
+                weights[i * stride + t] = (float) (sum != 0 ? taps[t] / sum : 1.0 / n);
+            }
+            start[i] = left;
+            count[i] = n;
+        }
+        
+        return new Filter(start, count, weights, stride);
+    }
+    
+    private static double lanczos(double x) {
+        if (x == 0) {
+            return 1;
+        }
+        if (x <= -LANCZOS_RADIUS || x >= LANCZOS_RADIUS) {
+            return 0;
+        }
+        double px = Math.PI * x;
+        return LANCZOS_RADIUS * Math.sin(px) * Math.sin(px / LANCZOS_RADIUS) / (px * px);
+    }
+    
+    /** Reads one source row as packed opaque RGB, directly from the raster for the common image types. */
+    private abstract static class RowReader {
+        abstract void read(int y, int[] row);
+        
+        /** Adds the rows' red and blue, packed as {@code 0x00RR00BB}, and their green, as {@code 0x0000GG00}, to the sums. */
+        void accumulate(int firstRow, int rows, int[] row, int[] redBlue, int[] green) {
+            for (int y = firstRow; y < firstRow + rows; y++) {
+                read(y, row);
+                addPixels(row, 0, redBlue, green);
+            }
+        }
+        
+        static void addPixels(int[] pixels, int offset, int[] redBlue, int[] green) {
+            for (int x = 0; x < redBlue.length; x++) {
+                int rgb = pixels[offset + x];
+                redBlue[x] += rgb & 0xff00ff;
+                green[x] += rgb & 0xff00;
+            }
+        }
+        
+        /** Adds two rows in one pass, so the sums are loaded and stored half as often. */
+        static void addPixels(int[] pixels, int offset, int nextOffset, int[] redBlue, int[] green) {
+            for (int x = 0; x < redBlue.length; x++) {
+                int rgb = pixels[offset + x];
+                int next = pixels[nextOffset + x];
+                redBlue[x] += (rgb & 0xff00ff) + (next & 0xff00ff);
+                green[x] += (rgb & 0xff00) + (next & 0xff00);
+            }
+        }
+        
+        static RowReader of(int[] pixels, int width) {
+            return new RowReader() {
+                @Override
+                void read(int y, int[] row) {
+                    System.arraycopy(pixels, y * width, row, 0, width);
+                }
+            };
+        }
+        
+        static RowReader create(BufferedImage image) {
+            Raster raster = image.getRaster();
+            int translateX = raster.getSampleModelTranslateX();
+            int translateY = raster.getSampleModelTranslateY();
+            int width = image.getWidth();
+            
+            switch (image.getType()) {
+                case BufferedImage.TYPE_INT_RGB -> {
+                    if (raster.getDataBuffer() instanceof DataBufferInt buffer
+                        && raster.getSampleModel() instanceof SinglePixelPackedSampleModel model) {
+                        int[] data = buffer.getData();
+                        return new RowReader() {
+                            @Override
+                            void read(int y, int[] row) {
+                                System.arraycopy(data, offset(y), row, 0, width);
+                            }
+                            
+                            @Override
+                            void accumulate(int firstRow, int rows, int[] row, int[] redBlue, int[] green) {
+                                int y = firstRow;
+                                for (; y + 1 < firstRow + rows; y += 2) {
+                                    addPixels(data, offset(y), offset(y + 1), redBlue, green);
+                                }
+                                if (y < firstRow + rows) {
+                                    addPixels(data, offset(y), redBlue, green);
+                                }
+                            }
+                            
+                            private int offset(int y) {
+                                return buffer.getOffset() + model.getOffset(-translateX, y - translateY);
+                            }
+                        };
+                    }
+                }
+                case BufferedImage.TYPE_3BYTE_BGR -> {
+                    if (raster.getDataBuffer() instanceof DataBufferByte buffer
+                        && raster.getSampleModel() instanceof ComponentSampleModel model
+                        && model.getPixelStride() == 3) {
+                        byte[] data = buffer.getData();
+                        int[] bandOffsets = model.getBandOffsets();
+                        return new RowReader() {
+                            @Override
+                            void read(int y, int[] row) {
+                                int offset = buffer.getOffset() + (y - translateY) * model.getScanlineStride() - translateX * 3;
+                                for (int x = 0; x < width; x++, offset += 3) {
+                                    row[x] = ((data[offset + bandOffsets[0]] & 0xff) << 16)
+                                        | ((data[offset + bandOffsets[1]] & 0xff) << 8)
+                                        | (data[offset + bandOffsets[2]] & 0xff);
+                                }
+                            }
+                        };
+                    }
+                }
+                case BufferedImage.TYPE_BYTE_GRAY -> {
+                    if (raster.getDataBuffer() instanceof DataBufferByte buffer
+                        && raster.getSampleModel() instanceof ComponentSampleModel model
+                        && model.getPixelStride() == 1) {
+                        byte[] data = buffer.getData();
+                        return new RowReader() {
+                            @Override
+                            void read(int y, int[] row) {
+                                int offset = buffer.getOffset() + (y - translateY) * model.getScanlineStride() - translateX
+                                    + model.getBandOffsets()[0];
+                                for (int x = 0; x < width; x++) {
+                                    int gray = data[offset + x] & 0xff;
+                                    row[x] = (gray << 16) | (gray << 8) | gray;
+                                }
+                            }
+                        };
+                    }
+                }
+                default -> {
+                    // Other layouts go through the color model below
+                }
+            }
+            
+            boolean hasAlpha = image.getColorModel().hasAlpha();
+            return new RowReader() {
+                @Override
+                void read(int y, int[] row) {
+                    image.getRGB(0, y, width, 1, row, 0, width);
+                    if (hasAlpha) {
+                        for (int x = 0; x < width; x++) {
+                            row[x] = compositeOverBlack(row[x]);
+                        }
+                    }
+                }
+            };
+        }
+        
+        private static int compositeOverBlack(int argb) {
+            int alpha = argb >>> 24;
+            if (alpha == 255) {
+                return argb & 0xffffff;
+            }
+            int r = ((argb >> 16) & 0xff) * alpha / 255;
+            int g = ((argb >> 8) & 0xff) * alpha / 255;
+            int b = (argb & 0xff) * alpha / 255;
+            return (r << 16) | (g << 8) | b;
+        }
+    }
+}
@@ -0,0 +1,981 @@
+package com.mediaindexer.thumbnail;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Minimal JPEG decoder that reconstructs images at 1/2, 1/4 or 1/8 scale in the DCT domain, the
+ * way libjpeg's reduced IDCTs do: each 8x8 block is inverse transformed from its lowest N x N
+ * coefficients straight into N x N pixels, so the full-resolution image is never built.
+ * At 1/8 only the DC coefficient is used and progressive AC scans are skipped without decoding.
+ * <p>
+ * Handles 8-bit Huffman-coded baseline, extended sequential and progressive files with one
+ * (grayscale) or three (YCbCr or RGB) components. Anything else, including CMYK, arithmetic
+ * coding and embedded non-sRGB color profiles, is rejected with an {@link IOException} so the
+ * caller can fall back to ImageIO.
+ */
+final class ScaledJpegDecoder {
+    private static final int LOOKAHEAD = 9;
+    
+    private static final int[] ZIGZAG_TO_NATURAL = {
+         0,  1,  8, 16,  9,  2,  3, 10,
+        17, 24, 32, 25, 18, 11,  4,  5,
+        12, 19, 26, 33, 40, 48, 41, 34,
+        27, 20, 13,  6,  7, 14, 21, 28,
+        35, 42, 49, 56, 57, 50, 43, 36,
+        29, 22, 15, 23, 30, 37, 44, 51,
+        58, 59, 52, 45, 38, 31, 39, 46,
+        53, 60, 61, 54, 47, 55, 62, 63
+    };
+    private static final int[] NATURAL_TO_ZIGZAG = new int[64];
+    
+    static {
+        for (int i = 0; i < 64; i++) {
+            NATURAL_TO_ZIGZAG[ZIGZAG_TO_NATURAL[i]] = i;
+        }
+    }
+    
+    private static final class HuffmanTable {
+        final int[] lookup = new int[1 << LOOKAHEAD];
+        final int[] maxCode = new int[17];
+        final int[] valueOffset = new int[17];
+        final byte[] symbols;
+        
+        HuffmanTable(int[] counts, byte[] symbols) throws IOException {
+            this.symbols = symbols;
+            int code = 0;
+            int index = 0;
+            for (int length = 1; length <= 16; length++) {
+                valueOffset[length] = index - code;
+                for (int i = 0; i < counts[length - 1]; i++) {
+                    if (code >= (1 << length)) {
+                        throw new IOException("Invalid Huffman table");
+                    }
+                    if (length <= LOOKAHEAD) {
+                        int shift = LOOKAHEAD - length;
+                        int entry = (length << 8) | (symbols[index] & 0xff);
+                        for (int j = code << shift, end = (code + 1) << shift; j < end; j++) {
+                            lookup[j] = entry;
+                        }
+                    }
+                    code++;
+                    index++;
+                }
+                maxCode[length] = counts[length - 1] > 0 ? code - 1 : -1;
+                code <<= 1;
+            }
+        }
+    }
+    
+    private static final class Component {
+        final int id;
+        final int h;
+        final int v;
+        final int quantTable;
+        int dcTable;
+        int acTable;
+        int blocksPerLine;
+        int blocksPerColumn;
+        int blockSize;
+        int coefficientsPerBlock;
+        short[] coefficients;
+        int dcPredictor;
+        
+        Component(int id, int h, int v, int quantTable) {
+            this.id = id;
+            this.h = h;
+            this.v = v;
+            this.quantTable = quantTable;
+        }
+    }
+    
+    private final byte[] data;
+    private final int offset;
+    private final int end;
+    private int pos;
+    
+    private final int[][] quantTables = new int[4][];
+    private final HuffmanTable[] dcTables = new HuffmanTable[4];
+    private final HuffmanTable[] acTables = new HuffmanTable[4];
+    private Component[] components;
+    private int width;
+    private int height;
+    private int maxH;
+    private int maxV;
+    private int mcusPerLine;
+    private int mcusPerColumn;
+    private boolean progressive;
+    private int restartInterval;
+    private int adobeTransform = -1;
+    
+    private int scale;
+    private DecodeWatchdog.Deadline deadline;
+    private RasterPool rasterPool = new RasterPool(0, 0);
+    
+    private int bitBuffer;
+    private int bitCount;
+    private boolean markerHit;
+    private int eobRun;
+    
+    ScaledJpegDecoder(byte[] data, int length) {
+        this(data, 0, length);
+    }
+    
+    /** Decodes the JPEG stream at {@code data[offset, offset + length)}, such as a preview embedded in another file. */
+    ScaledJpegDecoder(byte[] data, int offset, int length) {
+        this.data = data;
+        this.offset = offset;
+        this.end = offset + length;
+    }
+    
+    static boolean isJpeg(byte[] data, int length) {
+        return isJpeg(data, 0, length);
+    }
+    
+    static boolean isJpeg(byte[] data, int offset, int length) {
+        return length > 3 && offset >= 0 && offset + length <= data.length
+            && (data[offset] & 0xff) == 0xFF && (data[offset + 1] & 0xff) == 0xD8 && (data[offset + 2] & 0xff) == 0xFF;
+    }
+    
+    /**
+     * Parses tables and the frame header, stopping at the first scan. Afterwards
+     * {@link #getWidth()} and {@link #getHeight()} are valid.
+     */
+    void readHeader() throws IOException {
+        pos = offset + 2;
+        while (components == null || nextMarkerIsNotScan()) {
+            int marker = readMarker();
+            handleMarker(marker);
+        }
+    }
+    
+    int getWidth() {
+        return width;
+    }
+    
+    int getHeight() {
+        return height;
+    }
+    
+    /** Makes {@link #decode(int)} give up with an {@link IOException} once the deadline expires. */
+    void setDeadline(DecodeWatchdog.Deadline deadline) {
+        this.deadline = deadline;
+    }
+    
+    /** Takes the coefficients, sample planes and output pixels from the pool, and returns all but the output to it. */
+    void setRasterPool(RasterPool rasterPool) {
+        this.rasterPool = rasterPool;
+    }
+    
+    /** Decodes the image at 1/{@code denominator} scale, where the denominator is 1, 2, 4 or 8. */
+    BufferedImage decode(int denominator) throws IOException {
+        if (denominator != 1 && denominator != 2 && denominator != 4 && denominator != 8) {
+            throw new IllegalArgumentException("Unsupported scale denominator: " + denominator);
+        }
+        scale = 8 / denominator;
+        
+        for (Component component : components) {
+            component.blockSize = blockSize(component, scale);
+            component.coefficientsPerBlock = coefficientsPerBlock(component.blockSize);
+            component.coefficients = rasterPool.acquireShorts(
+                component.blocksPerLine * component.blocksPerColumn * component.coefficientsPerBlock, true);
+        }
+        
+        while (true) {
+            int marker = readMarker();
+            if (marker == 0xD9) {
+                break;
+            }
+            if (marker == 0xDA) {
+                readScan();
+            } else {
+                handleMarker(marker);
+            }
+        }
+        
+        return buildImage();
+    }
+    
+    /**
+     * Bytes {@link #decode(int)} allocates at the given scale: the coefficients, the sample
+     * planes and the output image. Valid after {@link #readHeader()}.
+     */
+    long estimateMemory(int denominator) {
+        int outputScale = 8 / denominator;
+        long bytes = 0;
+        for (Component component : components) {
+            int n = blockSize(component, outputScale);
+            long blocks = (long) component.blocksPerLine * component.blocksPerColumn;
+            bytes += blocks * coefficientsPerBlock(n) * Short.BYTES + blocks * n * n;
+        }
+        long outputPixels = (long) ((width * outputScale + 7) / 8) * ((height * outputScale + 7) / 8);
+        return bytes + outputPixels * (components.length == 1 ? 1 : Integer.BYTES);
+    }
+    
+    private int blockSize(Component component, int outputScale) {
+        // Subsampled chroma is reconstructed at a larger block size so it lands at output resolution
+        if (component.h * maxV == component.v * maxH) {
+            return Math.min(8, outputScale * maxH / component.h);
+        }
+        return outputScale;
+    }
+    
+    private int coefficientsPerBlock(int n) {
+        // Progressive scans refine coefficients in place, so all 64 are kept unless only DC is needed
+        return progressive
+            ? (n == 1 ? 1 : 64)
+            : NATURAL_TO_ZIGZAG[(n - 1) * 8 + (n - 1)] + 1;
+    }
+    
+    private boolean nextMarkerIsNotScan() throws IOException {
+        int p = pos;
+        while (p < end && (data[p] & 0xff) == 0xFF) {
+            p++;
+        }
+        if (p >= end) {
+            throw new IOException("Unexpected end of JPEG data");
+        }
+        return (data[p] & 0xff) != 0xDA;
+    }
+    
+    private int readMarker() throws IOException {
+        if (pos >= end || (data[pos] & 0xff) != 0xFF) {
+            throw new IOException("Expected JPEG marker at offset " + pos);
+        }
+        while (pos < end && (data[pos] & 0xff) == 0xFF) {
+            pos++;
+        }
+        if (pos >= end) {
+            throw new IOException("Unexpected end of JPEG data");
+        }
+        return data[pos++] & 0xff;
+    }
+    
+    private int readUnsignedShort() throws IOException {
+        if (pos + 2 > end) {
+            throw new IOException("Unexpected end of JPEG data");
+        }
+        int value = ((data[pos] & 0xff) << 8) | (data[pos + 1] & 0xff);
+        pos += 2;
+        return value;
+    }
+    
+    private void handleMarker(int marker) throws IOException {
+        int segmentStart = pos;
+        int segmentLength = readUnsignedShort();
+        int segmentEnd = segmentStart + segmentLength;
+        if (segmentLength < 2 || segmentEnd > end) {
+            throw new IOException("Invalid JPEG segment length");
+        }
+        
+        switch (marker) {
+            case 0xC0, 0xC1 -> readFrame(false);
+            case 0xC2 -> readFrame(true);
+            case 0xC3, 0xC5, 0xC6, 0xC7, 0xC9, 0xCA, 0xCB, 0xCD, 0xCE, 0xCF ->
+                throw new IOException("Unsupported JPEG process: SOF" + (marker - 0xC0));
+            case 0xC4 -> readHuffmanTables(segmentEnd);
+            case 0xDB -> readQuantizationTables(segmentEnd);
+            case 0xDD -> restartInterval = readUnsignedShort();
+            case 0xE2 -> checkColorProfile(segmentEnd);
+            case 0xEE -> readAdobeSegment(segmentEnd);
+            case 0xDC -> throw new IOException("DNL marker not supported");
+            default -> {
+                // APPn, COM and other segments carry nothing the decoder needs
+            }
+        }
+        pos = segmentEnd;
+    }
+    
+    private void readFrame(boolean progressiveFrame) throws IOException {
+        if (components != null) {
+            throw new IOException("Multiple frames not supported");
+        }
+        progressive = progressiveFrame;
+        int precision = data[pos++] & 0xff;
+        height = readUnsignedShort();
+        width = readUnsignedShort();
+        int componentCount = data[pos++] & 0xff;
+        if (precision != 8) {
+            throw new IOException("Unsupported sample precision: " + precision);
+        }
+        if (width == 0 || height == 0) {
+            throw new IOException("Missing image dimensions");
+        }
+        if (componentCount != 1 && componentCount != 3) {
+            throw new IOException("Unsupported component count: " + componentCount);
+        }
+        
+        components = new Component[componentCount];
+        for (int i = 0; i < componentCount; i++) {
+            int id = data[pos++] & 0xff;
+            int sampling = data[pos++] & 0xff;
+            int quantTable = data[pos++] & 0xff;
+            int h = sampling >> 4;
+            int v = sampling & 0x0f;
+            if (h < 1 || h > 4 || v < 1 || v > 4 || quantTable > 3) {
+                throw new IOException("Invalid component parameters");
+            }
+            components[i] = new Component(id, h, v, quantTable);
+            maxH = Math.max(maxH, h);
+            maxV = Math.max(maxV, v);
+        }
+        
+        mcusPerLine = (width + 8 * maxH - 1) / (8 * maxH);
+        mcusPerColumn = (height + 8 * maxV - 1) / (8 * maxV);
+        for (Component component : components) {
+            component.blocksPerLine = mcusPerLine * component.h;
+            component.blocksPerColumn = mcusPerColumn * component.v;
+        }
+    }
+    
+    private void readHuffmanTables(int segmentEnd) throws IOException {
+        while (pos < segmentEnd) {
+            int info = data[pos++] & 0xff;
+            int tableClass = info >> 4;
+            int tableId = info & 0x0f;
+            if (tableClass > 1 || tableId > 3) {
+                throw new IOException("Invalid Huffman table id");
+            }
+            
+            int[] counts = new int[16];
+            int total = 0;
+            for (int i = 0; i < 16; i++) {
+                counts[i] = data[pos++] & 0xff;
+                total += counts[i];
+            }
+            if (total > 256 || pos + total > segmentEnd) {
+                throw new IOException("Invalid Huffman table");
+            }
+            byte[] symbols = new byte[total];
+            System.arraycopy(data, pos, symbols, 0, total);
+            pos += total;
+            
+            HuffmanTable table = new HuffmanTable(counts, symbols);
+            if (tableClass == 0) {
+                dcTables[tableId] = table;
+            } else {
+                acTables[tableId] = table;
+            }
+        }
+    }
+    
+    private void readQuantizationTables(int segmentEnd) throws IOException {
+        while (pos < segmentEnd) {
+            int info = data[pos++] & 0xff;
+            int tablePrecision = info >> 4;
+            int tableId = info & 0x0f;
+            if (tableId > 3 || tablePrecision > 1) {
+                throw new IOException("Invalid quantization table");
+            }
+            
+            int[] table = new int[64];
+            for (int i = 0; i < 64; i++) {
+                table[i] = tablePrecision == 0 ? data[pos++] & 0xff : readUnsignedShort();
+            }
+            quantTables[tableId] = table;
+        }
+    }
+    
+    private void checkColorProfile(int segmentEnd) throws IOException {
+        byte[] signature = "ICC_PROFILE\0".getBytes(StandardCharsets.US_ASCII);
+        if (!startsWith(signature, segmentEnd)) {
+            return;
+        }
+        // Without color management only profiles that describe sRGB render correctly
+        byte[] srgb = "sRGB".getBytes(StandardCharsets.US_ASCII);
+        for (int i = pos; i + srgb.length <= segmentEnd; i++) {
+            if (regionMatches(i, srgb)) {
+                return;
+            }
+        }
+        throw new IOException("Embedded color profile requires color management");
+    }
+    
+    private void readAdobeSegment(int segmentEnd) {
+        byte[] signature = "Adobe".getBytes(StandardCharsets.US_ASCII);
+        if (startsWith(signature, segmentEnd) && pos + 11 < segmentEnd) {
+            adobeTransform = data[pos + 11] & 0xff;
+        }
+    }
+    
+    private boolean startsWith(byte[] signature, int segmentEnd) {
+        return pos + signature.length <= segmentEnd && regionMatches(pos, signature);
+    }
+    
+    private boolean regionMatches(int offset, byte[] expected) {
+        for (int i = 0; i < expected.length; i++) {
+            if (data[offset + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private void readScan() throws IOException {
+        if (components == null) {
+            throw new IOException("Scan before frame header");
+        }
+        int segmentStart = pos;
+        int segmentLength = readUnsignedShort();
+        int componentCount = data[pos++] & 0xff;
+        if (componentCount < 1 || componentCount > components.length) {
+            throw new IOException("Invalid scan component count");
+        }
+        
+        Component[] scanComponents = new Component[componentCount];
+        for (int i = 0; i < componentCount; i++) {
+            int id = data[pos++] & 0xff;
+            int tables = data[pos++] & 0xff;
+            Component component = findComponent(id);
+            component.dcTable = tables >> 4;
+            component.acTable = tables & 0x0f;
+            if (component.dcTable > 3 || component.acTable > 3) {
+                throw new IOException("Invalid Huffman table selector");
+            }
+            scanComponents[i] = component;
+        }
+        int spectralStart = data[pos++] & 0xff;
+        int spectralEnd = data[pos++] & 0xff;
+        int approximation = data[pos++] & 0xff;
+        pos = segmentStart + segmentLength;
+        
+        if (spectralStart > spectralEnd || spectralEnd > 63) {
+            throw new IOException("Invalid spectral selection");
+        }
+        
+        if (progressive && componentCount == 1 && spectralStart >= scanComponents[0].coefficientsPerBlock) {
+            // None of the coefficients in this scan contribute at the requested scale
+            seekMarker();
+            return;
+        }
+        
+        decodeScan(scanComponents, spectralStart, spectralEnd, approximation >> 4, approximation & 0x0f);
+        seekMarker();
+    }
+    
+    private Component findComponent(int id) throws IOException {
+        for (Component component : components) {
+            if (component.id == id) {
+                return component;
+            }
+        }
+        throw new IOException("Scan references unknown component " + id);
+    }
+    
+    private void decodeScan(Component[] scanComponents, int spectralStart, int spectralEnd,
+                            int successiveHigh, int successiveLow) throws IOException {
+        resetEntropyDecoder(scanComponents);
+        
+        int scanMcusPerLine;
+        int scanMcusPerColumn;
+        if (scanComponents.length == 1) {
+            // Non-interleaved scans cover only the component's own blocks, without MCU padding
+            Component component = scanComponents[0];
+            int componentWidth = (width * component.h + maxH - 1) / maxH;
+            int componentHeight = (height * component.v + maxV - 1) / maxV;
+            scanMcusPerLine = (componentWidth + 7) / 8;
+            scanMcusPerColumn = (componentHeight + 7) / 8;
+        } else {
+            scanMcusPerLine = mcusPerLine;
+            scanMcusPerColumn = mcusPerColumn;
+        }
+        
+        int mcuCount = 0;
+        for (int mcuY = 0; mcuY < scanMcusPerColumn; mcuY++) {
+            if (deadline != null && deadline.isExpired()) {
+                throw new IOException("Decoding timed out");
+            }
+            for (int mcuX = 0; mcuX < scanMcusPerLine; mcuX++) {
+                if (restartInterval > 0 && mcuCount > 0 && mcuCount % restartInterval == 0) {
+                    processRestart(scanComponents);
+                }
+                mcuCount++;
+                
+                if (scanComponents.length == 1) {
+                    Component component = scanComponents[0];
+                    int offset = (mcuY * component.blocksPerLine + mcuX) * component.coefficientsPerBlock;
+                    decodeBlock(component, offset, spectralStart, spectralEnd, successiveHigh, successiveLow);
+                    continue;
+                }
+                
+                for (Component component : scanComponents) {
+                    for (int v = 0; v < component.v; v++) {
+                        for (int h = 0; h < component.h; h++) {
+                            int blockRow = mcuY * component.v + v;
+                            int blockColumn = mcuX * component.h + h;
+                            int offset = (blockRow * component.blocksPerLine + blockColumn) * component.coefficientsPerBlock;
+                            decodeBlock(component, offset, spectralStart, spectralEnd, successiveHigh, successiveLow);
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
+    private void decodeBlock(Component component, int offset, int spectralStart, int spectralEnd,
+                             int successiveHigh, int successiveLow) throws IOException {
+        if (!progressive) {
+            decodeBaseline(component, offset);
+        } else if (spectralStart == 0) {
+            if (successiveHigh == 0) {
+                decodeDcFirst(component, offset, successiveLow);
+            } else {
+                decodeDcRefine(component, offset, successiveLow);
+            }
+        } else if (successiveHigh == 0) {
+            decodeAcFirst(component, offset, spectralStart, spectralEnd, successiveLow);
+        } else {
+            decodeAcRefine(component, offset, spectralStart, spectralEnd, successiveLow);
+        }
+    }
+    
+    private void decodeBaseline(Component component, int offset) throws IOException {
+        short[] coefficients = component.coefficients;
+        int t = decodeHuffman(dcTable(component));
+        component.dcPredictor += t == 0 ? 0 : receiveExtend(t);
+        coefficients[offset] = (short) component.dcPredictor;
+        
+        HuffmanTable acTable = acTable(component);
+        int k = 1;
+        while (k < 64) {
+            int rs = decodeHuffman(acTable);
+            int s = rs & 0x0f;
+            int r = rs >> 4;
+            if (s == 0) {
+                if (r != 15) {
+                    break;
+                }
+                k += 16;
+                continue;
+            }
+            k += r;
+            if (k > 63) {
+                throw new IOException("Coefficient index out of range");
+            }
+            int value = receiveExtend(s);
+            // Coefficients beyond the reduced block are decoded only to advance the bitstream
+            if (k < component.coefficientsPerBlock) {
+                coefficients[offset + k] = (short) value;
+            }
+            k++;
+        }
+    }
+    
+    private void decodeDcFirst(Component component, int offset, int successiveLow) throws IOException {
+        int t = decodeHuffman(dcTable(component));
+        component.dcPredictor += t == 0 ? 0 : receiveExtend(t);
+        component.coefficients[offset] = (short) (component.dcPredictor << successiveLow);
+    }
+    
+    private void decodeDcRefine(Component component, int offset, int successiveLow) throws IOException {
+        if (readBit() != 0) {
+            component.coefficients[offset] |= (short) (1 << successiveLow);
+        }
+    }
+    
+    private void decodeAcFirst(Component component, int offset, int spectralStart, int spectralEnd,
+                               int successiveLow) throws IOException {
+        if (eobRun > 0) {
+            eobRun--;
+            return;
+        }
+        
+        HuffmanTable acTable = acTable(component);
+        int k = spectralStart;
+        while (k <= spectralEnd) {
+            int rs = decodeHuffman(acTable);
+            int s = rs & 0x0f;
+            int r = rs >> 4;
+            if (s == 0) {
+                if (r < 15) {
+                    eobRun = (1 << r) - 1 + receive(r);
+                    break;
+                }
+                k += 16;
+                continue;
+            }
+            k += r;
+            if (k > 63) {
+                throw new IOException("Coefficient index out of range");
+            }
+            component.coefficients[offset + k] = (short) (receiveExtend(s) * (1 << successiveLow));
+            k++;
+        }
+    }
+    
+    private void decodeAcRefine(Component component, int offset, int spectralStart, int spectralEnd,
+                                int successiveLow) throws IOException {
+        short[] coefficients = component.coefficients;
+        int positive = 1 << successiveLow;
+        int negative = -1 << successiveLow;
+        int k = spectralStart;
+        
+        if (eobRun == 0) {
+            HuffmanTable acTable = acTable(component);
+            for (; k <= spectralEnd; k++) {
+                int rs = decodeHuffman(acTable);
+                int s = rs & 0x0f;
+                int r = rs >> 4;
+                int value = 0;
+                if (s == 0) {
+                    if (r < 15) {
+                        eobRun = (1 << r) + receive(r);
+                        break;
+                    }
+                } else {
+                    value = readBit() != 0 ? positive : negative;
+                }
+                
+                // Refine nonzero coefficients while skipping r zero-history ones
+                while (k <= spectralEnd) {
+                    int index = offset + k;
+                    if (coefficients[index] != 0) {
+                        refineCoefficient(coefficients, index, positive, negative);
+                    } else {
+                        if (r == 0) {
+                            break;
+                        }
+                        r--;
+                    }
+                    k++;
+                }
+                if (value != 0 && k <= spectralEnd) {
+                    coefficients[offset + k] = (short) value;
+                }
+            }
+        }
+        
+        if (eobRun > 0) {
+            for (; k <= spectralEnd; k++) {
+                int index = offset + k;
+                if (coefficients[index] != 0) {
+                    refineCoefficient(coefficients, index, positive, negative);
+                }
+            }
+            eobRun--;
+        }
+    }
+    
+    private void refineCoefficient(short[] coefficients, int index, int positive, int negative) throws IOException {
+        if (readBit() != 0 && (coefficients[index] & positive) == 0) {
+            coefficients[index] += (short) (coefficients[index] >= 0 ? positive : negative);
+        }
+    }
+    
+    private HuffmanTable dcTable(Component component) throws IOException {
+        HuffmanTable table = dcTables[component.dcTable];
+        if (table == null) {
+            throw new IOException("Missing DC Huffman table " + component.dcTable);
+        }
+        return table;
+    }
+    
+    private HuffmanTable acTable(Component component) throws IOException {
+        HuffmanTable table = acTables[component.acTable];
+        if (table == null) {
+            throw new IOException("Missing AC Huffman table " + component.acTable);
+        }
+        return table;
+    }
+    
+    private void resetEntropyDecoder(Component[] scanComponents) {
+        bitBuffer = 0;
+        bitCount = 0;
+        markerHit = false;
+        eobRun = 0;
+        for (Component component : scanComponents) {
+            component.dcPredictor = 0;
+        }
+    }
+    
+    private void processRestart(Component[] scanComponents) throws IOException {
+        // Skip to the RSTn marker; any buffered bits are byte padding before it
+        while (pos + 1 < end) {
+            int b = data[pos] & 0xff;
+            int next = data[pos + 1] & 0xff;
+            if (b == 0xFF && next >= 0xD0 && next <= 0xD7) {
+                pos += 2;
+                resetEntropyDecoder(scanComponents);
+                return;
+            }
+            if (b == 0xFF && next != 0 && next != 0xFF) {
+                throw new IOException("Expected restart marker at offset " + pos);
+            }
+            pos++;
+        }
+        throw new IOException("Unexpected end of JPEG data");
+    }
+    
+    /** Positions {@link #pos} on the next marker that is not a restart marker. */
+    private void seekMarker() throws IOException {
+        while (pos + 1 < end) {
+            if ((data[pos] & 0xff) == 0xFF) {
+                int next = data[pos + 1] & 0xff;
+                if (next != 0 && next != 0xFF && (next < 0xD0 || next > 0xD7)) {
+                    return;
+                }
+            }
+            pos++;
+        }
+        throw new IOException("Unexpected end of JPEG data");
+    }
+    
+    private void fillBits() {
+        while (bitCount <= 24) {
+            int b = 0;
+            if (!markerHit && pos < end) {
+                b = data[pos] & 0xff;
+                if (b == 0xFF) {
+                    int next = pos + 1 < end ? data[pos + 1] & 0xff : 0;
+                    if (next == 0) {
+                        pos += 2;
+                    } else {
+                        // A marker ends the entropy-coded data; feed zeros from here on
+                        markerHit = true;
+                        b = 0;
+                    }
+                } else {
+                    pos++;
+                }
+            }
+            bitBuffer |= b << (24 - bitCount);
+            bitCount += 8;
+        }
+    }
+    
+    private int readBit() {
+        fillBits();
+        int bit = bitBuffer >>> 31;
+        bitBuffer <<= 1;
+        bitCount--;
+        return bit;
+    }
+    
+    private int receive(int bits) {
+        if (bits == 0) {
+            return 0;
+        }
+        fillBits();
+        int value = bitBuffer >>> (32 - bits);
+        bitBuffer <<= bits;
+        bitCount -= bits;
+        return value;
+    }
+    
+    private int receiveExtend(int bits) {
+        int value = receive(bits);
+        return value < (1 << (bits - 1)) ? value - (1 << bits) + 1 : value;
+    }
+    
+    private int decodeHuffman(HuffmanTable table) throws IOException {
+        fillBits();
+        int entry = table.lookup[bitBuffer >>> (32 - LOOKAHEAD)];
+        if (entry != 0) {
+            int codeLength = entry >> 8;
+            bitBuffer <<= codeLength;
+            bitCount -= codeLength;
+            return entry & 0xff;
+        }
+        
+        for (int codeLength = LOOKAHEAD + 1; codeLength <= 16; codeLength++) {
+            int code = bitBuffer >>> (32 - codeLength);
+            if (code <= table.maxCode[codeLength]) {
+                bitBuffer <<= codeLength;
+                bitCount -= codeLength;
+                return table.symbols[code + table.valueOffset[codeLength]] & 0xff;
+            }
+        }
+        throw new IOException("Corrupt Huffman code");
+    }
+    
+    private BufferedImage buildImage() throws IOException {
+        int outputWidth = (width * scale + 7) / 8;
+        int outputHeight = (height * scale + 7) / 8;
+        
+        byte[][] planes = new byte[components.length][];
+        for (int i = 0; i < components.length; i++) {
+            planes[i] = inverseTransform(components[i]);
+            rasterPool.release(components[i].coefficients);
+            components[i].coefficients = null;
+        }
+        
+        try {
+            return components.length == 1 ? buildGrayImage(planes[0], outputWidth, outputHeight)
+                : buildColorImage(planes, outputWidth, outputHeight);
+        } finally {
+            for (byte[] plane : planes) {
+                rasterPool.release(plane);
+            }
+        }
+    }
+    
+    private BufferedImage buildGrayImage(byte[] plane, int outputWidth, int outputHeight) {
+        BufferedImage image = new BufferedImage(outputWidth, outputHeight, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        int planeWidth = components[0].blocksPerLine * components[0].blockSize;
+        for (int y = 0; y < outputHeight; y++) {
+            System.arraycopy(plane, y * planeWidth, pixels, y * outputWidth, outputWidth);
+        }
+        return image;
+    }
+    
+    private BufferedImage buildColorImage(byte[][] planes, int outputWidth, int outputHeight) {
+        boolean rgb = adobeTransform == 0
+            || (adobeTransform < 0 && components[0].id == 'R' && components[1].id == 'G' && components[2].id == 'B');
+        
+        // The pooled array may be longer than the image; every pixel of the image is written below
+        BufferedImage image = rasterPool.acquireImage(outputWidth, outputHeight);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        int[][] columnOffsets = new int[3][outputWidth];
+        int[] planeWidths = new int[3];
+        for (int c = 0; c < 3; c++) {
+            Component component = components[c];
+            planeWidths[c] = component.blocksPerLine * component.blockSize;
+            for (int x = 0; x < outputWidth; x++) {
+                columnOffsets[c][x] = x * component.h * component.blockSize / (maxH * scale);
+            }
+        }
+        
+        for (int y = 0; y < outputHeight; y++) {
+            int row0 = planeRow(components[0], y) * planeWidths[0];
+            int row1 = planeRow(components[1], y) * planeWidths[1];
+            int row2 = planeRow(components[2], y) * planeWidths[2];
+            int outputOffset = y * outputWidth;
+            for (int x = 0; x < outputWidth; x++) {
+                int c0 = planes[0][row0 + columnOffsets[0][x]] & 0xff;
+                int c1 = planes[1][row1 + columnOffsets[1][x]] & 0xff;
+                int c2 = planes[2][row2 + columnOffsets[2][x]] & 0xff;
+                pixels[outputOffset + x] = rgb ? (c0 << 16) | (c1 << 8) | c2 : yCbCrToRgb(c0, c1, c2);
+            }
+        }
+        return image;
+    }
+    
+    private int planeRow(Component component, int outputRow) {
+        return outputRow * component.v * component.blockSize / (maxV * scale);
+    }
+    
+    private static int yCbCrToRgb(int y, int cb, int cr) {
+        // ITU-R BT.601 full range, 16-bit fixed point
+        cb -= 128;
+        cr -= 128;
+        int r = y + ((91881 * cr + 32768) >> 16);
+        int g = y - ((22554 * cb + 46802 * cr - 32768) >> 16);
+        int b = y + ((116130 * cb + 32768) >> 16);
+        return (clamp(r) << 16) | (clamp(g) << 8) | clamp(b);
+    }
+    
+    private static int clamp(int value) {
+        return value < 0 ? 0 : Math.min(value, 255);
+    }
+    
+    private byte[] inverseTransform(Component component) throws IOException {
+        int[] quantTable = quantTables[component.quantTable];
+        if (quantTable == null) {
+            throw new IOException("Missing quantization table " + component.quantTable);
+        }
+        
+        int n = component.blockSize;
+        int planeWidth = component.blocksPerLine * n;
+        byte[] plane = rasterPool.acquireBytes(planeWidth * component.blocksPerColumn * n);
+        short[] coefficients = component.coefficients;
+        float[] basis = idctBasis(n);
+        int[] zigzagIndex = new int[n * n];
+        for (int v = 0; v < n; v++) {
+            for (int u = 0; u < n; u++) {
+                zigzagIndex[v * n + u] = NATURAL_TO_ZIGZAG[v * 8 + u];
+            }
+        }
+        
+        float[] input = new float[n * n];
+        float[] rows = new float[n * n];
+        for (int blockRow = 0; blockRow < component.blocksPerColumn; blockRow++) {
+            for (int blockColumn = 0; blockColumn < component.blocksPerLine; blockColumn++) {
+                int offset = (blockRow * component.blocksPerLine + blockColumn) * component.coefficientsPerBlock;
+                int planeOffset = blockRow * n * planeWidth + blockColumn * n;
+                
+                if (n == 1) {
+                    // The DC coefficient is eight times the block average
+                    plane[planeOffset] = (byte) clamp((int) (coefficients[offset] * quantTable[0] / 8f + 128.5f));
+                    continue;
+                }
+                
+                // Most high-frequency coefficients are zero; track which rows carry any energy
+                int nonZeroRows = 0;
+                for (int i = 0; i < n * n; i++) {
+                    int k = zigzagIndex[i];
+                    int value = coefficients[offset + k] * quantTable[k];
+                    input[i] = value;
+                    if (value != 0) {
+                        nonZeroRows |= 1 << (i / n);
+                    }
+                }
+                
+                if ((nonZeroRows & ~1) == 0 && isFlatRow(input, n)) {
+                    byte level = (byte) clamp((int) (input[0] * basis[0] * basis[0] + 128.5f));
+                    for (int y = 0; y < n; y++) {
+                        Arrays.fill(plane, planeOffset + y * planeWidth, planeOffset + y * planeWidth + n, level);
+                    }
+                    continue;
+                }
+                
+                // Horizontal pass: rows[v][x] = sum_u basis[x][u] * input[v][u]
+                for (int v = 0; v < n; v++) {
+                    if ((nonZeroRows & (1 << v)) == 0) {
+                        continue;
+                    }
+                    for (int x = 0; x < n; x++) {
+                        float sum = 0;
+                        for (int u = 0; u < n; u++) {
+                            sum += basis[x * n + u] * input[v * n + u];
+                        }
+                        rows[v * n + x] = sum;
+                    }
+                }
+                
+                // Vertical pass straight into the plane
+                for (int y = 0; y < n; y++) {
+                    int rowOffset = planeOffset + y * planeWidth;
+                    for (int x = 0; x < n; x++) {
+                        float sum = 128.5f;
+                        for (int v = 0; v < n; v++) {
+                            if ((nonZeroRows & (1 << v)) != 0) {
+                                sum += basis[y * n + v] * rows[v * n + x];
+                            }
+                        }
+                        plane[rowOffset + x] = (byte) clamp((int) sum);
+                    }
+                }
+            }
+        }
+        return plane;
+    }
+    
+    private static boolean isFlatRow(float[] input, int n) {
+        for (int u = 1; u < n; u++) {
+            if (input[u] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * N-point IDCT basis for the lowest N frequencies of an 8-point DCT, scaled so that a flat
+     * block keeps its level: basis[x][u] = C(u) / 2 * cos((2x + 1) * u * pi / 2N).
+     */
+    private static float[] idctBasis(int n) {
+        float[] basis = new float[n * n];
+        for (int x = 0; x < n; x++) {
+            for (int u = 0; u < n; u++) {
+                double c = u == 0 ? Math.sqrt(0.5) : 1.0;
+                basis[x * n + u] = (float) (c / 2 * Math.cos((2 * x + 1) * u * Math.PI / (2 * n)));
+            }
+        }
+        return basis;
+    }
+}
@@ -0,0 +1,123 @@
+package com.mediaindexer.thumbnail;
+
+import com.mediaindexer.model.MediaFile;
+import com.mediaindexer.model.MiniThumbnail;
+import com.mediaindexer.model.Thumbnail;
+import com.mediaindexer.model.ThumbnailRendition;
+import com.mediaindexer.model.ThumbnailErrorType;
+
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * State of one media file as it moves through the {@link ThumbnailPipeline}. Each stage fills in
+ * its part: the loader sets the source, output path, orientation and any embedded preview, the decoder the scaled
+ * images or a failure, the encoder the database records that the writer saves.
+ */
+public class ThumbnailJob {
+    public record Failure(ThumbnailErrorType errorType, String message) {}
+    
+    private final MediaFile mediaFile;
+    private Path thumbnailPath;
+    private boolean thumbnailNeeded;
+    private boolean miniThumbnailNeeded;
+    private boolean skipped;
+    private boolean linked;
+    
+    private MediaSource source;
+    private int orientation = 1;
+    private byte[] contentHash;
+    private EmbeddedPreviewExtractor.Preview preview;
+    
+    private BufferedImage thumbnailImage;
+    private BufferedImage miniThumbnailImage;
+    private final Map<Integer, BufferedImage> renditionImages = new TreeMap<>();
+    private Failure failure;
+    
+    private Thumbnail thumbnailRecord;
+    private MiniThumbnail miniThumbnailRecord;
+    private List<ThumbnailRendition> renditionRecords = new ArrayList<>();
+    
+    public ThumbnailJob(MediaFile mediaFile) {
+        this.mediaFile = mediaFile;
+        this.thumbnailNeeded = true;
+        this.miniThumbnailNeeded = true;
+    }
+    
+    public MediaFile getMediaFile() { return mediaFile; }
+    
+    public Path getThumbnailPath() { return thumbnailPath; }
+    public void setThumbnailPath(Path thumbnailPath) { this.thumbnailPath = thumbnailPath; }
+    
+    public boolean isThumbnailNeeded() { return thumbnailNeeded; }
+    public void setThumbnailNeeded(boolean thumbnailNeeded) { this.thumbnailNeeded = thumbnailNeeded; }
+    
+    public boolean isMiniThumbnailNeeded() { return miniThumbnailNeeded; }
+    public void setMiniThumbnailNeeded(boolean miniThumbnailNeeded) { this.miniThumbnailNeeded = miniThumbnailNeeded; }
+    
+    /** Marks the job as needing no work; the pipeline drops it after the current stage. */
+    public boolean isSkipped() { return skipped; }
+    public void setSkipped(boolean skipped) { this.skipped = skipped; }
+    
+    /** Whether the records were copied from a file with the same content; decode and encode pass the job through. */
+    public boolean isLinked() { return linked; }
+    public void setLinked(boolean linked) { this.linked = linked; }
+    
+    public MediaSource getSource() { return source; }
+    public void setSource(MediaSource source) { this.source = source; }
+    
+    public int getOrientation() { return orientation; }
+    public void setOrientation(int orientation) { this.orientation = orientation; }
+    
+    public byte[] getContentHash() { return contentHash; }
+    public void setContentHash(byte[] contentHash) { this.contentHash = contentHash; }
+    
+    /** An embedded JPEG to decode instead of the full image; null to decode the file itself. */
+    public EmbeddedPreviewExtractor.Preview getPreview() { return preview; }
+    public void setPreview(EmbeddedPreviewExtractor.Preview preview) { this.preview = preview; }
+    
+    public BufferedImage getThumbnailImage() { return thumbnailImage; }
+    public void setThumbnailImage(BufferedImage thumbnailImage) { this.thumbnailImage = thumbnailImage; }
+    
+    public BufferedImage getMiniThumbnailImage() { return miniThumbnailImage; }
+    public void setMiniThumbnailImage(BufferedImage miniThumbnailImage) { this.miniThumbnailImage = miniThumbnailImage; }
+    
+    /** Extra thumbnail sizes by configured size, in ascending order. */
+    public Map<Integer, BufferedImage> getRenditionImages() { return renditionImages; }
+    
+    /** Why the file could not be read, decoded or encoded; applies to both outputs. */
+    public Failure getFailure() { return failure; }
+    public void setFailure(Failure failure) { this.failure = failure; }
+    
+    public Thumbnail getThumbnailRecord() { return thumbnailRecord; }
+    public void setThumbnailRecord(Thumbnail thumbnailRecord) { this.thumbnailRecord = thumbnailRecord; }
+    
+    public MiniThumbnail getMiniThumbnailRecord() { return miniThumbnailRecord; }
+    public void setMiniThumbnailRecord(MiniThumbnail miniThumbnailRecord) { this.miniThumbnailRecord = miniThumbnailRecord; }
+    
+    /** Saved with the thumbnail record, replacing the file's previous renditions. */
+    public List<ThumbnailRendition> getRenditionRecords() { return renditionRecords; }
+    public void setRenditionRecords(List<ThumbnailRendition> renditionRecords) { this.renditionRecords = renditionRecords; }
+    
+    /**
+     * Returns the file buffer to the pool. Called once decoding is done, so the raw bytes never
+     * wait in the encode or write queues.
+     */
+    public void releaseSource() {
+        if (source != null) {
+            source.close();
+            source = null;
+        }
+    }
+    
+    /** Drops the decoded images once they are encoded. */
+    public void releaseImages() {
+        thumbnailImage = null;
+        miniThumbnailImage = null;
+        renditionImages.clear();
+    }
+}
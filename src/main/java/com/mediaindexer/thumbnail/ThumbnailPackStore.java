@@ -0,0 +1,158 @@
+package com.mediaindexer.thumbnail;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stores thumbnails as entries appended to a few large segment files instead of one file each.
+ * The database keeps each entry's segment, offset and length; the store itself has no index.
+ * Entries are never changed in place: a replaced thumbnail leaves dead bytes behind, which are
+ * reclaimed by copying a segment's live entries to a new segment and deleting the old one.
+ */
+public class ThumbnailPackStore implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(ThumbnailPackStore.class);
+    private static final Pattern SEGMENT_NAME = Pattern.compile("thumbnails-(\\d{6})\\.pack");
+    
+    public record Entry(int segment, long offset, int length) {}
+    
+    private final Path directory;
+    private final long maxSegmentSize;
+    private final TreeSet<Integer> segments = new TreeSet<>();
+    private final Map<Integer, MappedByteBuffer> mappings = new HashMap<>();
+    
+    private FileChannel activeChannel;
+    private int activeSegment = -1;
+    private long activeSize;
+    
+    public ThumbnailPackStore(Path directory, long maxSegmentSize) throws IOException {
+        this.directory = directory;
+        // A segment is mapped as a whole, which a single MappedByteBuffer limits to 2 GB
+        this.maxSegmentSize = Math.max(1, Math.min(Integer.MAX_VALUE, maxSegmentSize));
+        
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "thumbnails-*.pack")) {
+            for (Path path : stream) {
+                Matcher matcher = SEGMENT_NAME.matcher(path.getFileName().toString());
+                if (matcher.matches()) {
+                    segments.add(Integer.parseInt(matcher.group(1)));
+                }
+            }
+        }
+    }
+    
+    /** Appends the data to the active segment, starting a new one when it would grow past the maximum size. */
+    public synchronized Entry append(ByteBuffer data) throws IOException {
+        int length = data.remaining();
+        if (activeChannel == null) {
+            openActiveSegment();
+        }
+        if (activeSize > 0 && activeSize + length > maxSegmentSize) {
+            startNewSegment();
+        }
+        
+        long offset = activeSize;
+        long position = offset;
+        while (data.hasRemaining()) {
+            position += activeChannel.write(data, position);
+        }
+        activeSize += length;
+        return new Entry(activeSegment, offset, length);
+    }
+    
+    /** Returns the entry's bytes as a read-only view of the memory-mapped segment. */
+    public synchronized ByteBuffer read(Entry entry) throws IOException {
+        long end = entry.offset() + entry.length();
+        MappedByteBuffer mapping = mappings.get(entry.segment());
+        
+        // The active segment grows after it is mapped; map it again to reach newer entries
+        if (mapping == null || mapping.capacity() < end) {
+            try (FileChannel channel = FileChannel.open(segmentPath(entry.segment()), StandardOpenOption.READ)) {
+                if (channel.size() < end) {
+                    throw new IOException(String.format("Pack entry at %d+%d is past the end of segment %d",
+                                                        entry.offset(), entry.length(), entry.segment()));
+                }
+                mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            mappings.put(entry.segment(), mapping);
+        }
+        return mapping.slice((int) entry.offset(), entry.length()).asReadOnlyBuffer();
+    }
+    
+    /** Flushes appended entries to disk; call before committing the rows that point to them. */
+    public synchronized void force() throws IOException {
+        if (activeChannel != null) {
+            activeChannel.force(false);
+        }
+    }
+    
+    /** Closes the active segment so later appends go to a new one. */
+    public synchronized void startNewSegment() throws IOException {
+        closeActiveSegment();
+        int segment = segments.isEmpty() ? 1 : segments.last() + 1;
+        segments.add(segment);
+        activeSegment = segment;
+        activeChannel = FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        activeSize = activeChannel.size();
+    }
+    
+    public synchronized TreeSet<Integer> getSegments() {
+        return new TreeSet<>(segments);
+    }
+    
+    public synchronized long getSegmentSize(int segment) throws IOException {
+        return segment == activeSegment ? activeSize : Files.size(segmentPath(segment));
+    }
+    
+    public synchronized void deleteSegment(int segment) throws IOException {
+        if (segment == activeSegment) {
+            closeActiveSegment();
+        }
+        mappings.remove(segment);
+        segments.remove(segment);
+        Files.deleteIfExists(segmentPath(segment));
+        logger.debug("Deleted thumbnail pack segment {}", segment);
+    }
+    
+    @Override
+    public synchronized void close() throws IOException {
+        closeActiveSegment();
+        mappings.clear();
+    }
+    
+    private void openActiveSegment() throws IOException {
+        if (segments.isEmpty()) {
+            startNewSegment();
+            return;
+        }
+        activeSegment = segments.last();
+        activeChannel = FileChannel.open(segmentPath(activeSegment), StandardOpenOption.WRITE);
+        activeSize = activeChannel.size();
+    }
+    
+    private void closeActiveSegment() throws IOException {
+        if (activeChannel != null) {
+            activeChannel.force(false);
+            activeChannel.close();
+            activeChannel = null;
+            activeSegment = -1;
+        }
+    }
+    
+    private Path segmentPath(int segment) {
+        return directory.resolve(String.format("thumbnails-%06d.pack", segment));
+    }
+}
@@ -0,0 +1,216 @@
+package com.mediaindexer.thumbnail;
+
+import com.mediaindexer.model.ThumbnailErrorType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs thumbnail jobs through four stages connected by bounded queues:
+ * <ol>
+ *   <li>load: I/O threads read each file into memory</li>
+ *   <li>decode: CPU threads decode and scale the image</li>
+ *   <li>encode: threads that each own an {@link ImageEncoder} compress and write the outputs</li>
+ *   <li>write: a single thread saves results to the database in batched transactions</li>
+ * </ol>
+ * The queue after the load stage is kept small because it holds whole files; a full queue
+ * blocks the upstream stage, which caps the memory in flight.
+ */
+public class ThumbnailPipeline {
+    private static final Logger logger = LoggerFactory.getLogger(ThumbnailPipeline.class);
+    private static final ThumbnailJob END = new ThumbnailJob(null);
+    
+    public interface Stages {
+        void load(ThumbnailJob job) throws Exception;
+        
+        void decode(ThumbnailJob job) throws Exception;
+        
+        void encode(ThumbnailJob job, ImageEncoder encoder) throws Exception;
+        
+        void write(List<ThumbnailJob> batch) throws SQLException;
+    }
+    
+    @FunctionalInterface
+    private interface JobSource {
+        ThumbnailJob next() throws InterruptedException;
+    }
+    
+    @FunctionalInterface
+    private interface Step {
+        void apply(ThumbnailJob job, ImageEncoder encoder) throws Exception;
+    }
+    
+    private final Stages stages;
+    private final int ioThreads;
+    private final int decodeThreads;
+    private final int encodeThreads;
+    private final int batchSize;
+    
+    public ThumbnailPipeline(Stages stages, int ioThreads, int decodeThreads, int encodeThreads, int batchSize) {
+        this.stages = stages;
+        this.ioThreads = Math.max(1, ioThreads);
+        this.decodeThreads = Math.max(1, decodeThreads);
+        this.encodeThreads = Math.max(1, encodeThreads);
+        this.batchSize = Math.max(1, batchSize);
+    }
+    
+    /** Runs the jobs to completion. The iterator is only called by one load thread at a time and may fetch lazily. */
+    public void run(Iterator<ThumbnailJob> jobs) throws InterruptedException {
+        BlockingQueue<ThumbnailJob> decodeQueue = new ArrayBlockingQueue<>(ioThreads + 1);
+        BlockingQueue<ThumbnailJob> encodeQueue = new ArrayBlockingQueue<>(decodeThreads * 2);
+        BlockingQueue<ThumbnailJob> writeQueue = new ArrayBlockingQueue<>(batchSize * 2);
+        
+        JobSource jobSource = () -> {
+            synchronized (jobs) {
+                return jobs.hasNext() ? jobs.next() : END;
+            }
+        };
+        
+        List<Thread> threads = new ArrayList<>();
+        threads.addAll(startStage("thumbnail-load", ioThreads, jobSource, decodeQueue, decodeThreads,
+                                  (job, encoder) -> stages.load(job)));
+        threads.addAll(startStage("thumbnail-decode", decodeThreads, decodeQueue::take, encodeQueue, encodeThreads,
+                                  (job, encoder) -> stages.decode(job)));
+        threads.addAll(startStage("thumbnail-encode", encodeThreads, encodeQueue::take, writeQueue, 1,
+                                  stages::encode));
+        
+        Thread writer = new Thread(() -> runWriter(writeQueue), "thumbnail-writer");
+        writer.start();
+        threads.add(writer);
+        
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            threads.forEach(Thread::interrupt);
+            throw e;
+        }
+    }
+    
+    private List<Thread> startStage(String name, int threadCount, JobSource input, BlockingQueue<ThumbnailJob> output,
+                                    int consumers, Step step) {
+        AtomicInteger running = new AtomicInteger(threadCount);
+        List<Thread> threads = new ArrayList<>(threadCount);
+        
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = new Thread(() -> {
+                try (ImageEncoder encoder = new ImageEncoder()) {
+                    ThumbnailJob job;
+                    while ((job = input.next()) != END) {
+                        if (process(job, encoder, step)) {
+                            output.put(job);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    // The last thread of a stage tells every consumer of the next one to stop
+                    if (running.decrementAndGet() == 0) {
+                        signalEnd(output, consumers);
+                    }
+                }
+            }, name + "-" + (i + 1));
+            thread.start();
+            threads.add(thread);
+        }
+        
+        return threads;
+    }
+    
+    private boolean process(ThumbnailJob job, ImageEncoder encoder, Step step) {
+        try {
+            step.apply(job, encoder);
+        } catch (InterruptedException e) {
+            // Keep the flag set so the worker's next queue operation ends it
+            Thread.currentThread().interrupt();
+            job.setSkipped(true);
+        } catch (Exception e) {
+            logger.error("Failed to generate thumbnails for file: {}", job.getMediaFile().getFilePath(), e);
+            fail(job, ThumbnailErrorType.DECODING_ERROR, "Thumbnail generation failed: " + e);
+        } catch (OutOfMemoryError e) {
+            // Usually one oversized image; the worker must survive or the stages before it block forever
+            logger.error("Out of memory generating thumbnails for file: {}", job.getMediaFile().getFilePath(), e);
+            fail(job, ThumbnailErrorType.OUT_OF_MEMORY, "Thumbnail generation failed: out of memory");
+        }
+        
+        if (job.isSkipped()) {
+            job.releaseSource();
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Records an unexpected error as the job's failure and passes it on, so the file gets failure
+     * records and a retry entry like any other that cannot be decoded, instead of being picked up
+     * and failing again on every run. Outputs made before the error are dropped.
+     */
+    private void fail(ThumbnailJob job, ThumbnailErrorType errorType, String reason) {
+        job.releaseSource();
+        job.releaseImages();
+        job.setThumbnailRecord(null);
+        job.setMiniThumbnailRecord(null);
+        job.setRenditionRecords(new ArrayList<>());
+        job.setFailure(new ThumbnailJob.Failure(errorType, reason + " - " + job.getMediaFile().getFilePath()));
+    }
+    
+    private void signalEnd(BlockingQueue<ThumbnailJob> output, int consumers) {
+        try {
+            for (int i = 0; i < consumers; i++) {
+                output.put(END);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private void runWriter(BlockingQueue<ThumbnailJob> writeQueue) {
+        List<ThumbnailJob> batch = new ArrayList<>(batchSize);
+        boolean finished = false;
+        
+        try {
+            while (!finished) {
+                ThumbnailJob job = writeQueue.take();
+                if (job == END) {
+                    break;
+                }
+                batch.add(job);
+                
+                // Take whatever else is ready so a busy pipeline commits in large batches
+                while (batch.size() < batchSize) {
+                    ThumbnailJob next = writeQueue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    if (next == END) {
+                        finished = true;
+                        break;
+                    }
+                    batch.add(next);
+                }
+                
+                writeBatch(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private void writeBatch(List<ThumbnailJob> batch) {
+        try {
+            stages.write(batch);
+        } catch (SQLException | RuntimeException e) {
+            logger.error("Failed to save thumbnails for a batch of {} files starting with {}",
+                        batch.size(), batch.get(0).getMediaFile().getFilePath(), e);
+        }
+    }
+}
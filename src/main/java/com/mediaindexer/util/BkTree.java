@@ -0,0 +1,98 @@
+package com.mediaindexer.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.LongConsumer;
+
+/**
+ * Burkhard-Keller tree over 64-bit hashes under Hamming distance. Answers "all ids within
+ * distance k" by visiting only the subtrees the triangle inequality cannot rule out.
+ */
+public class BkTree {
+    private static final int MAX_DISTANCE = Long.SIZE;
+    
+    private static final class Node {
+        private final long hash;
+        private long[] ids = new long[1];
+        private int idCount;
+        private Node[] children;
+        
+        private Node(long hash) {
+            this.hash = hash;
+        }
+        
+        private void addId(long id) {
+            if (idCount == ids.length) {
+                long[] grown = new long[ids.length * 2];
+                System.arraycopy(ids, 0, grown, 0, idCount);
+                ids = grown;
+            }
+            ids[idCount++] = id;
+        }
+    }
+    
+    private Node root;
+    private int size;
+    
+    public void add(long hash, long id) {
+        size++;
+        if (root == null) {
+            root = new Node(hash);
+            root.addId(id);
+            return;
+        }
+        
+        Node node = root;
+        while (true) {
+            int distance = PerceptualHash.hammingDistance(hash, node.hash);
+            if (distance == 0) {
+                node.addId(id);
+                return;
+            }
+            if (node.children == null) {
+                node.children = new Node[MAX_DISTANCE + 1];
+            }
+            Node child = node.children[distance];
+            if (child == null) {
+                child = new Node(hash);
+                child.addId(id);
+                node.children[distance] = child;
+                return;
+            }
+            node = child;
+        }
+    }
+    
+    public void search(long hash, int maxDistance, LongConsumer consumer) {
+        if (root == null) {
+            return;
+        }
+        
+        Deque<Node> pending = new ArrayDeque<>();
+        pending.push(root);
+        
+        while (!pending.isEmpty()) {
+            Node node = pending.pop();
+            int distance = PerceptualHash.hammingDistance(hash, node.hash);
+            if (distance <= maxDistance) {
+                for (int i = 0; i < node.idCount; i++) {
+                    consumer.accept(node.ids[i]);
+                }
+            }
+            if (node.children == null) {
+                continue;
+            }
+            int from = Math.max(1, distance - maxDistance);
+            int to = Math.min(MAX_DISTANCE, distance + maxDistance);
+            for (int d = from; d <= to; d++) {
+                if (node.children[d] != null) {
+                    pending.push(node.children[d]);
+                }
+            }
+        }
+    }
+    
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,60 @@
+package com.mediaindexer.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * Small pool of reusable byte arrays. Buffers larger than {@code maxPooledBufferSize} are
+ * handed out but never retained, so a single huge file cannot pin its memory for the run.
+ * Idle buffers are also capped at {@code maxPooledBytes} in total: they are not part of any
+ * decode's memory reservation, so the cap is what bounds them.
+ */
+public class BufferPool {
+    private static final int ALLOCATION_GRANULARITY = 1024 * 1024;
+    
+    private final int maxBuffers;
+    private final int maxPooledBufferSize;
+    private final long maxPooledBytes;
+    private final Deque<byte[]> buffers = new ArrayDeque<>();
+    private long pooledBytes;
+    
+    public BufferPool(int maxBuffers, int maxPooledBufferSize, long maxPooledBytes) {
+        this.maxBuffers = maxBuffers;
+        this.maxPooledBufferSize = maxPooledBufferSize;
+        this.maxPooledBytes = maxPooledBytes;
+    }
+    
+    public synchronized byte[] acquire(int minSize) {
+        Iterator<byte[]> iterator = buffers.iterator();
+        while (iterator.hasNext()) {
+            byte[] buffer = iterator.next();
+            if (buffer.length >= minSize) {
+                iterator.remove();
+                pooledBytes -= buffer.length;
+                return buffer;
+            }
+        }
+        
+        // Round up so slightly larger files can reuse the buffer later
+        long rounded = ((long) minSize + ALLOCATION_GRANULARITY - 1) / ALLOCATION_GRANULARITY * ALLOCATION_GRANULARITY;
+        return new byte[(int) Math.min(Integer.MAX_VALUE - 8, Math.max(rounded, minSize))];
+    }
+    
+    public synchronized void release(byte[] buffer) {
+        if (buffer == null || buffer.length > maxPooledBufferSize || buffer.length > maxPooledBytes) {
+            return;
+        }
+        while (buffers.size() >= maxBuffers || pooledBytes + buffer.length > maxPooledBytes) {
+            // Keep the larger buffers, they can serve any request the smaller ones could
+            byte[] smallest = buffers.stream().min((a, b) -> Integer.compare(a.length, b.length)).orElse(null);
+            if (smallest == null || smallest.length >= buffer.length) {
+                return;
+            }
+            buffers.remove(smallest);
+            pooledBytes -= smallest.length;
+        }
+        buffers.push(buffer);
+        pooledBytes += buffer.length;
+    }
+}
@@ -0,0 +1,46 @@
+package com.mediaindexer.util;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+
+/**
+ * {@link javax.imageio.stream.ImageInputStream} over a byte array. Unlike
+ * {@code ImageIO.createImageInputStream(InputStream)} it needs no cache, because the
+ * whole stream is already in memory.
+ */
+public class ByteArrayImageInputStream extends ImageInputStreamImpl {
+    private final byte[] data;
+    private final int offset;
+    private final int length;
+    
+    public ByteArrayImageInputStream(byte[] data, int offset, int length) {
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+    }
+    
+    @Override
+    public int read() {
+        bitOffset = 0;
+        if (streamPos >= length) {
+            return -1;
+        }
+        return data[offset + (int) streamPos++] & 0xff;
+    }
+    
+    @Override
+    public int read(byte[] b, int off, int len) {
+        bitOffset = 0;
+        if (streamPos >= length) {
+            return -1;
+        }
+        int count = (int) Math.min(len, length - streamPos);
+        System.arraycopy(data, offset + (int) streamPos, b, off, count);
+        streamPos += count;
+        return count;
+    }
+    
+    @Override
+    public long length() {
+        return length;
+    }
+}
@@ -5,6 +5,8 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -12,72 +14,148 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
 
 public class HashUtil {
     private static final Logger logger = LoggerFactory.getLogger(HashUtil.class);
     private static final int BUFFER_SIZE = 8192;
+    private static final int CHUNK_BUFFER_SIZE = 1024 * 1024;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
     
-    public static String computeQuickHash(String filePath, long fileSize, LocalDateTime lastModified) {
+    public static byte[] computeQuickHash(String filePath, long fileSize, LocalDateTime lastModified) {
         String fileName = Paths.get(filePath).getFileName().toString();
         String input = fileName + "|" + fileSize + "|" + lastModified.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
         
         try {
             MessageDigest md = MessageDigest.getInstance("MD5");
-            byte[] hashBytes = md.digest(input.getBytes());
-            return bytesToHex(hashBytes);
+            return md.digest(input.getBytes());
         } catch (NoSuchAlgorithmException e) {
             logger.error("MD5 algorithm not available", e);
-            return String.valueOf(input.hashCode());
+            return ByteBuffer.allocate(Integer.BYTES).putInt(input.hashCode()).array();
         }
     }
     
-    public static String computeContentHash(Path filePath, String algorithm) throws IOException {
-        try {
-            MessageDigest digest = MessageDigest.getInstance(algorithm);
-            
-            try (InputStream inputStream = Files.newInputStream(filePath)) {
-                byte[] buffer = new byte[BUFFER_SIZE];
-                int bytesRead;
-                
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    digest.update(buffer, 0, bytesRead);
+    public static byte[] computeContentHash(Path filePath, String algorithm) throws IOException {
+        try (InputStream inputStream = Files.newInputStream(filePath)) {
+            return computeContentHash(inputStream, algorithm);
+        }
+    }
+    
+    public static byte[] computeContentHash(InputStream inputStream, String algorithm) throws IOException {
+        MessageDigest digest = newDigest(algorithm);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int bytesRead;
+        
+        while ((bytesRead = inputStream.read(buffer)) != -1) {
+            digest.update(buffer, 0, bytesRead);
+        }
+        
+        return digest.digest();
+    }
+    
+    /**
+     * Digests {@code length} bytes of the channel starting at {@code offset}. Uses positional
+     * reads, so several chunks of the same channel can be hashed concurrently.
+     */
+    public static byte[] computeChunkDigest(FileChannel channel, long offset, long length, String algorithm) throws IOException {
+        MessageDigest digest = newDigest(algorithm);
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(CHUNK_BUFFER_SIZE, Math.max(length, 1)));
+        long position = offset;
+        long end = offset + length;
+        
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int bytesRead = channel.read(buffer, position);
+            if (bytesRead < 0) {
+                throw new IOException("Unexpected end of file at offset " + position);
+            }
+            digest.update(buffer.array(), 0, bytesRead);
+            position += bytesRead;
+        }
+        
+        return digest.digest();
+    }
+    
+    /**
+     * Rolls chunk digests up into a binary Merkle root. Interior nodes hash a 0x01 prefix
+     * followed by both children; an odd node is promoted unchanged. A single chunk is its
+     * own root, so files that fit in one chunk keep their plain content hash.
+     */
+    public static byte[] computeMerkleRoot(List<byte[]> chunkDigests, String algorithm) throws IOException {
+        if (chunkDigests.isEmpty()) {
+            throw new IllegalArgumentException("At least one chunk digest is required");
+        }
+        
+        MessageDigest digest = newDigest(algorithm);
+        List<byte[]> level = chunkDigests;
+        
+        while (level.size() > 1) {
+            List<byte[]> nextLevel = new ArrayList<>((level.size() + 1) / 2);
+            for (int i = 0; i < level.size(); i += 2) {
+                if (i + 1 < level.size()) {
+                    digest.update((byte) 0x01);
+                    digest.update(level.get(i));
+                    digest.update(level.get(i + 1));
+                    nextLevel.add(digest.digest());
+                } else {
+                    nextLevel.add(level.get(i));
                 }
             }
-            
-            return bytesToHex(digest.digest());
-            
-        } catch (NoSuchAlgorithmException e) {
-            logger.error("Hash algorithm {} not available", algorithm, e);
-            throw new IOException("Hash algorithm not available: " + algorithm, e);
+            level = nextLevel;
+        }
+        
+        return level.get(0);
+    }
+    
+    public static byte[] computeFNV1Hash(Path filePath) throws IOException {
+        try (InputStream inputStream = Files.newInputStream(filePath)) {
+            return computeFNV1Hash(inputStream);
         }
     }
     
-    public static String computeFNV1Hash(Path filePath) throws IOException {
+    public static byte[] computeFNV1Hash(InputStream inputStream) throws IOException {
         final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
         final long FNV_PRIME = 0x100000001b3L;
         
         long hash = FNV_OFFSET_BASIS;
         
-        try (InputStream inputStream = Files.newInputStream(filePath)) {
-            byte[] buffer = new byte[BUFFER_SIZE];
-            int bytesRead;
-            
-            while ((bytesRead = inputStream.read(buffer)) != -1) {
-                for (int i = 0; i < bytesRead; i++) {
-                    hash ^= (buffer[i] & 0xff);
-                    hash *= FNV_PRIME;
-                }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int bytesRead;
+        
+        while ((bytesRead = inputStream.read(buffer)) != -1) {
+            for (int i = 0; i < bytesRead; i++) {
+                hash ^= (buffer[i] & 0xff);
+                hash *= FNV_PRIME;
             }
         }
         
-        return Long.toHexString(hash);
+        return ByteBuffer.allocate(Long.BYTES).putLong(hash).array();
     }
     
-    private static String bytesToHex(byte[] bytes) {
-        StringBuilder result = new StringBuilder();
-        for (byte b : bytes) {
-            result.append(String.format("%02x", b));
+    private static MessageDigest newDigest(String algorithm) throws IOException {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            logger.error("Hash algorithm {} not available", algorithm, e);
+            throw new IOException("Hash algorithm not available: " + algorithm, e);
+        }
+    }
+    
+    /**
+     * Hex-encodes a hash for display or a file name. Hashes are stored as raw bytes; this is
+     * only meant for the CLI, export and file naming edges.
+     */
+    public static String bytesToHex(byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+        char[] result = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            result[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0x0f];
+            result[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0f];
         }
-        return result.toString();
+        return new String(result);
     }
-}
\ No newline at end of file
+}
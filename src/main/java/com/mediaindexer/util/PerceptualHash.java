@@ -0,0 +1,53 @@
+package com.mediaindexer.util;
+
+import java.awt.image.BufferedImage;
+
+public class PerceptualHash {
+    private static final int HASH_WIDTH = 9;
+    private static final int HASH_HEIGHT = 8;
+    
+    /**
+     * Computes a 64-bit difference hash (dHash). The image is box-averaged down to a 9x8
+     * luminance grid and each bit records whether a cell is brighter than its right-hand
+     * neighbour. Meant to be fed an already downscaled image such as a mini thumbnail.
+     */
+    public static long computeDifferenceHash(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        double[] luminance = new double[HASH_WIDTH * HASH_HEIGHT];
+        int[] counts = new int[HASH_WIDTH * HASH_HEIGHT];
+        int[] row = new int[width];
+        
+        for (int y = 0; y < height; y++) {
+            int cellY = Math.min(HASH_HEIGHT - 1, y * HASH_HEIGHT / height);
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                int cell = cellY * HASH_WIDTH + Math.min(HASH_WIDTH - 1, x * HASH_WIDTH / width);
+                int rgb = row[x];
+                luminance[cell] += 0.299 * ((rgb >> 16) & 0xff) + 0.587 * ((rgb >> 8) & 0xff) + 0.114 * (rgb & 0xff);
+                counts[cell]++;
+            }
+        }
+        
+        for (int i = 0; i < luminance.length; i++) {
+            if (counts[i] > 0) {
+                luminance[i] /= counts[i];
+            }
+        }
+        
+        long hash = 0;
+        for (int y = 0; y < HASH_HEIGHT; y++) {
+            for (int x = 0; x < HASH_WIDTH - 1; x++) {
+                hash <<= 1;
+                if (luminance[y * HASH_WIDTH + x] > luminance[y * HASH_WIDTH + x + 1]) {
+                    hash |= 1;
+                }
+            }
+        }
+        return hash;
+    }
+    
+    public static int hammingDistance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+}
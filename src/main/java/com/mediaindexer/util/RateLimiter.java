@@ -0,0 +1,38 @@
+package com.mediaindexer.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces byte throughput across threads. Each caller reserves a slot proportional to the bytes
+ * it is about to consume and sleeps until that slot starts, so the long-run rate never exceeds
+ * the limit no matter how many readers share it.
+ */
+public class RateLimiter {
+    private final long bytesPerSecond;
+    private long nextFreeNanos = System.nanoTime();
+    
+    public RateLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+    
+    public void acquire(long bytes) throws InterruptedException {
+        if (bytesPerSecond <= 0) {
+            return;
+        }
+        
+        long startNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (nextFreeNanos < now) {
+                nextFreeNanos = now;
+            }
+            startNanos = nextFreeNanos;
+            nextFreeNanos += bytes * 1_000_000_000L / bytesPerSecond;
+        }
+        
+        long sleepNanos = startNanos - System.nanoTime();
+        if (sleepNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(sleepNanos);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.mediaindexer.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+public class ThrottledInputStream extends FilterInputStream {
+    private final RateLimiter rateLimiter;
+    
+    public ThrottledInputStream(InputStream in, RateLimiter rateLimiter) {
+        super(in);
+        this.rateLimiter = rateLimiter;
+    }
+    
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            throttle(1);
+        }
+        return b;
+    }
+    
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int bytesRead = super.read(b, off, len);
+        if (bytesRead > 0) {
+            throttle(bytesRead);
+        }
+        return bytesRead;
+    }
+    
+    private void throttle(int bytes) throws IOException {
+        try {
+            rateLimiter.acquire(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttling read");
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.mediaindexer.util;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Encodes a ThumbHash: a placeholder of about 25 bytes holding the image's average colour,
+ * aspect ratio and the lowest frequencies of its luminance and two colour channels. A browser
+ * can expand it into a blurred preview to show while the real thumbnail loads. Only opaque
+ * images are encoded; alpha is treated as fully opaque.
+ */
+public class ThumbHash {
+    /** Larger images take longer to encode and give the same hash; scale down to fit first. */
+    public static final int MAX_INPUT_SIZE = 100;
+    
+    private record Channel(double dc, double[] ac, double scale) {}
+    
+    public static byte[] encode(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (width > MAX_INPUT_SIZE || height > MAX_INPUT_SIZE) {
+            throw new IllegalArgumentException(String.format("%dx%d does not fit in %dx%d",
+                                                             width, height, MAX_INPUT_SIZE, MAX_INPUT_SIZE));
+        }
+        
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        double[] luminance = new double[pixels.length];
+        double[] yellowBlue = new double[pixels.length];
+        double[] redGreen = new double[pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            double r = ((pixels[i] >> 16) & 0xff) / 255.0;
+            double g = ((pixels[i] >> 8) & 0xff) / 255.0;
+            double b = (pixels[i] & 0xff) / 255.0;
+            luminance[i] = (r + g + b) / 3;
+            yellowBlue[i] = (r + g) / 2 - b;
+            redGreen[i] = r - g;
+        }
+        
+        // Up to 7 luminance terms along the longer side, proportionally fewer along the shorter
+        int longer = Math.max(width, height);
+        int lx = Math.max(1, (int) Math.round(7.0 * width / longer));
+        int ly = Math.max(1, (int) Math.round(7.0 * height / longer));
+        Channel l = encodeChannel(luminance, width, height, Math.max(3, lx), Math.max(3, ly));
+        Channel p = encodeChannel(yellowBlue, width, height, 3, 3);
+        Channel q = encodeChannel(redGreen, width, height, 3, 3);
+        
+        boolean landscape = width > height;
+        int header24 = (int) Math.round(63 * l.dc())
+            | (int) Math.round(31.5 + 31.5 * p.dc()) << 6
+            | (int) Math.round(31.5 + 31.5 * q.dc()) << 12
+            | (int) Math.round(31 * l.scale()) << 18;
+        int header16 = (landscape ? ly : lx)
+            | (int) Math.round(63 * p.scale()) << 3
+            | (int) Math.round(63 * q.scale()) << 9
+            | (landscape ? 1 : 0) << 15;
+        
+        int acCount = l.ac().length + p.ac().length + q.ac().length;
+        byte[] hash = new byte[5 + (acCount + 1) / 2];
+        hash[0] = (byte) header24;
+        hash[1] = (byte) (header24 >> 8);
+        hash[2] = (byte) (header24 >> 16);
+        hash[3] = (byte) header16;
+        hash[4] = (byte) (header16 >> 8);
+        
+        // The AC terms follow as 4-bit values, low nibble first
+        int index = 0;
+        for (Channel channel : new Channel[] {l, p, q}) {
+            for (double f : channel.ac()) {
+                hash[5 + (index >> 1)] |= (byte) (Math.round(15 * f) << ((index & 1) << 2));
+                index++;
+            }
+        }
+        return hash;
+    }
+    
+    /**
+     * Takes the DCT terms in the triangle {@code cx * ny < nx * (ny - cy)}. The AC terms are
+     * returned normalized to 0..1 by the largest of them, which is returned as the scale.
+     */
+    private static Channel encodeChannel(double[] channel, int width, int height, int nx, int ny) {
+        double dc = 0;
+        double scale = 0;
+        double[] ac = new double[nx * ny];
+        int acCount = 0;
+        double[] fx = new double[width];
+        
+        for (int cy = 0; cy < ny; cy++) {
+            for (int cx = 0; cx * ny < nx * (ny - cy); cx++) {
+                for (int x = 0; x < width; x++) {
+                    fx[x] = Math.cos(Math.PI / width * cx * (x + 0.5));
+                }
+                double f = 0;
+                for (int y = 0; y < height; y++) {
+                    double fy = Math.cos(Math.PI / height * cy * (y + 0.5));
+                    int row = y * width;
+                    for (int x = 0; x < width; x++) {
+                        f += channel[row + x] * fx[x] * fy;
+                    }
+                }
+                f /= width * height;
+                
+                if (cx > 0 || cy > 0) {
+                    ac[acCount++] = f;
+                    scale = Math.max(scale, Math.abs(f));
+                } else {
+                    dc = f;
+                }
+            }
+        }
+        
+        double[] normalized = new double[acCount];
+        for (int i = 0; i < acCount; i++) {
+            normalized[i] = scale > 0 ? 0.5 + 0.5 / scale * ac[i] : 0.5;
+        }
+        return new Channel(dc, normalized, scale);
+    }
+}
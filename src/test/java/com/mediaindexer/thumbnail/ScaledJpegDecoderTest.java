@@ -0,0 +1,267 @@
+package com.mediaindexer.thumbnail;
+
+import com.mediaindexer.util.BufferPool;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Decodes small JPEGs written by ImageIO at every scale and compares them with ImageIO's own
+ * full-size decode, box-averaged to the same size.
+ */
+class ScaledJpegDecoderTest {
+    private static final int[] DENOMINATORS = {1, 2, 4, 8};
+    
+    // Reduced IDCTs and box averaging differ mostly at hard edges; ImageIO also upsamples
+    // 4:2:0 chroma smoothly where the decoder repeats it, so chroma is kept smooth in the images
+    private static final double MIN_PSNR = 32.0;
+    
+    private static final String JPEG_METADATA_FORMAT = "javax_imageio_jpeg_image_1.0";
+    
+    @Test
+    void decodesBaseline() throws IOException {
+        assertMatchesImageIO(encode(createImage(96, 64, BufferedImage.TYPE_INT_RGB), false, 0, true));
+    }
+    
+    @Test
+    void decodesProgressive() throws IOException {
+        assertMatchesImageIO(encode(createImage(96, 64, BufferedImage.TYPE_INT_RGB), true, 0, true));
+    }
+    
+    @Test
+    void decodesRestartIntervals() throws IOException {
+        byte[] jpeg = encode(createImage(96, 64, BufferedImage.TYPE_INT_RGB), false, 3, true);
+        assertTrue(indexOfMarker(jpeg, 0xDD) >= 0, "DRI marker written");
+        assertMatchesImageIO(jpeg);
+    }
+    
+    @Test
+    void decodesChromaSubsampling() throws IOException {
+        BufferedImage image = createImage(96, 64, BufferedImage.TYPE_INT_RGB);
+        assertMatchesImageIO(encode(image, false, 0, true));
+        assertMatchesImageIO(encode(image, false, 0, false));
+    }
+    
+    @Test
+    void decodesGrayscale() throws IOException {
+        assertMatchesImageIO(encode(createImage(96, 64, BufferedImage.TYPE_BYTE_GRAY), false, 0, true));
+        assertMatchesImageIO(encode(createImage(96, 64, BufferedImage.TYPE_BYTE_GRAY), true, 0, true));
+    }
+    
+    @Test
+    void decodesOddSizes() throws IOException {
+        assertMatchesImageIO(encode(createImage(37, 23, BufferedImage.TYPE_INT_RGB), false, 0, true));
+        assertMatchesImageIO(encode(createImage(101, 67, BufferedImage.TYPE_INT_RGB), true, 2, true));
+        assertMatchesImageIO(encode(createImage(29, 41, BufferedImage.TYPE_BYTE_GRAY), false, 0, true));
+    }
+    
+    @Test
+    void rejectsTruncatedStream() throws IOException {
+        byte[] jpeg = encode(createImage(96, 64, BufferedImage.TYPE_INT_RGB), false, 0, true);
+        int scanStart = indexOfMarker(jpeg, 0xDA);
+        byte[] truncated = Arrays.copyOf(jpeg, scanStart + (jpeg.length - scanStart) / 2);
+        
+        for (int denominator : DENOMINATORS) {
+            ScaledJpegDecoder decoder = new ScaledJpegDecoder(truncated, 0, truncated.length);
+            decoder.readHeader();
+            assertThrows(IOException.class, () -> decoder.decode(denominator), "1/" + denominator);
+        }
+        
+        byte[] headerOnly = Arrays.copyOf(jpeg, scanStart - 10);
+        assertThrows(IOException.class, () -> new ScaledJpegDecoder(headerOnly, 0, headerOnly.length).readHeader());
+    }
+    
+    @Test
+    void rejectsCorruptRestartMarker() throws IOException {
+        byte[] jpeg = encode(createImage(96, 64, BufferedImage.TYPE_INT_RGB), false, 1, true);
+        int restart = indexOfMarker(jpeg, 0xD0, indexOfMarker(jpeg, 0xDA));
+        assertTrue(restart >= 0, "RST0 marker written");
+        jpeg[restart + 1] = (byte) 0xC4;
+        
+        ScaledJpegDecoder decoder = new ScaledJpegDecoder(jpeg, 0, jpeg.length);
+        decoder.readHeader();
+        assertThrows(IOException.class, () -> decoder.decode(2));
+    }
+    
+    @Test
+    void truncatedFileFallsBackToImageIO(@TempDir Path directory) throws IOException {
+        byte[] jpeg = encode(createImage(400, 300, BufferedImage.TYPE_INT_RGB), false, 0, true);
+        int scanStart = indexOfMarker(jpeg, 0xDA);
+        Path path = directory.resolve("truncated.jpg");
+        Files.write(path, Arrays.copyOf(jpeg, scanStart + (jpeg.length - scanStart) / 2));
+        
+        ImageDecoder imageDecoder = new ImageDecoder(new RasterPool(0, 0));
+        try (MediaSource source = MediaSource.open(path, new BufferPool(0, 0, 0), 1 << 20);
+             DecodeWatchdog watchdog = new DecodeWatchdog(10_000);
+             DecodeWatchdog.Deadline deadline = watchdog.start()) {
+            assertTrue(source.isBuffered());
+            BufferedImage image = imageDecoder.decode(source, 50, 50, deadline);
+            assertNotNull(image);
+            // The DCT path would give 50x38 at 1/8; ImageIO subsampling keeps every third pixel
+            int factor = ImageDecoder.computeSubsampling(400, 300, 50, 50);
+            assertEquals((400 + factor - 1) / factor, image.getWidth());
+            assertEquals((300 + factor - 1) / factor, image.getHeight());
+        }
+    }
+    
+    private static void assertMatchesImageIO(byte[] jpeg) throws IOException {
+        BufferedImage reference = ImageIO.read(new ByteArrayInputStream(jpeg));
+        assertNotNull(reference);
+        
+        for (int denominator : DENOMINATORS) {
+            ScaledJpegDecoder decoder = new ScaledJpegDecoder(jpeg, 0, jpeg.length);
+            decoder.readHeader();
+            assertEquals(reference.getWidth(), decoder.getWidth());
+            assertEquals(reference.getHeight(), decoder.getHeight());
+            
+            BufferedImage decoded = decoder.decode(denominator);
+            assertEquals((reference.getWidth() + denominator - 1) / denominator, decoded.getWidth(), "1/" + denominator);
+            assertEquals((reference.getHeight() + denominator - 1) / denominator, decoded.getHeight(), "1/" + denominator);
+            assertEquals(reference.getRaster().getNumBands(), decoded.getRaster().getNumBands(), "1/" + denominator);
+            
+            double psnr = psnr(boxAverage(reference.getRaster(), denominator), decoded.getRaster());
+            assertTrue(psnr >= MIN_PSNR, "PSNR at 1/" + denominator + " is " + psnr);
+        }
+    }
+    
+    /**
+     * Averages each {@code factor x factor} box. Boxes past the right and bottom edges repeat the
+     * last column and row, as the encoder does when it pads partial blocks.
+     */
+    private static double[][] boxAverage(Raster raster, int factor) {
+        int width = (raster.getWidth() + factor - 1) / factor;
+        int height = (raster.getHeight() + factor - 1) / factor;
+        int bands = raster.getNumBands();
+        double[][] result = new double[bands][width * height];
+        for (int band = 0; band < bands; band++) {
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    double sum = 0;
+                    for (int sy = y * factor; sy < (y + 1) * factor; sy++) {
+                        for (int sx = x * factor; sx < (x + 1) * factor; sx++) {
+                            sum += raster.getSample(Math.min(sx, raster.getWidth() - 1), Math.min(sy, raster.getHeight() - 1), band);
+                        }
+                    }
+                    result[band][y * width + x] = sum / (factor * factor);
+                }
+            }
+        }
+        return result;
+    }
+    
+    private static double psnr(double[][] expected, Raster actual) {
+        double squaredError = 0;
+        int samples = 0;
+        for (int band = 0; band < expected.length; band++) {
+            for (int y = 0; y < actual.getHeight(); y++) {
+                for (int x = 0; x < actual.getWidth(); x++) {
+                    double difference = expected[band][y * actual.getWidth() + x] - actual.getSample(x, y, band);
+                    squaredError += difference * difference;
+                    samples++;
+                }
+            }
+        }
+        double meanSquaredError = squaredError / samples;
+        return meanSquaredError == 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10(255.0 * 255.0 / meanSquaredError);
+    }
+    
+    /** Gradients, hard luma edges and some noise, so every frequency band carries something. */
+    private static BufferedImage createImage(int width, int height, int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Random random = new Random(width * 31L + height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = 255 * x / Math.max(1, width - 1);
+                int g = 255 * y / Math.max(1, height - 1);
+                int b = (int) (128 + 80 * Math.sin(x / 5.0) * Math.cos(y / 7.0));
+                int edge = ((x / 12 + y / 12) & 1) != 0 ? 40 : -40;
+                int noise = random.nextInt(17) - 8 + edge;
+                image.setRGB(x, y, (clamp(r + noise) << 16) | (clamp(g + noise) << 8) | clamp(b + noise));
+            }
+        }
+        return image;
+    }
+    
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+    
+    /**
+     * Writes the image as JPEG. A positive {@code restartInterval} adds a DRI segment; without
+     * {@code subsampleChroma} the chroma is stored at full resolution (4:4:4) instead of 4:2:0.
+     */
+    private static byte[] encode(BufferedImage image, boolean progressive, int restartInterval,
+                                 boolean subsampleChroma) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(0.9f);
+            if (progressive) {
+                param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+            }
+            
+            IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(image), param);
+            Element root = (Element) metadata.getAsTree(JPEG_METADATA_FORMAT);
+            Element markerSequence = (Element) root.getElementsByTagName("markerSequence").item(0);
+            if (restartInterval > 0) {
+                Element dri = new IIOMetadataNode("dri");
+                dri.setAttribute("interval", Integer.toString(restartInterval));
+                markerSequence.insertBefore(dri, markerSequence.getElementsByTagName("sof").item(0));
+            }
+            if (!subsampleChroma) {
+                for (Node node = root.getElementsByTagName("componentSpec").item(0); node != null; node = node.getNextSibling()) {
+                    ((Element) node).setAttribute("HsamplingFactor", "1");
+                    ((Element) node).setAttribute("VsamplingFactor", "1");
+                }
+            }
+            metadata.setFromTree(JPEG_METADATA_FORMAT, root);
+            
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ImageOutputStream output = ImageIO.createImageOutputStream(bytes)) {
+                writer.setOutput(output);
+                writer.write(null, new IIOImage(image, null, metadata), param);
+            }
+            return bytes.toByteArray();
+        } finally {
+            writer.dispose();
+        }
+    }
+    
+    private static int indexOfMarker(byte[] jpeg, int marker) {
+        return indexOfMarker(jpeg, marker, 0);
+    }
+    
+    private static int indexOfMarker(byte[] jpeg, int marker, int from) {
+        for (int i = Math.max(0, from); i + 1 < jpeg.length; i++) {
+            if ((jpeg[i] & 0xff) == 0xFF && (jpeg[i + 1] & 0xff) == marker) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}